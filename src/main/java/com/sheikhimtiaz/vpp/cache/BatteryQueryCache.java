@@ -0,0 +1,436 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Two-tier cache of query responses: a bounded in-process L1 in front of Redis. Reads try L1 first and only
+ * go to Redis on a local miss, filling L1 on the way back; writes go to both. Evictions are published on a
+ * Redis channel so every instance drops the same keys from its own L1. The local TTL bounds how long an
+ * entry can outlive a lost invalidation message. With {@code vpp.cache.local.enabled=false} every call goes
+ * straight to Redis as before.
+ * <p>
+ * Entries live in Redis for the hard TTL of their shape. With {@code vpp.cache.refresh.enabled} a marker key
+ * records that an entry is still within its soft TTL; callers serving an entry without one claim its refresh
+ * through {@link #claimStale}, so exactly one instance recomputes it while everyone keeps reading the old value.
+ */
+@Slf4j
+@Component
+public class BatteryQueryCache implements SmartLifecycle {
+
+    static final String INVALIDATION_CHANNEL = "battery-stats-invalidation";
+    private static final String EVICT_ALL = "*";
+
+    // Present while an entry is within its soft TTL, or while one instance holds the refresh of a stale one
+    private static final String FRESH_KEY_PREFIX = "battery-stats-fresh::";
+    private static final long CLAIMED = 0;
+    private static final int FRESHNESS_ENTRIES = 100_000;
+
+    // Claims the refresh of every key without a freshness marker by setting one for the lease time; for the
+    // others returns how long they stay fresh. CLAIMED for a claimed key, otherwise at least 1.
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_REFRESH_SCRIPT = RedisScript.of("""
+            local result = {}
+            for i, key in ipairs(KEYS) do
+                if redis.call('set', key, '1', 'PX', ARGV[1], 'NX') then
+                    result[i] = 0
+                else
+                    result[i] = math.max(redis.call('pttl', key), 1)
+                end
+            end
+            return result
+            """, List.class);
+
+    private final ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+    private final CacheInvalidationStrategy invalidation;
+    private final VppProperties.LocalCache properties;
+    private final VppProperties.Refresh refresh;
+
+    // Null when the local tier is disabled
+    private final Cache<String, BatteryQueryResponse> local;
+
+    // When each key known to this instance turns stale, in System.nanoTime(); null when refresh is disabled
+    private final Cache<String, Long> freshUntil;
+
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+
+    private volatile Disposable invalidations;
+
+    public BatteryQueryCache(ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate,
+                             ReactiveStringRedisTemplate stringRedisTemplate,
+                             CacheInvalidationStrategy invalidation,
+                             VppProperties properties,
+                             MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.invalidation = invalidation;
+        this.properties = properties.getCache().getLocal();
+        this.refresh = properties.getCache().getRefresh();
+        this.localHits = gets(meterRegistry, "l1", "hit");
+        this.localMisses = gets(meterRegistry, "l1", "miss");
+        this.redisHits = gets(meterRegistry, "l2", "hit");
+        this.redisMisses = gets(meterRegistry, "l2", "miss");
+
+        if (this.properties.isEnabled()) {
+            // Caffeine evicts by W-TinyLFU: a key must be used more often than the victim to get in
+            this.local = Caffeine.newBuilder()
+                    .maximumWeight(this.properties.getMaxBytes())
+                    .weigher(BatteryQueryCache::weigh)
+                    .expireAfterWrite(this.properties.getTtl())
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, local, "battery-query-l1");
+        } else {
+            this.local = null;
+        }
+        this.freshUntil = refresh.isEnabled()
+                ? Caffeine.newBuilder().maximumSize(FRESHNESS_ENTRIES).<String, Long>build()
+                : null;
+    }
+
+    private static Counter gets(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("vpp.cache.gets")
+                .description("Battery query cache lookups per tier")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Keys to store and look up results over the given postcode ranges under, in order. If they cannot be
+     * resolved the plain keys are used; under the generation strategy nothing reads those once Redis answers
+     * again.
+     */
+    public Mono<List<String>> resolveKeys(List<CacheInvalidationStrategy.RangeKey> keys) {
+        return invalidation.resolve(keys)
+                .onErrorResume(e -> {
+                    log.error("Error resolving cache keys: {}", e.getMessage(), e);
+                    return Mono.just(keys.stream().map(CacheInvalidationStrategy.RangeKey::key).toList());
+                });
+    }
+
+    public Mono<BatteryQueryResponse> get(String key) {
+        return Mono.defer(() -> {
+            BatteryQueryResponse cached = getLocal(key);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return redisTemplate.opsForValue().get(key)
+                    .doOnSuccess(value -> {
+                        if (value == null) {
+                            redisMisses.increment();
+                        } else {
+                            redisHits.increment();
+                            putLocal(key, value);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Values of {@code keys} in order, {@code null} for a miss. Keys held locally are left out of the MGET;
+     * if Redis fails the remaining keys are reported as misses.
+     */
+    public Mono<List<BatteryQueryResponse>> getAll(List<String> keys) {
+        return Mono.defer(() -> {
+            List<BatteryQueryResponse> values = new ArrayList<>(keys.size());
+            List<Integer> remote = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                BatteryQueryResponse cached = getLocal(keys.get(i));
+                values.add(cached);
+                if (cached == null) {
+                    remote.add(i);
+                }
+            }
+            if (remote.isEmpty()) {
+                return Mono.just(values);
+            }
+            return redisTemplate.opsForValue().multiGet(remote.stream().map(keys::get).toList())
+                    .map(found -> {
+                        for (int i = 0; i < remote.size(); i++) {
+                            BatteryQueryResponse value = found.get(i);
+                            if (value == null) {
+                                redisMisses.increment();
+                            } else {
+                                redisHits.increment();
+                                putLocal(keys.get(remote.get(i)), value);
+                                values.set(remote.get(i), value);
+                            }
+                        }
+                        return values;
+                    })
+                    .onErrorResume(e -> {
+                        log.error("Error retrieving batch from cache: {}", e.getMessage(), e);
+                        return Mono.just(values);
+                    });
+        });
+    }
+
+    /**
+     * Stores a result over postcodes {@code from} to {@code to} under its resolved key for the hard TTL,
+     * registers it with the invalidation strategy and, with refresh enabled, marks it fresh for the soft TTL.
+     * A strategy that updates entries in place stores the value together with its registration.
+     */
+    public Mono<Boolean> put(String key, BatteryQueryResponse value, int from, int to, VppProperties.Ttl ttl) {
+        return Mono.defer(() -> {
+            putLocal(key, value);
+            Mono<Boolean> stored = invalidation.updatesInPlace()
+                    ? invalidation.store(key, serialize(value), ttl.getHard(), from, to)
+                    : redisTemplate.opsForValue().set(key, value, ttl.getHard())
+                            .flatMap(set -> invalidation.register(key, from, to).thenReturn(set));
+            return stored.flatMap(set -> markFresh(key, ttl).thenReturn(set));
+        });
+    }
+
+    private byte[] serialize(BatteryQueryResponse value) {
+        return ByteUtils.getBytes(redisTemplate.getSerializationContext().getValueSerializationPair().write(value));
+    }
+
+    /**
+     * Of the given cached keys, those past their soft TTL whose background refresh this caller now holds.
+     * Keys this instance knows to be fresh are not sent to Redis; a failure claims nothing.
+     */
+    public Mono<List<String>> claimStale(List<String> keys) {
+        if (freshUntil == null) {
+            return Mono.just(List.of());
+        }
+        return Mono.defer(() -> {
+            long now = System.nanoTime();
+            List<String> unknown = keys.stream()
+                    .distinct()
+                    .filter(key -> {
+                        Long deadline = freshUntil.getIfPresent(key);
+                        return deadline == null || deadline - now <= 0;
+                    })
+                    .toList();
+            if (unknown.isEmpty()) {
+                return Mono.just(List.<String>of());
+            }
+            return stringRedisTemplate.execute(CLAIM_REFRESH_SCRIPT,
+                            unknown.stream().map(key -> FRESH_KEY_PREFIX + key).toList(),
+                            List.of(String.valueOf(refresh.getLeaseTtl().toMillis())))
+                    .next()
+                    .map(result -> {
+                        List<String> claimed = new ArrayList<>();
+                        for (int i = 0; i < unknown.size(); i++) {
+                            long freshMillis = ((Number) result.get(i)).longValue();
+                            if (freshMillis == CLAIMED) {
+                                claimed.add(unknown.get(i));
+                                freshMillis = refresh.getLeaseTtl().toMillis();
+                            }
+                            freshUntil.put(unknown.get(i), now + Duration.ofMillis(freshMillis).toNanos());
+                        }
+                        return claimed;
+                    })
+                    .defaultIfEmpty(List.of())
+                    .onErrorResume(e -> {
+                        log.error("Error claiming stale cache keys: {}", e.getMessage(), e);
+                        return Mono.just(List.of());
+                    });
+        });
+    }
+
+    private Mono<Void> markFresh(String key, VppProperties.Ttl ttl) {
+        if (freshUntil == null || ttl.getSoft().compareTo(ttl.getHard()) >= 0) {
+            return Mono.empty();
+        }
+        freshUntil.put(key, System.nanoTime() + ttl.getSoft().toNanos());
+        return stringRedisTemplate.opsForValue().set(FRESH_KEY_PREFIX + key, "1", ttl.getSoft()).then();
+    }
+
+    /**
+     * To be taken before storing batteries and passed to {@link #invalidate} afterwards. If it cannot be read
+     * the lowest watermark is used, which evicts every affected entry instead of updating any in place.
+     */
+    public Mono<Long> watermark() {
+        return invalidation.watermark()
+                .onErrorResume(e -> {
+                    log.error("Error reading cache invalidation watermark: {}", e.getMessage(), e);
+                    return Mono.just(0L);
+                });
+    }
+
+    /**
+     * Invalidates every entry whose range may contain one of the newly stored {@code batteries}. Keys the
+     * strategy hands back for eviction are deleted; keys it updated in Redis are only dropped from the local
+     * tiers. Returns the number of entries deleted or updated.
+     */
+    public Mono<Long> invalidate(Collection<Battery> batteries, long watermark) {
+        return invalidation.invalidate(batteries, watermark)
+                .flatMap(result -> {
+                    if (result.updated().isEmpty()) {
+                        return evict(result.evicted());
+                    }
+                    List<String> stale = new ArrayList<>(result.evicted());
+                    stale.addAll(result.updated());
+                    if (local != null) {
+                        local.invalidateAll(stale);
+                    }
+                    return (result.evicted().isEmpty()
+                            ? Mono.just(0L)
+                            : redisTemplate.delete(result.evicted().toArray(String[]::new)))
+                            .flatMap(deleted -> publish(String.join("\n", stale))
+                                    .thenReturn(deleted + result.updated().size()));
+                });
+    }
+
+    /**
+     * Deletes the keys from Redis and from the local tier of every instance
+     */
+    public Mono<Long> evict(List<String> keys) {
+        if (keys.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return Mono.defer(() -> {
+            if (local != null) {
+                local.invalidateAll(keys);
+            }
+            return redisTemplate.delete(keys.toArray(String[]::new))
+                    .flatMap(deleted -> publish(String.join("\n", keys)).thenReturn(deleted));
+        });
+    }
+
+    /**
+     * Invalidates every entry after writes that may have touched any postcode, such as a bulk load. The strategy
+     * finds the entries through its postcode buckets instead of a keyspace scan; evicted keys are deleted with
+     * their freshness markers and every instance clears its local tier. Returns the number of entries deleted.
+     */
+    public Mono<Long> invalidateAll() {
+        return invalidation.invalidateAll()
+                .flatMap(result -> {
+                    if (local != null) {
+                        local.invalidateAll();
+                    }
+                    if (freshUntil != null) {
+                        freshUntil.invalidateAll();
+                    }
+                    List<String> evicted = result.evicted();
+                    if (evicted.isEmpty()) {
+                        return publish(EVICT_ALL).thenReturn(0L);
+                    }
+                    return redisTemplate.delete(evicted.toArray(String[]::new))
+                            .flatMap(deleted -> deleteFreshnessMarkers(evicted)
+                                    .then(publish(EVICT_ALL))
+                                    .thenReturn(deleted));
+                });
+    }
+
+    private Mono<Void> deleteFreshnessMarkers(List<String> keys) {
+        if (freshUntil == null) {
+            return Mono.empty();
+        }
+        return stringRedisTemplate.delete(keys.stream().map(key -> FRESH_KEY_PREFIX + key).toArray(String[]::new)).then();
+    }
+
+    private BatteryQueryResponse getLocal(String key) {
+        if (local == null) {
+            return null;
+        }
+        BatteryQueryResponse cached = local.getIfPresent(key);
+        (cached != null ? localHits : localMisses).increment();
+        return cached;
+    }
+
+    private void putLocal(String key, BatteryQueryResponse value) {
+        if (local != null) {
+            local.put(key, value);
+        }
+    }
+
+    // Nobody else can hold a local entry unless the local tier is enabled, which is a fleet-wide setting
+    private Mono<Void> publish(String message) {
+        if (local == null) {
+            return Mono.empty();
+        }
+        return stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, message)
+                .then()
+                .onErrorResume(e -> {
+                    log.error("Failed to publish cache invalidation: {}", e.getMessage(), e);
+                    return Mono.empty();
+                });
+    }
+
+    void onInvalidation(String message) {
+        if (EVICT_ALL.equals(message)) {
+            local.invalidateAll();
+        } else {
+            local.invalidateAll(Arrays.asList(message.split("\n")));
+        }
+    }
+
+    // Rough heap footprint: object headers plus the UTF-16 content of the key, names and cursor
+    private static int weigh(String key, BatteryQueryResponse value) {
+        long bytes = 96 + 2L * key.length();
+        if (value.getBatteryNames() != null) {
+            for (String name : value.getBatteryNames()) {
+                bytes += 56 + 2L * name.length();
+            }
+        }
+        if (value.getNextCursor() != null) {
+            bytes += 56 + 2L * value.getNextCursor().length();
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Subscribes to invalidations from other instances. Messages missed while disconnected cannot be replayed,
+     * so the local tier is cleared on every (re)subscription.
+     */
+    @Override
+    public void start() {
+        if (local == null) {
+            return;
+        }
+        log.info("Starting local battery query cache: maxBytes={}, ttl={}", properties.getMaxBytes(), properties.getTtl());
+        invalidations = stringRedisTemplate.listenToChannel(INVALIDATION_CHANNEL)
+                .doOnSubscribe(subscription -> local.invalidateAll())
+                .doOnNext(message -> onInvalidation(message.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Cache invalidation subscription failed, retrying: {}",
+                                signal.failure().getMessage())))
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = invalidations;
+        if (current != null) {
+            log.info("Stopping cache invalidation subscription");
+            current.dispose();
+            invalidations = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Disposable current = invalidations;
+        return current != null && !current.isDisposed();
+    }
+}
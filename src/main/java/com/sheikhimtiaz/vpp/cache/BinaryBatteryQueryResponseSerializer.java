@@ -0,0 +1,229 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary form of cached query responses. A value starts with a schema version byte and a flags
+ * byte; the body holds varint counts, zigzag varint totals where they are whole numbers, and length-prefixed
+ * UTF-8 strings. Bodies of at least {@code compressionThreshold} bytes may be zstd compressed.
+ * <p>
+ * JSON values written before the switch start with {@code '{'}, never a version byte, and are still read, so
+ * instances can move to this codec while entries from the old one are live. Values of an unknown version fail
+ * to deserialize and are treated as misses by the cache; roll readers out before writers when bumping it.
+ */
+public class BinaryBatteryQueryResponseSerializer implements RedisSerializer<BatteryQueryResponse> {
+
+    static final byte VERSION = 1;
+
+    private static final int COMPRESSED = 1;
+    private static final int HAS_NAMES = 1 << 1;
+    private static final int HAS_CURSOR = 1 << 2;
+    private static final int WHOLE_TOTAL = 1 << 3;
+    private static final int WHOLE_AVERAGE = 1 << 4;
+
+    private static final byte JSON_OBJECT = '{';
+
+    private final RedisSerializer<BatteryQueryResponse> json = new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class);
+    private final boolean compress;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+
+    public BinaryBatteryQueryResponseSerializer() {
+        this(false, Integer.MAX_VALUE, 0);
+    }
+
+    public BinaryBatteryQueryResponseSerializer(boolean compress, int compressionThreshold, int compressionLevel) {
+        this.compress = compress;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+    }
+
+    @Override
+    public byte[] serialize(BatteryQueryResponse value) {
+        if (value == null) {
+            return null;
+        }
+        int flags = 0;
+        Writer body = new Writer(64);
+        if (value.getBatteryNames() != null) {
+            flags |= HAS_NAMES;
+            body.varint(value.getBatteryNames().size());
+            for (String name : value.getBatteryNames()) {
+                body.string(name);
+            }
+        }
+        flags |= body.number(value.getTotalWattCapacity()) ? WHOLE_TOTAL : 0;
+        flags |= body.number(value.getAverageWattCapacity()) ? WHOLE_AVERAGE : 0;
+        body.varint(value.getTotalBatteries());
+        body.varint(value.getPage());
+        body.varint(value.getSize());
+        if (value.getNextCursor() != null) {
+            flags |= HAS_CURSOR;
+            body.string(value.getNextCursor());
+        }
+
+        Writer out;
+        if (compress && body.length >= compressionThreshold) {
+            byte[] compressed = Zstd.compress(Arrays.copyOf(body.bytes, body.length), compressionLevel);
+            out = new Writer(compressed.length + 7);
+            out.put(VERSION);
+            out.put((byte) (flags | COMPRESSED));
+            out.varint(body.length);
+            out.put(compressed, compressed.length);
+        } else {
+            out = new Writer(body.length + 2);
+            out.put(VERSION);
+            out.put((byte) flags);
+            out.put(body.bytes, body.length);
+        }
+        return out.length == out.bytes.length ? out.bytes : Arrays.copyOf(out.bytes, out.length);
+    }
+
+    @Override
+    public BatteryQueryResponse deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == JSON_OBJECT) {
+            return json.deserialize(bytes);
+        }
+        if (bytes[0] != VERSION || bytes.length < 2) {
+            throw new SerializationException("Unsupported cached response version " + bytes[0]);
+        }
+        int flags = bytes[1];
+        try {
+            Reader in = new Reader(bytes, 2);
+            if ((flags & COMPRESSED) != 0) {
+                int length = (int) in.varint();
+                in = new Reader(Zstd.decompress(Arrays.copyOfRange(bytes, in.position, bytes.length), length), 0);
+            }
+            List<String> names = null;
+            if ((flags & HAS_NAMES) != 0) {
+                int count = (int) in.varint();
+                names = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    names.add(in.string());
+                }
+            }
+            double total = in.number((flags & WHOLE_TOTAL) != 0);
+            double average = in.number((flags & WHOLE_AVERAGE) != 0);
+            long totalBatteries = in.varint();
+            int page = (int) in.varint();
+            int size = (int) in.varint();
+            String cursor = (flags & HAS_CURSOR) != 0 ? in.string() : null;
+            return new BatteryQueryResponse(names, total, average, totalBatteries, page, size, cursor);
+        } catch (ArrayIndexOutOfBoundsException | ZstdException e) {
+            throw new SerializationException("Corrupt cached response", e);
+        }
+    }
+
+    private static final class Writer {
+        private byte[] bytes;
+        private int length;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        void put(byte[] src, int count) {
+            ensure(count);
+            System.arraycopy(src, 0, bytes, length, count);
+            length += count;
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void string(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            put(utf8, utf8.length);
+        }
+
+        // Sums of integer capacities are whole; only averages usually need the full eight bytes
+        boolean number(double value) {
+            long whole = (long) value;
+            if (whole == value && Math.abs(whole) < (1L << 53)) {
+                varint((whole << 1) ^ (whole >> 63));
+                return true;
+            }
+            long bits = Double.doubleToRawLongBits(value);
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                bytes[length++] = (byte) (bits >>> (8 * i));
+            }
+            return false;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint in cached response");
+        }
+
+        String string() {
+            int length = (int) varint();
+            if (length > bytes.length - position) {
+                throw new SerializationException("Truncated cached response");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        double number(boolean whole) {
+            if (whole) {
+                long zigzag = varint();
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (bytes[position++] & 0xFFL) << (8 * i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Versions cached keys by a generation counter per postcode bucket instead of deleting entries. A key carries
+ * the sum of the generations of the buckets its range covers; counters only grow, so any ingestion into the
+ * range moves the key to a new name and the superseded entry is simply never read again until its TTL runs
+ * out. Ingestion costs one INCR per affected bucket and never scans or deletes keys; each lookup pays one
+ * MGET of the counters instead.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "vpp.cache.invalidation", name = "strategy", havingValue = "generation")
+public class CacheGenerations implements CacheInvalidationStrategy {
+
+    private static final String GENERATION_KEY_PREFIX = "battery-stats-generation::bucket=";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final PostcodeBuckets buckets;
+
+    public CacheGenerations(ReactiveStringRedisTemplate redisTemplate, VppProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.buckets = new PostcodeBuckets(GENERATION_KEY_PREFIX, properties);
+    }
+
+    /**
+     * Reads the counters of every bucket the keys cover in a single MGET; a counter never incremented counts as 0
+     */
+    @Override
+    public Mono<List<String>> resolve(List<RangeKey> keys) {
+        List<List<String>> bucketsPerKey = keys.stream()
+                .map(key -> buckets.keys(key.from(), key.to()))
+                .toList();
+        List<String> covered = List.copyOf(bucketsPerKey.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+        if (covered.isEmpty()) {
+            return Mono.just(keys.stream().map(key -> versioned(key.key(), 0)).toList());
+        }
+        return redisTemplate.opsForValue().multiGet(covered)
+                .map(values -> {
+                    Map<String, Long> generations = new HashMap<>();
+                    for (int i = 0; i < covered.size(); i++) {
+                        generations.put(covered.get(i), values.get(i) != null ? Long.parseLong(values.get(i)) : 0L);
+                    }
+                    List<String> resolved = new ArrayList<>(keys.size());
+                    for (int i = 0; i < keys.size(); i++) {
+                        long generation = bucketsPerKey.get(i).stream().mapToLong(generations::get).sum();
+                        resolved.add(versioned(keys.get(i).key(), generation));
+                    }
+                    return resolved;
+                });
+    }
+
+    /**
+     * Nothing to track; the generations are part of the key
+     */
+    @Override
+    public Mono<Void> register(String key, int from, int to) {
+        return Mono.empty();
+    }
+
+    @Override
+    public boolean updatesInPlace() {
+        return false;
+    }
+
+    /**
+     * Never called, since nothing is updated in place
+     */
+    @Override
+    public Mono<Boolean> store(String key, byte[] value, Duration ttl, int from, int to) {
+        return Mono.error(new UnsupportedOperationException("Generation keys are stored by the cache"));
+    }
+
+    /**
+     * Nothing is updated in place, so no watermark is needed
+     */
+    @Override
+    public Mono<Long> watermark() {
+        return Mono.just(0L);
+    }
+
+    /**
+     * Bumps each affected bucket once, however many of the batteries fall into it. No key has to be deleted.
+     */
+    @Override
+    public Mono<Invalidation> invalidate(Collection<Battery> batteries, long watermark) {
+        // The client pipelines these over its shared connection
+        return Flux.fromIterable(buckets.keysOf(batteries))
+                .flatMap(bucket -> redisTemplate.opsForValue().increment(bucket))
+                .count()
+                .doOnNext(bumped -> log.debug("Advanced the cache generation of {} postcode buckets", bumped))
+                .thenReturn(Invalidation.NONE);
+    }
+
+    /**
+     * Bumps every bucket, so no key resolved before is read again. Nothing is scanned or deleted.
+     */
+    @Override
+    public Mono<Invalidation> invalidateAll() {
+        return Flux.fromIterable(buckets.all())
+                .flatMap(bucket -> redisTemplate.opsForValue().increment(bucket))
+                .count()
+                .doOnNext(bumped -> log.debug("Advanced the cache generation of all {} postcode buckets", bumped))
+                .thenReturn(Invalidation.NONE);
+    }
+
+    private static String versioned(String key, long generation) {
+        return key + ":gen=" + generation;
+    }
+}
@@ -0,0 +1,75 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.entity.Battery;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * How cached query results are kept in step with ingestion, chosen with {@code vpp.cache.invalidation.strategy}:
+ * {@code delete} indexes keys by postcode bucket and deletes them ({@link CacheKeyIndex}), {@code generation}
+ * versions keys by per-bucket counters and lets superseded entries expire ({@link CacheGenerations}).
+ */
+public interface CacheInvalidationStrategy {
+
+    /**
+     * Keys to store and look up the given results under, in order
+     */
+    Mono<List<String>> resolve(List<RangeKey> keys);
+
+    /**
+     * Records that {@code key}, as returned by {@link #resolve}, caches a result over postcodes {@code from} to {@code to}
+     */
+    Mono<Void> register(String key, int from, int to);
+
+    /**
+     * Whether {@link #invalidate} may update entries in place. Values are then written through {@link #store},
+     * so an entry and its registration always change together.
+     */
+    boolean updatesInPlace();
+
+    /**
+     * Stores the serialized {@code value} under {@code key} for {@code ttl} and registers it like {@link #register},
+     * in one step. Only used when {@link #updatesInPlace()}.
+     */
+    Mono<Boolean> store(String key, byte[] value, Duration ttl, int from, int to);
+
+    /**
+     * Taken before batteries are stored and passed to {@link #invalidate} afterwards. Entries cached after it
+     * may have been loaded with the batteries already counted, so they are never updated in place.
+     */
+    Mono<Long> watermark();
+
+    /**
+     * Brings the cache in line with newly stored {@code batteries}: every entry whose range may contain one of
+     * them is either left for the cache to delete or already updated in place in Redis
+     */
+    Mono<Invalidation> invalidate(Collection<Battery> batteries, long watermark);
+
+    /**
+     * Same as {@link #invalidate} for writes that may have touched any postcode, such as a bulk load: every
+     * entry is invalidated through the buckets, without scanning the keyspace, and none is updated in place
+     */
+    Mono<Invalidation> invalidateAll();
+
+    /**
+     * A cache key before resolution, with the postcode range of the result it names
+     */
+    record RangeKey(String key, int from, int to) {
+    }
+
+    /**
+     * Outcome of an invalidation. {@code evicted} keys still have to be deleted; {@code updated} keys were
+     * rewritten in Redis and only stale in local tiers.
+     */
+    record Invalidation(List<String> evicted, List<String> updated) {
+
+        public static final Invalidation NONE = new Invalidation(List.of(), List.of());
+
+        public static Invalidation evicting(List<String> keys) {
+            return new Invalidation(keys, List.of());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Secondary index from postcode buckets to the cached query keys whose range overlaps them, kept in Redis as
+ * one sorted set per bucket. Ingestion looks up the buckets of the new batteries' postcodes instead of scanning
+ * the keyspace and parsing every key. Matching is per bucket and ignores capacity filters, so an invalidation may
+ * drop a few entries the battery did not actually change, but never misses one it did.
+ * <p>
+ * Each registration is scored with the next value of a sequence. A writer takes the current value as its
+ * {@link #watermark()} before inserting; an aggregates entry registered after that may have been loaded after the
+ * insert committed, so it is evicted rather than patched, where adding the batteries would count them twice.
+ * For the same reason values are then written together with their registration, never ahead of it.
+ */
+@Component
+@ConditionalOnProperty(prefix = "vpp.cache.invalidation", name = "strategy", havingValue = "delete", matchIfMissing = true)
+public class CacheKeyIndex implements CacheInvalidationStrategy {
+
+    // Sorted sets under a name of their own, so instances still writing plain sets during a rollout never collide
+    private static final String INDEX_KEY_PREFIX = "battery-stats-registrations::bucket=";
+    private static final String SEQUENCE_KEY = "battery-stats-registrations::sequence";
+
+    // Adds the cache key to every bucket set of its range, scored with the next registration sequence, and keeps
+    // each set alive as long as its newest entry. KEYS[1] is the sequence, the buckets follow.
+    private static final RedisScript<Long> REGISTER_SCRIPT = RedisScript.of("""
+            local sequence = redis.call('incr', KEYS[1])
+            for i = 2, #KEYS do
+                redis.call('zadd', KEYS[i], sequence, ARGV[1])
+                redis.call('pexpire', KEYS[i], ARGV[2])
+            end
+            return sequence
+            """, Long.class);
+
+    // Same as REGISTER_SCRIPT, but first stores the value: KEYS[1] is the cache key, KEYS[2] the sequence and the
+    // buckets follow. ARGV holds the value, its TTL and the bucket retention, both in milliseconds.
+    private static final RedisScript<Long> STORE_SCRIPT = RedisScript.of("""
+            redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            local sequence = redis.call('incr', KEYS[2])
+            for i = 3, #KEYS do
+                redis.call('zadd', KEYS[i], sequence, KEYS[1])
+                redis.call('pexpire', KEYS[i], ARGV[3])
+            end
+            return sequence
+            """, Long.class);
+
+    private static final RedisElementWriter<byte[]> BYTES = RedisElementWriter.from(RedisSerializer.byteArray());
+    private static final RedisElementReader<Long> SEQUENCE = RedisElementReader.from(new GenericToStringSerializer<>(Long.class));
+
+    // Reads and deletes the bucket sets in one step, so a key registered meanwhile is never dropped unread
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> DRAIN_SCRIPT = RedisScript.of("""
+            local keys = {}
+            for _, bucket in ipairs(KEYS) do
+                for _, key in ipairs(redis.call('zrange', bucket, 0, -1)) do
+                    keys[#keys + 1] = key
+                end
+                redis.call('del', bucket)
+            end
+            return keys
+            """, List.class);
+
+    // Adds the new batteries to every aggregates entry of the buckets in place, keeping its TTL, and drains
+    // everything else. The range and capacity filter of an aggregates entry are read back from its key, so only
+    // batteries it actually covers are counted; entries that have expired are dropped from the set. ARGV holds
+    // the writer's watermark, then postcode and capacity pairs; entries registered after the watermark may
+    // already count the batteries and are evicted. Runs atomically, so an entry never loses an increment to a
+    // concurrent one. Only JSON values can be patched; entries stored by the binary codec are evicted like name pages.
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> APPLY_DELTAS_SCRIPT = RedisScript.of("""
+            local watermark = tonumber(ARGV[1])
+            local evicted, updated, seen = {}, {}, {}
+            for _, bucket in ipairs(KEYS) do
+                local members = redis.call('zrange', bucket, 0, -1, 'WITHSCORES')
+                for m = 1, #members, 2 do
+                    local key, registered = members[m], tonumber(members[m + 1])
+                    local from, to, min, max = string.match(key, 'from=(%d+):to=(%d+):min=([^:]+):max=([^:]+):aggregates$')
+                    if not from or registered > watermark then
+                        redis.call('zrem', bucket, key)
+                        if not seen[key] then
+                            evicted[#evicted + 1] = key
+                        end
+                    elseif not seen[key] then
+                        local value = redis.call('get', key)
+                        if not value then
+                            redis.call('zrem', bucket, key)
+                        else
+                            from, to, min, max = tonumber(from), tonumber(to), tonumber(min), tonumber(max)
+                            local count, sum = 0, 0
+                            for i = 2, #ARGV, 2 do
+                                local postcode, capacity = tonumber(ARGV[i]), tonumber(ARGV[i + 1])
+                                if postcode >= from and postcode <= to
+                                        and (min == nil or max == nil or (capacity >= min and capacity <= max)) then
+                                    count = count + 1
+                                    sum = sum + capacity
+                                end
+                            end
+                            if count > 0 then
+                                local ok, entry = pcall(cjson.decode, value)
+                                if ok then
+                                    entry.totalBatteries = entry.totalBatteries + count
+                                    entry.totalWattCapacity = entry.totalWattCapacity + sum
+                                    entry.averageWattCapacity = entry.totalWattCapacity / entry.totalBatteries
+                                    redis.call('set', key, cjson.encode(entry), 'KEEPTTL')
+                                    updated[#updated + 1] = key
+                                else
+                                    redis.call('zrem', bucket, key)
+                                    evicted[#evicted + 1] = key
+                                end
+                            end
+                        end
+                    end
+                    seen[key] = true
+                end
+            end
+            return {evicted, updated}
+            """, List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final VppProperties properties;
+    private final PostcodeBuckets buckets;
+
+    public CacheKeyIndex(ReactiveStringRedisTemplate redisTemplate, VppProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.buckets = new PostcodeBuckets(INDEX_KEY_PREFIX, properties);
+    }
+
+    /**
+     * Keys are used as they are; entries are found through the index instead
+     */
+    @Override
+    public Mono<List<String>> resolve(List<RangeKey> keys) {
+        return Mono.just(keys.stream().map(RangeKey::key).toList());
+    }
+
+    @Override
+    public Mono<Void> register(String key, int from, int to) {
+        List<String> rangeBuckets = buckets.keys(from, to);
+        if (rangeBuckets.isEmpty()) {
+            return Mono.empty();
+        }
+        List<String> keys = new ArrayList<>(1 + rangeBuckets.size());
+        keys.add(SEQUENCE_KEY);
+        keys.addAll(rangeBuckets);
+        return redisTemplate.execute(REGISTER_SCRIPT, keys, List.of(key, retentionMillis()))
+                .then();
+    }
+
+    /**
+     * Aggregates entries are only patched in place with {@code aggregate-deltas}
+     */
+    @Override
+    public boolean updatesInPlace() {
+        return properties.getCache().getInvalidation().isAggregateDeltas();
+    }
+
+    /**
+     * Sets the value and registers it in one script. Registering after a separate SET would leave an overwritten
+     * entry under its older score until the registration lands, and a delta applied in between would patch a
+     * value that already counts the batteries.
+     */
+    @Override
+    public Mono<Boolean> store(String key, byte[] value, Duration ttl, int from, int to) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key);
+        keys.add(SEQUENCE_KEY);
+        keys.addAll(buckets.keys(from, to));
+        List<byte[]> args = List.of(value, utf8(String.valueOf(ttl.toMillis())), utf8(retentionMillis()));
+        return redisTemplate.execute(STORE_SCRIPT, keys, args, BYTES, SEQUENCE)
+                .next()
+                .thenReturn(true);
+    }
+
+    /**
+     * The registration sequence so far, 0 before the first registration. Only needed to patch aggregates in
+     * place, so without {@code aggregate-deltas} no round trip is made.
+     */
+    @Override
+    public Mono<Long> watermark() {
+        if (!properties.getCache().getInvalidation().isAggregateDeltas()) {
+            return Mono.just(0L);
+        }
+        return redisTemplate.opsForValue().get(SEQUENCE_KEY)
+                .map(Long::parseLong)
+                .defaultIfEmpty(0L);
+    }
+
+    /**
+     * Removes and returns the cache keys registered for the buckets of the batteries' postcodes, without
+     * duplicates. With {@code vpp.cache.invalidation.aggregate-deltas} the aggregates entries registered up to
+     * {@code watermark} are updated in place instead and stay registered; name pages and aggregates registered
+     * later are handed back for eviction.
+     */
+    @Override
+    public Mono<Invalidation> invalidate(Collection<Battery> batteries, long watermark) {
+        List<String> affected = buckets.keysOf(batteries);
+        if (affected.isEmpty()) {
+            return Mono.just(Invalidation.NONE);
+        }
+        if (!properties.getCache().getInvalidation().isAggregateDeltas()) {
+            return redisTemplate.execute(DRAIN_SCRIPT, affected, List.of())
+                    .next()
+                    .map(keys -> Invalidation.evicting(distinct(keys)))
+                    .defaultIfEmpty(Invalidation.NONE);
+        }
+        List<String> deltas = new ArrayList<>(1 + 2 * batteries.size());
+        deltas.add(String.valueOf(watermark));
+        for (Battery battery : batteries) {
+            deltas.add(String.valueOf(battery.getPostcode()));
+            deltas.add(String.valueOf(battery.getCapacity()));
+        }
+        return redisTemplate.execute(APPLY_DELTAS_SCRIPT, affected, deltas)
+                .next()
+                .map(result -> new Invalidation(distinct(result.get(0)), distinct(result.get(1))))
+                .defaultIfEmpty(Invalidation.NONE);
+    }
+
+    /**
+     * Drains every bucket set and hands back all keys registered in them for eviction
+     */
+    @Override
+    public Mono<Invalidation> invalidateAll() {
+        return redisTemplate.execute(DRAIN_SCRIPT, buckets.all(), List.of())
+                .next()
+                .map(keys -> Invalidation.evicting(distinct(keys)))
+                .defaultIfEmpty(Invalidation.NONE);
+    }
+
+    private String retentionMillis() {
+        return String.valueOf(properties.getCache().getTtl().longestHard().toMillis());
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> distinct(Object keys) {
+        return ((List<?>) keys).stream()
+                .map(Objects::toString)
+                .distinct()
+                .toList();
+    }
+}
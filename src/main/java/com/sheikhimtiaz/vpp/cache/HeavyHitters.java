@@ -0,0 +1,121 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.HeavyHitter;
+import com.sheikhimtiaz.vpp.model.HotQuery;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Most requested query shapes of this instance, in constant memory. A count-min sketch estimates how often
+ * each shape was requested - never below the true count, above it only through hash collisions - and the
+ * {@code top-k} shapes with the highest estimates are kept as candidates. Counts are halved by {@link #decay()}
+ * so ranges that stopped being popular drop out over time.
+ */
+@Component
+public class HeavyHitters {
+
+    private final VppProperties.Warming properties;
+    private final int width;
+    private final int depth;
+
+    // depth rows of width counters, row-major
+    private final AtomicLongArray sketch;
+    private final Map<HotQuery, Long> candidates = new ConcurrentHashMap<>();
+
+    // Lowest candidate estimate while the candidate set is full; anything at or below it cannot get in
+    private volatile long floor;
+
+    public HeavyHitters(VppProperties properties) {
+        this.properties = properties.getCache().getWarming();
+        this.width = Math.max(1, this.properties.getSketchWidth());
+        this.depth = Math.max(1, this.properties.getSketchDepth());
+        this.sketch = new AtomicLongArray(width * depth);
+    }
+
+    public void record(HotQuery query) {
+        add(query, 1);
+    }
+
+    /**
+     * Counts {@code query} {@code count} times at once, e.g. to carry over a persisted estimate
+     */
+    public void add(HotQuery query, long count) {
+        if (!properties.isEnabled() || properties.getTopK() <= 0 || count <= 0) {
+            return;
+        }
+        long hash = spread(query.hashCode());
+        long minimum = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            minimum = Math.min(minimum, sketch.addAndGet(row * width + index(hash, row), count));
+        }
+        long estimate = minimum;
+        if (candidates.computeIfPresent(query, (key, previous) -> Math.max(previous, estimate)) == null
+                && (candidates.size() < properties.getTopK() || estimate > floor)) {
+            admit(query, estimate);
+        }
+    }
+
+    /**
+     * Current candidates, most requested first
+     */
+    public List<HeavyHitter> top() {
+        return candidates.entrySet().stream()
+                .map(entry -> new HeavyHitter(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingLong(HeavyHitter::estimatedCount).reversed())
+                .toList();
+    }
+
+    /**
+     * Halves every counter and candidate estimate; candidates decayed to nothing are dropped
+     */
+    public synchronized void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.getAndUpdate(i, value -> value >> 1);
+        }
+        candidates.replaceAll((query, estimate) -> estimate >> 1);
+        candidates.values().removeIf(estimate -> estimate == 0);
+        floor = candidates.size() < properties.getTopK() ? 0 : lowest();
+    }
+
+    private synchronized void admit(HotQuery query, long estimate) {
+        if (candidates.size() >= properties.getTopK()) {
+            HotQuery weakest = candidates.entrySet().stream()
+                    .min(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .orElseThrow();
+            if (candidates.get(weakest) >= estimate) {
+                floor = candidates.get(weakest);
+                return;
+            }
+            candidates.remove(weakest);
+        }
+        candidates.put(query, estimate);
+        floor = candidates.size() < properties.getTopK() ? 0 : lowest();
+    }
+
+    private long lowest() {
+        return candidates.values().stream().mapToLong(Long::longValue).min().orElse(0);
+    }
+
+    // Row i uses hash1 + i * hash2, which is as good as independent hash functions for a count-min sketch
+    private int index(long hash, int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return Math.floorMod(combined, width);
+    }
+
+    // 64-bit finalizer of MurmurHash3, so shapes differing in one field do not land next to each other
+    private static long spread(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,28 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.model.HeavyHitter;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@code /actuator/heavyhitters}: the query shapes this instance sees most often, with their decayed
+ * request count estimates, most requested first
+ */
+@Component
+@Endpoint(id = "heavyhitters")
+public class HeavyHittersEndpoint {
+
+    private final HeavyHitters heavyHitters;
+
+    public HeavyHittersEndpoint(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    @ReadOperation
+    public List<HeavyHitter> heavyHitters() {
+        return heavyHitters.top();
+    }
+}
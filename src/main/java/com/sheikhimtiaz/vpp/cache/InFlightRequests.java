@@ -0,0 +1,41 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key within this instance. The first caller starts the load, every
+ * caller arriving while it runs shares its outcome, and the key is forgotten as soon as the load terminates.
+ */
+@Component
+public class InFlightRequests {
+
+    private final ConcurrentMap<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> join(String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> (Mono<T>) inFlight.computeIfAbsent(key, k -> share(k, loader)));
+    }
+
+    /**
+     * Loads currently shared; a key stays here only while its load runs
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    // cache() keeps the load running when a caller cancels, so the others still get its result
+    private <T> Mono<T> share(String key, Supplier<Mono<T>> loader) {
+        AtomicReference<Mono<T>> shared = new AtomicReference<>();
+        Mono<T> load = Mono.defer(loader)
+                .doFinally(signal -> inFlight.remove(key, shared.get()))
+                .cache();
+        shared.set(load);
+        return load;
+    }
+}
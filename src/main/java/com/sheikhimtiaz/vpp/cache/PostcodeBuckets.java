@@ -0,0 +1,63 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.util.Postcodes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Fixed-width postcode buckets of {@code vpp.cache.index.bucket-width} postcodes, named by a strategy's key
+ * prefix. Both invalidation strategies keep their Redis state per bucket, so lookups and ingestion agree on
+ * which buckets a range or a battery falls into.
+ */
+final class PostcodeBuckets {
+
+    private final String keyPrefix;
+    private final VppProperties properties;
+
+    PostcodeBuckets(String keyPrefix, VppProperties properties) {
+        this.keyPrefix = keyPrefix;
+        this.properties = properties;
+    }
+
+    /**
+     * Keys of every bucket the range {@code from} to {@code to} overlaps, in bucket order; empty if {@code from > to}
+     */
+    List<String> keys(int from, int to) {
+        int width = width();
+        List<String> buckets = new ArrayList<>();
+        for (int bucket = Math.max(from, 0) / width; bucket <= to / width; bucket++) {
+            buckets.add(keyPrefix + bucket);
+        }
+        return buckets;
+    }
+
+    /**
+     * Keys of the buckets holding the batteries' postcodes, each once and in bucket order
+     */
+    List<String> keysOf(Collection<Battery> batteries) {
+        int width = width();
+        return batteries.stream()
+                .map(battery -> battery.getPostcode() / width)
+                .collect(Collectors.toCollection(TreeSet::new))
+                .stream()
+                .map(bucket -> keyPrefix + bucket)
+                .toList();
+    }
+
+    /**
+     * Keys of every bucket a postcode can fall into
+     */
+    List<String> all() {
+        return keys(Postcodes.MIN, Postcodes.MAX);
+    }
+
+    private int width() {
+        return Math.max(1, properties.getCache().getIndex().getBucketWidth());
+    }
+}
@@ -0,0 +1,72 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A short Redis lease per cache key, so that across instances only the holder recomputes an expired entry
+ * while the others poll for the value it writes. The lease expires on its own if the holder dies.
+ */
+@Slf4j
+@Component
+public class RecomputeLease {
+
+    private static final String LEASE_KEY_PREFIX = "lease::";
+
+    // Deletes the lease only while this instance still owns it; an expired lease may have a new owner by now
+    private static final RedisScript<Long> RELEASE_SCRIPT = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('del', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final VppProperties properties;
+    private final String owner = UUID.randomUUID().toString();
+
+    public RecomputeLease(ReactiveStringRedisTemplate redisTemplate, VppProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * True when this instance now holds the lease for {@code key}. An unreachable Redis counts as acquired,
+     * so a Redis outage degrades to every instance computing for itself rather than to waiting.
+     */
+    public Mono<Boolean> tryAcquire(String key) {
+        return redisTemplate.opsForValue()
+                .setIfAbsent(LEASE_KEY_PREFIX + key, owner, properties.getCache().getLease().getTtl())
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    log.warn("Could not acquire recompute lease for {}: {}", key, e.getMessage());
+                    return Mono.just(true);
+                });
+    }
+
+    public Mono<Void> release(String key) {
+        return redisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_KEY_PREFIX + key), List.of(owner))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Could not release recompute lease for {}: {}", key, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Repeats {@code lookup} every {@code poll-interval} until it yields the value the lease holder is
+     * computing, or completes empty once {@code wait-timeout} has passed
+     */
+    public <T> Mono<T> awaitHolder(Mono<T> lookup) {
+        VppProperties.Lease lease = properties.getCache().getLease();
+        long polls = Math.max(1, lease.getWaitTimeout().toMillis() / Math.max(1, lease.getPollInterval().toMillis()));
+        return lookup.repeatWhenEmpty(attempts -> attempts.take(polls).delayElements(lease.getPollInterval()));
+    }
+}
@@ -2,6 +2,7 @@ package com.sheikhimtiaz.vpp.config;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -13,6 +14,7 @@ import java.net.UnknownHostException;
 
 @Configuration
 @EnableAspectJAutoProxy
+@EnableConfigurationProperties(VppProperties.class)
 @Slf4j
 public class ApplicationConfig {
 
@@ -3,36 +3,88 @@ package com.sheikhimtiaz.vpp.config;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import static com.sheikhimtiaz.vpp.constant.AppConstants.BATTERY_TOPIC;
+
 @EnableKafka
 @Configuration
 public class KafkaConsumerConfig {
 
+    private final VppProperties properties;
+
+    public KafkaConsumerConfig(VppProperties properties) {
+        this.properties = properties;
+    }
+
     @Bean
     public ConsumerFactory<String, BatteryDto> consumerFactory() {
-        JsonDeserializer<BatteryDto> deserializer = new JsonDeserializer<>(BatteryDto.class);
-        deserializer.addTrustedPackages("*");
-        Map<String, Object> props = new HashMap<>();
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
-        props.put(ConsumerConfig.GROUP_ID_CONFIG, "battery-group");
-        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, deserializer);
-        return new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(), deserializer);
+        return new DefaultKafkaConsumerFactory<>(consumerProps(), new StringDeserializer(), batteryDeserializer());
     }
 
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, BatteryDto> kafkaListenerContainerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, BatteryDto> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(properties.getKafka().getConsumer().getConcurrency());
+        return factory;
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, BatteryDto> batchKafkaListenerContainerFactory() {
+        VppProperties.Consumer consumer = properties.getKafka().getConsumer();
+        Map<String, Object> props = consumerProps();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, consumer.getMaxPollRecords());
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, consumer.getFetchMinBytes());
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, consumer.getFetchMaxWaitMs());
+
+        ConcurrentKafkaListenerContainerFactory<String, BatteryDto> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(), batteryDeserializer()));
+        factory.setBatchListener(true);
+        factory.setConcurrency(consumer.getConcurrency());
         return factory;
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "vpp.kafka.consumer", name = "mode", havingValue = "reactive")
+    public KafkaReceiver<String, BatteryDto> batteryKafkaReceiver() {
+        VppProperties.Consumer consumer = properties.getKafka().getConsumer();
+        Map<String, Object> props = consumerProps();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, consumer.getMaxPollRecords());
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+
+        ReceiverOptions<String, BatteryDto> options = ReceiverOptions.<String, BatteryDto>create(props)
+                .withKeyDeserializer(new StringDeserializer())
+                .withValueDeserializer(batteryDeserializer())
+                .commitInterval(consumer.getReceiver().getCommitInterval())
+                .subscription(List.of(BATTERY_TOPIC));
+        return KafkaReceiver.create(options);
+    }
+
+    private Map<String, Object> consumerProps() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "battery-group");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        return props;
+    }
+
+    private JsonDeserializer<BatteryDto> batteryDeserializer() {
+        JsonDeserializer<BatteryDto> deserializer = new JsonDeserializer<>(BatteryDto.class);
+        deserializer.addTrustedPackages("*");
+        return deserializer;
+    }
 }
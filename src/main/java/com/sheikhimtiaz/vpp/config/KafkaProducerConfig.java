@@ -16,12 +16,28 @@ import java.util.Map;
 @Configuration
 public class KafkaProducerConfig {
 
+    private final VppProperties properties;
+
+    public KafkaProducerConfig(VppProperties properties) {
+        this.properties = properties;
+    }
+
     @Bean
     public ProducerFactory<String, BatteryDto> producerFactory() {
+        VppProperties.Producer producer = properties.getKafka().getProducer();
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        // Throughput profile: idempotent, acks from all replicas, and batches filled for linger.ms before sending
+        configProps.put(ProducerConfig.ACKS_CONFIG, producer.getAcks());
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, producer.isEnableIdempotence());
+        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, producer.getMaxInFlightRequestsPerConnection());
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, producer.getLingerMs());
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, producer.getBatchSize());
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, producer.getCompressionType());
+        configProps.put(ProducerConfig.BUFFER_MEMORY_CONFIG, producer.getBufferMemory());
+        configProps.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, producer.getDeliveryTimeoutMs());
         return new DefaultKafkaProducerFactory<>(configProps);
     }
 
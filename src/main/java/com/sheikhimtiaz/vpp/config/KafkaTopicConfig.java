@@ -0,0 +1,32 @@
+package com.sheikhimtiaz.vpp.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+import static com.sheikhimtiaz.vpp.constant.AppConstants.BATTERY_TOPIC;
+
+@Configuration
+public class KafkaTopicConfig {
+
+    private final VppProperties properties;
+
+    public KafkaTopicConfig(VppProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Declares the battery topic so its partition count bounds listener concurrency across all instances.
+     * Raising the count on an existing topic remaps keys, so events already queued for a postcode may be
+     * consumed out of order with new ones until the old partitions drain.
+     */
+    @Bean
+    public NewTopic batteryTopic() {
+        VppProperties.Topic topic = properties.getKafka().getTopic();
+        return TopicBuilder.name(BATTERY_TOPIC)
+                .partitions(topic.getPartitions())
+                .replicas(topic.getReplicas())
+                .build();
+    }
+}
@@ -1,26 +1,46 @@
 package com.sheikhimtiaz.vpp.config;
 
+import com.sheikhimtiaz.vpp.cache.BinaryBatteryQueryResponseSerializer;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+@Slf4j
 @Configuration
 public class RedisConfig {
     @Bean
     public ReactiveRedisTemplate<String, BatteryQueryResponse> reactiveRedisTemplate(
-            ReactiveRedisConnectionFactory factory) {
+            ReactiveRedisConnectionFactory factory, VppProperties properties) {
 
         RedisSerializationContext<String, BatteryQueryResponse> context = RedisSerializationContext
                 .<String, BatteryQueryResponse>newSerializationContext(new StringRedisSerializer())
-                .value(new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class))
+                .value(valueSerializer(properties.getCache()))
                 .build();
 
         return new ReactiveRedisTemplate<>(factory, context);
 
     }
+
+    private static RedisSerializer<BatteryQueryResponse> valueSerializer(VppProperties.Cache cache) {
+        VppProperties.Codec codec = cache.getCodec();
+        log.info("Caching battery query responses as {} (compression {})", codec.getFormat(), codec.getCompression());
+        if (codec.getFormat() == VppProperties.CacheCodecFormat.BINARY) {
+            VppProperties.Invalidation invalidation = cache.getInvalidation();
+            if (invalidation.isAggregateDeltas() && invalidation.getStrategy() == VppProperties.CacheInvalidationMode.DELETE) {
+                // The delta script patches JSON only and would evict every binary aggregates entry instead
+                throw new IllegalStateException("vpp.cache.invalidation.aggregate-deltas cannot be combined with "
+                        + "vpp.cache.codec.format=binary; aggregates entries could not be updated in place");
+            }
+            return new BinaryBatteryQueryResponseSerializer(codec.getCompression() == VppProperties.CacheCompression.ZSTD,
+                    codec.getCompressionThreshold(), codec.getCompressionLevel());
+        }
+        return new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class);
+    }
 }
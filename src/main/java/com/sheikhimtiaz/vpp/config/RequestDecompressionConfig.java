@@ -0,0 +1,82 @@
+package com.sheikhimtiaz.vpp.config;
+
+import com.github.luben.zstd.ZstdInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.web.server.WebFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Inflates gzip and zstd encoded request bodies chunk by chunk, so compressed uploads
+ * are never buffered as a whole before they reach the decoder
+ */
+@Configuration
+@Slf4j
+public class RequestDecompressionConfig {
+
+    private static final String GZIP = "gzip";
+    private static final String ZSTD = "zstd";
+    private static final int SUBSCRIBER_DEMAND = 4;
+
+    private final VppProperties properties;
+
+    public RequestDecompressionConfig(VppProperties properties) {
+        this.properties = properties;
+    }
+
+    @Bean
+    public WebFilter requestDecompressionFilter() {
+        return (exchange, chain) -> {
+            ServerHttpRequest request = exchange.getRequest();
+            String encoding = request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            if (encoding == null || !(GZIP.equalsIgnoreCase(encoding) || ZSTD.equalsIgnoreCase(encoding))) {
+                return chain.filter(exchange);
+            }
+
+            log.debug("Decompressing {} request body for {}", encoding, request.getURI());
+            DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+            int bufferSize = properties.getIngestion().getDecompressionBufferSize();
+
+            ServerHttpRequest decompressed = new ServerHttpRequestDecorator(request) {
+                @Override
+                public HttpHeaders getHeaders() {
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.putAll(super.getHeaders());
+                    headers.remove(HttpHeaders.CONTENT_ENCODING);
+                    headers.remove(HttpHeaders.CONTENT_LENGTH);
+                    return headers;
+                }
+
+                @Override
+                public Flux<DataBuffer> getBody() {
+                    Flux<DataBuffer> compressedBody = super.getBody();
+                    return DataBufferUtils.readInputStream(
+                                    () -> inflate(DataBufferUtils.subscriberInputStream(compressedBody, SUBSCRIBER_DEMAND), encoding),
+                                    bufferFactory,
+                                    bufferSize)
+                            .subscribeOn(Schedulers.boundedElastic());
+                }
+            };
+
+            return chain.filter(exchange.mutate().request(decompressed).build());
+        };
+    }
+
+    private static InputStream inflate(InputStream compressed, String encoding) throws IOException {
+        return GZIP.equalsIgnoreCase(encoding)
+                ? new GZIPInputStream(compressed)
+                : new ZstdInputStream(compressed);
+    }
+}
@@ -0,0 +1,363 @@
+package com.sheikhimtiaz.vpp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * Tunables for the battery ingestion and query paths, bound from the {@code vpp.*} namespace
+ */
+@Data
+@ConfigurationProperties(prefix = "vpp")
+public class VppProperties {
+
+    private Ingestion ingestion = new Ingestion();
+    private BulkLoad bulkLoad = new BulkLoad();
+    private Rollup rollup = new Rollup();
+    private Query query = new Query();
+    private AggregateIndex aggregateIndex = new AggregateIndex();
+    private Cache cache = new Cache();
+    private Kafka kafka = new Kafka();
+
+    @Data
+    public static class Ingestion {
+        /**
+         * Maximum number of Kafka sends awaiting acknowledgement for a single streaming upload
+         */
+        private int publishConcurrency = 256;
+
+        /**
+         * Size of the buffers handed to the decoder when inflating gzip or zstd request bodies
+         */
+        private int decompressionBufferSize = 16 * 1024;
+    }
+
+    @Data
+    public static class BulkLoad {
+        /**
+         * Rows encoded into each COPY data message; bounds the memory held per load
+         */
+        private int rowsPerChunk = 5000;
+    }
+
+    @Data
+    public static class Rollup {
+        /**
+         * How often the postcode rollup and capacity histogram are recounted from the table, picking up rows
+         * written without them, such as by instances of an older version during a rolling deploy; zero disables it
+         */
+        private Duration reconcileInterval = Duration.ofHours(1);
+
+        /**
+         * Postcodes recounted per statement; the rollup tables are locked against writes for each one
+         */
+        private int reconcilePostcodes = 100;
+    }
+
+    @Data
+    public static class Query {
+        /**
+         * Rows pulled from the database per round trip when streaming the names of a range
+         */
+        private int streamFetchSize = 1000;
+
+        /**
+         * Most ranges a single batch query may ask for
+         */
+        private int maxBatchQueries = 100;
+    }
+
+    @Data
+    public static class AggregateIndex {
+        /**
+         * Keeps an in-process postcode x capacity index and answers range aggregates from it
+         */
+        private boolean enabled = false;
+
+        /**
+         * Width in watts of one capacity bucket; capacity filters aligned to it are answered from the index
+         */
+        private int capacityBucketWidth = 1000;
+
+        /**
+         * Number of capacity buckets; the last one is open-ended
+         */
+        private int capacityBuckets = 128;
+
+        /**
+         * How often the index totals are checked against the postcode rollup; the index is rebuilt from the
+         * table when they disagree at two checks in a row
+         */
+        private Duration rebuildInterval = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Cache {
+        private LocalCache local = new LocalCache();
+        private Lease lease = new Lease();
+        private KeyIndex index = new KeyIndex();
+        private Invalidation invalidation = new Invalidation();
+        private Codec codec = new Codec();
+        private EntryTtls ttl = new EntryTtls();
+        private Refresh refresh = new Refresh();
+        private Warming warming = new Warming();
+    }
+
+    @Data
+    public static class Warming {
+        /**
+         * Tracks the most requested query shapes, persists them to Redis and loads them into the cache at
+         * startup, before the instance reports ready
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of heavy hitters kept, persisted and warmed
+         */
+        private int topK = 100;
+
+        /**
+         * Count-min sketch size; estimates overcount by at most about {@code e / sketch-width} of all requests,
+         * with probability {@code 1 - e^-sketch-depth}
+         */
+        private int sketchWidth = 2048;
+        private int sketchDepth = 4;
+
+        /**
+         * How often the heavy hitters are written to Redis; the local counts and the persisted set are halved once per interval
+         */
+        private Duration persistInterval = Duration.ofMinutes(1);
+
+        /**
+         * How long the persisted list outlives the last instance writing it
+         */
+        private Duration retention = Duration.ofDays(1);
+
+        /**
+         * Upper bound on how long startup waits for warming; whatever is not loaded by then is loaded on demand
+         */
+        private Duration warmTimeout = Duration.ofSeconds(30);
+
+        /**
+         * Queries warmed at the same time, to keep startup from flooding the database
+         */
+        private int warmConcurrency = 4;
+    }
+
+    @Data
+    public static class EntryTtls {
+        private Ttl aggregates = new Ttl();
+        private Ttl page = new Ttl();
+        private Ttl cursorPage = new Ttl();
+
+        /**
+         * Longest time any entry can live in Redis; index sets are kept at least as long
+         */
+        public Duration longestHard() {
+            return Stream.of(aggregates, page, cursorPage).map(Ttl::getHard).max(Duration::compareTo).orElseThrow();
+        }
+    }
+
+    @Data
+    public static class Ttl {
+        /**
+         * Age after which an entry is still served but recomputed in the background, with refresh enabled
+         */
+        private Duration soft = Duration.ofMinutes(2);
+
+        /**
+         * Age after which Redis drops the entry and the next read has to wait for the database
+         */
+        private Duration hard = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Refresh {
+        /**
+         * Serves entries past their soft TTL as they are and has one instance recompute each of them in the
+         * background. A key read at least once between its soft and hard TTL is refreshed before it expires,
+         * so hot ranges never miss; cold keys simply expire at the hard TTL.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long a claimed refresh keeps other instances from starting their own; bounds one that never finishes
+         */
+        private Duration leaseTtl = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * Encoding of cached responses in Redis: {@code json}, or the compact {@code binary} form. The binary
+         * codec still reads JSON entries, so it can be switched on while they are live; switch back only after
+         * the binary entries have expired or been evicted.
+         */
+        private CacheCodecFormat format = CacheCodecFormat.JSON;
+
+        /**
+         * {@code zstd} compresses binary values of at least {@code compression-threshold} bytes
+         */
+        private CacheCompression compression = CacheCompression.NONE;
+        private int compressionThreshold = 1024;
+        private int compressionLevel = 3;
+    }
+
+    public enum CacheCodecFormat {
+        JSON,
+        BINARY
+    }
+
+    public enum CacheCompression {
+        NONE,
+        ZSTD
+    }
+
+    @Data
+    public static class KeyIndex {
+        /**
+         * Postcodes per bucket, for both the key index and the generation counters. Narrower buckets invalidate
+         * fewer entries per battery but cost wide ranges one index write or counter read per bucket.
+         */
+        private int bucketWidth = 100;
+    }
+
+    @Data
+    public static class Invalidation {
+        /**
+         * {@code delete} evicts the indexed entries of the affected buckets; {@code generation} bumps a counter per
+         * affected bucket that is part of every key, leaving superseded entries to expire
+         */
+        private CacheInvalidationMode strategy = CacheInvalidationMode.DELETE;
+
+        /**
+         * With the {@code delete} strategy, adds ingested batteries to the cached range aggregates in place with a
+         * Redis script instead of evicting them, so aggregate hits survive continuous ingestion. Name pages are
+         * still evicted. Has no effect with {@code generation}, where every key of an affected bucket moves on.
+         * Only JSON entries can be patched, so startup fails if this is combined with the binary codec.
+         */
+        private boolean aggregateDeltas = false;
+    }
+
+    public enum CacheInvalidationMode {
+        DELETE,
+        GENERATION
+    }
+
+    @Data
+    public static class LocalCache {
+        /**
+         * Keeps an in-process tier in front of Redis; invalidations reach other instances over Redis pub/sub
+         */
+        private boolean enabled = false;
+
+        /**
+         * Approximate heap the local entries may occupy
+         */
+        private long maxBytes = 64L * 1024 * 1024;
+
+        /**
+         * Upper bound on how stale a local entry can get if an invalidation message is lost
+         */
+        private Duration ttl = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Lease {
+        /**
+         * Lets only one instance recompute an expired entry while the others wait for its result
+         */
+        private boolean enabled = false;
+
+        /**
+         * Upper bound on how long a lease outlives a holder that never releases it
+         */
+        private Duration ttl = Duration.ofSeconds(5);
+
+        /**
+         * How long an instance without the lease waits for the holder's result before computing it itself
+         */
+        private Duration waitTimeout = Duration.ofMillis(500);
+        private Duration pollInterval = Duration.ofMillis(25);
+    }
+
+    @Data
+    public static class Kafka {
+        private Topic topic = new Topic();
+        private Partitioning partitioning = new Partitioning();
+        private Producer producer = new Producer();
+        private Consumer consumer = new Consumer();
+    }
+
+    @Data
+    public static class Topic {
+        private int partitions = 12;
+        private int replicas = 1;
+    }
+
+    @Data
+    public static class Partitioning {
+        /**
+         * {@code postcode} keys each event by its postcode; {@code postcode-prefix} keys by the leading
+         * {@code postcode-prefix-length} digits so neighbouring postcodes share a partition
+         */
+        private PartitionKeyStrategy keyStrategy = PartitionKeyStrategy.POSTCODE;
+        private int postcodePrefixLength = 2;
+    }
+
+    public enum PartitionKeyStrategy {
+        POSTCODE,
+        POSTCODE_PREFIX
+    }
+
+    @Data
+    public static class Producer {
+        private String acks = "all";
+        private boolean enableIdempotence = true;
+        private int maxInFlightRequestsPerConnection = 5;
+        private int lingerMs = 20;
+        private int batchSize = 128 * 1024;
+        private String compressionType = "lz4";
+        private long bufferMemory = 64L * 1024 * 1024;
+        private int deliveryTimeoutMs = 120_000;
+    }
+
+    @Data
+    public static class Consumer {
+        /**
+         * Listener mode: {@code record} handles one event per call, {@code batch} receives a whole poll,
+         * {@code reactive} runs a reactor-kafka receiver with bounded in-flight writes
+         */
+        private String mode = "record";
+        /**
+         * Listener threads per instance; useful up to the topic's partition count
+         */
+        private int concurrency = 1;
+        private int maxPollRecords = 1000;
+        private int fetchMinBytes = 64 * 1024;
+        private int fetchMaxWaitMs = 100;
+        private Receiver receiver = new Receiver();
+    }
+
+    @Data
+    public static class Receiver {
+        private int batchSize = 500;
+        private Duration batchTimeout = Duration.ofMillis(200);
+        /**
+         * Batches being written to the database at the same time; further polls are paused until one completes.
+         * With {@code preserve-partition-order} this bounds the partitions written in parallel and must be at
+         * least {@code vpp.kafka.topic.partitions}, or the receiver refuses to start.
+         */
+        private int maxInFlightBatches = 12;
+        /**
+         * Write each partition's batches one after another, so events for a postcode are stored in order.
+         * When disabled, up to {@code max-in-flight-batches} batches are written concurrently regardless of partition.
+         */
+        private boolean preservePartitionOrder = true;
+        private Duration commitInterval = Duration.ofSeconds(1);
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+    }
+}
@@ -1,5 +1,8 @@
 package com.sheikhimtiaz.vpp.constant;
 
 public final class AppConstants {
+    public static final String BATTERY_TOPIC = "battery-topic";
+    public static final String CACHE_KEY_BATTERY_AGGREGATES_FORMAT = "battery-stats::from=%s:to=%s:min=%s:max=%s:aggregates";
     public static final String CACHE_KEY_BATTERY_QUERY_FORMAT = "battery-stats::from=%s:to=%s:min=%s:max=%s:page=%d:size=%d";
+    public static final String CACHE_KEY_BATTERY_CURSOR_QUERY_FORMAT = "battery-stats::from=%s:to=%s:min=%s:max=%s:after=%s:size=%d";
 }
\ No newline at end of file
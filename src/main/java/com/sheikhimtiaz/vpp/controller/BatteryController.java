@@ -1,13 +1,22 @@
 package com.sheikhimtiaz.vpp.controller;
 
+import com.sheikhimtiaz.vpp.model.BatteryBatchQueryRequest;
+import com.sheikhimtiaz.vpp.model.BatteryBatchQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryCapacityDistribution;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryRegistrationResult;
+import com.sheikhimtiaz.vpp.model.BulkLoadResult;
+import com.sheikhimtiaz.vpp.service.BatteryBulkLoadService;
 import com.sheikhimtiaz.vpp.service.BatteryService;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
@@ -19,23 +28,51 @@ import java.util.Optional;
 public class BatteryController {
 
     private final BatteryService batteryService;
+    private final BatteryBulkLoadService batteryBulkLoadService;
 
-    public BatteryController(BatteryService batteryService) {
+    public BatteryController(BatteryService batteryService, BatteryBulkLoadService batteryBulkLoadService) {
         this.batteryService = batteryService;
+        this.batteryBulkLoadService = batteryBulkLoadService;
     }
 
     @PostMapping
-    public Mono<ResponseEntity<String>> register(@RequestBody @Valid List<BatteryDto> batteries) {
+    public Mono<ResponseEntity<BatteryRegistrationResult>> register(@RequestBody @Valid List<BatteryDto> batteries) {
         log.info("Received register request with {} batteries", batteries.size());
-        return batteryService.registerBatteries(batteries)
-                .map(successMessage -> {
-                    log.info("Successfully registered {} batteries", batteries.size());
-                    return ResponseEntity.ok(successMessage);
+        return toResponse(batteryService.registerBatteries(batteries));
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<BatteryRegistrationResult>> registerStream(@RequestBody Flux<BatteryDto> batteries) {
+        log.info("Received streaming register request");
+        return toResponse(batteryService.registerBatteryStream(batteries));
+    }
+
+    @PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<BulkLoadResult> bulkLoad(@RequestBody Flux<BatteryDto> batteries) {
+        log.info("Received bulk load request");
+        return batteryBulkLoadService.load(batteries)
+                .doOnSuccess(result -> log.info("Bulk load {} finished with {} rows", result.getLoadId(), result.getMerged()))
+                .doOnError(error -> log.error("Error during bulk load: {}", error.getMessage(), error));
+    }
+
+    private Mono<ResponseEntity<BatteryRegistrationResult>> toResponse(Mono<BatteryRegistrationResult> registration) {
+        return registration
+                .map(result -> {
+                    log.info("Registration finished: acknowledged={}, failed={}, rejected={}",
+                            result.getAcknowledged(), result.getFailed(), result.getRejected());
+                    if (result.isFullyAcknowledged()) {
+                        return ResponseEntity.ok(result);
+                    }
+                    HttpStatus status = result.getAcknowledged() == 0 && result.getFailed() > 0
+                            ? HttpStatus.SERVICE_UNAVAILABLE
+                            : HttpStatus.MULTI_STATUS;
+                    return ResponseEntity.status(status).body(result);
                 })
                 .onErrorResume(error -> {
                     log.error("Error registering batteries: {}", error.getMessage(), error);
                     return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                            .body("Failed to register batteries: " + error.getMessage()));
+                            .body(new BatteryRegistrationResult(0, 0, 0, 0,
+                                    "Failed to register batteries: " + error.getMessage())));
                 });
     }
 
@@ -46,15 +83,59 @@ public class BatteryController {
             @RequestParam(required = false) Optional<Integer> minCapacity,
             @RequestParam(required = false) Optional<Integer> maxCapacity,
             @RequestParam(required = false) Optional<Integer> page,
-            @RequestParam(required = false) Optional<Integer> size) {
-        log.info("Received query request: postcodeRange=[{} to {}], capacityRange=[{} to {}], page={}, size={}",
+            @RequestParam(required = false) Optional<Integer> size,
+            @RequestParam(required = false) Optional<String> cursor) {
+        log.info("Received query request: postcodeRange=[{} to {}], capacityRange=[{} to {}], page={}, size={}, cursor={}",
                 postcodeFrom, postcodeTo,
                 minCapacity.orElse(null), maxCapacity.orElse(null),
-                page.orElse(0), size.orElse(50));
+                page.orElse(0), size.orElse(50), cursor.orElse(null));
 
-        return batteryService.getBatteries(postcodeFrom, postcodeTo, minCapacity, maxCapacity, page, size)
+        return batteryService.getBatteries(postcodeFrom, postcodeTo, minCapacity, maxCapacity, page, size, cursor)
                 .doOnSuccess(response -> log.info("Query returned {} batteries, total count: {}",
                         response.getBatteryNames().size(), response.getTotalBatteries()))
                 .doOnError(error -> log.error("Error querying batteries: {}", error.getMessage(), error));
     }
+
+    /**
+     * Statistics for several ranges in one request; results are returned in the order of the queries
+     */
+    @PostMapping(path = "/query")
+    public Mono<BatteryBatchQueryResponse> queryBatch(@RequestBody @Valid BatteryBatchQueryRequest request) {
+        log.info("Received batch query request with {} queries", request.getQueries().size());
+        return batteryService.getBatteryBatch(request.getQueries())
+                .doOnError(error -> log.error("Error querying battery batch: {}", error.getMessage(), error));
+    }
+
+    @GetMapping(path = "/distribution")
+    public Mono<BatteryCapacityDistribution> capacityDistribution(
+            @RequestParam String postcodeFrom,
+            @RequestParam String postcodeTo) {
+        log.info("Received capacity distribution request: postcodeRange=[{} to {}]", postcodeFrom, postcodeTo);
+        return batteryService.getCapacityDistribution(postcodeFrom, postcodeTo)
+                .doOnError(error -> log.error("Error reading capacity distribution: {}", error.getMessage(), error));
+    }
+
+    /**
+     * Server-sent events with one {@code name} event per battery in name order, followed by a single
+     * {@code summary} event carrying the aggregates of the range
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> queryStream(
+            @RequestParam String postcodeFrom,
+            @RequestParam String postcodeTo,
+            @RequestParam(required = false) Optional<Integer> minCapacity,
+            @RequestParam(required = false) Optional<Integer> maxCapacity) {
+        log.info("Received streaming query request: postcodeRange=[{} to {}], capacityRange=[{} to {}]",
+                postcodeFrom, postcodeTo, minCapacity.orElse(null), maxCapacity.orElse(null));
+
+        Flux<ServerSentEvent<Object>> names = batteryService
+                .streamBatteryNames(postcodeFrom, postcodeTo, minCapacity, maxCapacity)
+                .map(name -> ServerSentEvent.builder((Object) name).event("name").build());
+        Mono<ServerSentEvent<Object>> summary = batteryService
+                .getRangeSummary(postcodeFrom, postcodeTo, minCapacity, maxCapacity)
+                .map(rangeSummary -> ServerSentEvent.builder((Object) rangeSummary).event("summary").build());
+
+        return names.concatWith(summary)
+                .doOnError(error -> log.error("Error streaming batteries: {}", error.getMessage(), error));
+    }
 }
@@ -15,10 +15,11 @@ public class Battery {
     private String id;
 
     private String name;
-    private String postcode;
+    // SMALLINT column; the four-digit string form only exists at the API, see Postcodes
+    private int postcode;
     private int capacity;
 
-    public Battery(String name, String postcode, int capacity) {
+    public Battery(String name, int postcode, int capacity) {
         this.capacity = capacity;
         this.name = name;
         this.postcode = postcode;
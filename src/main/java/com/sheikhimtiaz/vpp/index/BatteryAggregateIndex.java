@@ -0,0 +1,374 @@
+package com.sheikhimtiaz.vpp.index;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import com.sheikhimtiaz.vpp.util.Postcodes;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-process count and capacity sums over postcode x capacity bucket, kept in a 2D Fenwick tree so any
+ * rectangle is answered in O(log postcodes * log buckets) without a database round trip. Postcodes are
+ * stored as numbers from 0 to 9999, which makes the postcode axis a dense array of 10,000 slots.
+ * <p>
+ * The tree is built from the table at startup. Batteries ingested by any instance are added as they are
+ * ingested: the consuming instance applies them and publishes them on a Redis channel every other instance
+ * applies them from, and a bulk load asks every instance to rebuild. Pub/sub does not replay messages missed
+ * while disconnected, so every {@code rebuild-interval} the totals of the tree are compared with the postcode
+ * rollup, a cheap sum of one row per postcode, and the tree is only rebuilt when they disagreed at two checks
+ * in a row; a single disagreement is expected while deltas are in flight. Queries the tree cannot answer
+ * exactly - a capacity filter that does not fall on bucket boundaries - return empty so the caller falls back
+ * to the database.
+ * <p>
+ * A rebuild cannot tell whether a battery ingested while the table is being read is part of that read, so
+ * applying it to the fresh tree could count it twice and applying it to the old one would lose it at the
+ * swap. Instead the index is not ready while it rebuilds: the old tree is dropped when the read starts,
+ * {@link #summarize} returns empty and {@link #addAll} ignores batteries until the fresh tree is swapped in.
+ * Batteries committed after the read started then differ from the rollup and trigger the next rebuild.
+ */
+@Component
+@Slf4j
+public class BatteryAggregateIndex implements SmartLifecycle {
+
+    static final String DELTA_CHANNEL = "battery-aggregate-index";
+    private static final String REBUILD = "*";
+
+    private static final int POSTCODES = Postcodes.MAX + 1;
+
+    private final BatteryRepository batteryRepository;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final VppProperties.AggregateIndex properties;
+
+    // Prefixes this instance's messages, so it does not apply its own deltas twice
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicBoolean drifted = new AtomicBoolean();
+
+    // Guarded by lock; null until a build completes and again while the next one reads the table
+    private FenwickTree2D tree;
+
+    private volatile Disposable rebuildSchedule;
+    private volatile Disposable deltas;
+
+    public BatteryAggregateIndex(BatteryRepository batteryRepository, ReactiveStringRedisTemplate redisTemplate,
+                                 VppProperties properties) {
+        this.batteryRepository = batteryRepository;
+        this.redisTemplate = redisTemplate;
+        this.properties = properties.getAggregateIndex();
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        log.info("Starting battery aggregate index: capacityBucketWidth={}, capacityBuckets={}, rebuildInterval={}",
+                properties.getCapacityBucketWidth(), properties.getCapacityBuckets(), properties.getRebuildInterval());
+        deltas = redisTemplate.listenToChannel(DELTA_CHANNEL)
+                .doOnNext(message -> onMessage(message.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Aggregate index subscription failed, retrying: {}",
+                                signal.failure().getMessage())))
+                .subscribe();
+        rebuildSchedule = Flux.interval(Duration.ZERO, properties.getRebuildInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> reconcile()
+                        .onErrorResume(error -> {
+                            log.error("Failed to rebuild battery aggregate index: {}", error.getMessage(), error);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    /**
+     * Builds the index if it is not built yet, and rebuilds it if its totals disagreed with the postcode rollup
+     * at this check and the one before. Completes with the number of cells read, or empty if nothing was rebuilt.
+     */
+    public Mono<Long> reconcile() {
+        if (!properties.isEnabled()) {
+            return Mono.empty();
+        }
+        Optional<BatteryRangeSummary> indexed = summarize(Postcodes.MIN, Postcodes.MAX, null, null);
+        if (indexed.isEmpty()) {
+            return rebuild();
+        }
+        return batteryRepository.findRangeSummary(Postcodes.MIN, Postcodes.MAX, null, null)
+                .flatMap(table -> {
+                    boolean matches = table.getTotalBatteries() == indexed.get().getTotalBatteries()
+                            && table.getTotalWattCapacity() == indexed.get().getTotalWattCapacity();
+                    if (matches) {
+                        drifted.set(false);
+                        return Mono.empty();
+                    }
+                    if (!drifted.getAndSet(true)) {
+                        log.debug("Battery aggregate index totals differ from the postcode rollup, checking again");
+                        return Mono.empty();
+                    }
+                    log.info("Battery aggregate index has drifted from the postcode rollup ({} vs {} batteries), rebuilding",
+                            indexed.get().getTotalBatteries(), table.getTotalBatteries());
+                    return rebuild();
+                });
+    }
+
+    /**
+     * Asks every other instance to rebuild, then rebuilds this one, after writes that may have touched any postcode
+     */
+    public Mono<Long> rebuildEverywhere() {
+        if (!properties.isEnabled()) {
+            return Mono.empty();
+        }
+        return publish(REBUILD).then(rebuild());
+    }
+
+    /**
+     * Reads the per-postcode, per-bucket totals from the table into a fresh tree and swaps it in; the index
+     * is not ready from the start of the read until the swap, or until the next rebuild if the read fails.
+     * Completes empty if the index is disabled or a rebuild is already running.
+     */
+    public Mono<Long> rebuild() {
+        if (!properties.isEnabled() || !rebuilding.compareAndSet(false, true)) {
+            return Mono.empty();
+        }
+        int bucketWidth = properties.getCapacityBucketWidth();
+        int buckets = properties.getCapacityBuckets();
+        FenwickTree2D fresh = new FenwickTree2D(POSTCODES, buckets);
+        long started = System.nanoTime();
+
+        return batteryRepository.aggregateByPostcodeAndCapacityBucket(bucketWidth, buckets)
+                .doOnSubscribe(subscription -> swap(null))
+                .doOnNext(cell -> {
+                    if (isPostcode(cell.getPostcode())) {
+                        fresh.add(cell.getPostcode(), cell.getBucket(), cell.getBatteryCount(), cell.getTotalCapacity());
+                    }
+                })
+                .count()
+                .doOnNext(cells -> {
+                    swap(fresh);
+                    drifted.set(false);
+                    log.info("Rebuilt battery aggregate index from {} cells in {} ms",
+                            cells, Duration.ofNanos(System.nanoTime() - started).toMillis());
+                })
+                .doFinally(signal -> rebuilding.set(false));
+    }
+
+    private void swap(FenwickTree2D replacement) {
+        lock.writeLock().lock();
+        try {
+            tree = replacement;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds batteries this instance stored to its tree and publishes them to every other instance
+     */
+    public void addAll(List<Battery> batteries) {
+        if (!properties.isEnabled() || batteries.isEmpty()) {
+            return;
+        }
+        apply(batteries);
+        publish(batteries.stream()
+                .map(battery -> battery.getPostcode() + ":" + battery.getCapacity())
+                .collect(Collectors.joining("\n")))
+                .subscribe();
+    }
+
+    void onMessage(String message) {
+        int separator = message.indexOf('\n');
+        if (separator < 0 || message.substring(0, separator).equals(instanceId)) {
+            return;
+        }
+        String body = message.substring(separator + 1);
+        if (REBUILD.equals(body)) {
+            rebuild().subscribe(null, error ->
+                    log.error("Failed to rebuild battery aggregate index: {}", error.getMessage(), error));
+            return;
+        }
+        List<Battery> batteries = new ArrayList<>();
+        for (String delta : body.split("\n")) {
+            String[] parts = delta.split(":");
+            try {
+                batteries.add(new Battery(null, Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                log.warn("Skipping unreadable aggregate index delta {}", delta);
+            }
+        }
+        apply(batteries);
+    }
+
+    private Mono<Void> publish(String body) {
+        return redisTemplate.convertAndSend(DELTA_CHANNEL, instanceId + "\n" + body)
+                .then()
+                .onErrorResume(e -> {
+                    log.error("Failed to publish aggregate index deltas: {}", e.getMessage(), e);
+                    return Mono.empty();
+                });
+    }
+
+    private void apply(List<Battery> batteries) {
+        lock.writeLock().lock();
+        try {
+            if (tree == null) {
+                return;
+            }
+            for (Battery battery : batteries) {
+                if (isPostcode(battery.getPostcode())) {
+                    tree.add(battery.getPostcode(), bucketOf(battery.getCapacity()), 1, battery.getCapacity());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Count, sum and average of the batteries with {@code from <= postcode <= to} and, when both bounds are
+     * given, {@code min <= capacity <= max}. Empty when the index is disabled, not yet built, rebuilding, or
+     * cannot answer the bounds exactly.
+     */
+    public Optional<BatteryRangeSummary> summarize(int from, int to, Integer min, Integer max) {
+        if (!properties.isEnabled() || !isPostcode(from) || !isPostcode(to)) {
+            return Optional.empty();
+        }
+
+        int firstBucket = 0;
+        int lastBucket = properties.getCapacityBuckets() - 1;
+        if (min != null && max != null) {
+            if (min > max) {
+                return Optional.of(new BatteryRangeSummary(0, 0, 0));
+            }
+            int bucketWidth = properties.getCapacityBucketWidth();
+            if (min > 0) {
+                if (min % bucketWidth != 0 || min / bucketWidth > lastBucket) {
+                    return Optional.empty();
+                }
+                firstBucket = min / bucketWidth;
+            }
+            if (max != Integer.MAX_VALUE) {
+                long end = (long) max + 1;
+                if (end % bucketWidth != 0 || end / bucketWidth - 1 >= lastBucket) {
+                    return Optional.empty();
+                }
+                lastBucket = (int) (end / bucketWidth - 1);
+            }
+        }
+        if (from > to) {
+            return Optional.of(new BatteryRangeSummary(0, 0, 0));
+        }
+
+        long[] totals;
+        lock.readLock().lock();
+        try {
+            if (tree == null) {
+                return Optional.empty();
+            }
+            totals = tree.rangeSum(from, to, firstBucket, lastBucket);
+        } finally {
+            lock.readLock().unlock();
+        }
+        long count = totals[0];
+        long capacity = totals[1];
+        return Optional.of(new BatteryRangeSummary(count, capacity, count == 0 ? 0 : (double) capacity / count));
+    }
+
+    private int bucketOf(int capacity) {
+        return Math.min(Math.max(capacity, 0) / properties.getCapacityBucketWidth(), properties.getCapacityBuckets() - 1);
+    }
+
+    // The postcode is the row of the tree; anything outside it would corrupt neighbouring cells
+    private static boolean isPostcode(int postcode) {
+        return postcode >= Postcodes.MIN && postcode <= Postcodes.MAX;
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = rebuildSchedule;
+        if (current != null) {
+            log.info("Stopping battery aggregate index rebuilds");
+            current.dispose();
+            rebuildSchedule = null;
+        }
+        Disposable subscription = deltas;
+        if (subscription != null) {
+            subscription.dispose();
+            deltas = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Disposable current = rebuildSchedule;
+        return current != null && !current.isDisposed();
+    }
+
+    /**
+     * Binary indexed tree over a rows x columns grid holding a count and a sum per cell in flat primitive arrays
+     */
+    static final class FenwickTree2D {
+        private final int rows;
+        private final int columns;
+        private final long[] counts;
+        private final long[] sums;
+
+        FenwickTree2D(int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+            this.counts = new long[(rows + 1) * (columns + 1)];
+            this.sums = new long[(rows + 1) * (columns + 1)];
+        }
+
+        void add(int row, int column, long count, long sum) {
+            for (int r = row + 1; r <= rows; r += r & -r) {
+                int offset = r * (columns + 1);
+                for (int c = column + 1; c <= columns; c += c & -c) {
+                    counts[offset + c] += count;
+                    sums[offset + c] += sum;
+                }
+            }
+        }
+
+        /**
+         * Count and sum over the inclusive rectangle, by inclusion-exclusion of four prefix sums
+         */
+        long[] rangeSum(int fromRow, int toRow, int fromColumn, int toColumn) {
+            long[] totals = new long[2];
+            accumulate(toRow + 1, toColumn + 1, 1, totals);
+            accumulate(fromRow, toColumn + 1, -1, totals);
+            accumulate(toRow + 1, fromColumn, -1, totals);
+            accumulate(fromRow, fromColumn, 1, totals);
+            return totals;
+        }
+
+        private void accumulate(int rowCount, int columnCount, int sign, long[] totals) {
+            for (int r = rowCount; r > 0; r -= r & -r) {
+                int offset = r * (columns + 1);
+                for (int c = columnCount; c > 0; c -= c & -c) {
+                    totals[0] += sign * counts[offset + c];
+                    totals[1] += sign * sums[offset + c];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.sheikhimtiaz.vpp.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryBatchQueryRequest {
+    @NotEmpty(message = "At least one query is required")
+    private List<@Valid BatteryRangeQuery> queries;
+}
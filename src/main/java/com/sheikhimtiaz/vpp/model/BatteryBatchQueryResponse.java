@@ -0,0 +1,17 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One result per query, in request order
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryBatchQueryResponse {
+    private List<BatteryQueryResponse> results;
+}
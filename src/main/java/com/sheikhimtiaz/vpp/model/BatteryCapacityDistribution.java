@@ -0,0 +1,22 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Capacity percentiles and the non-empty histogram buckets of a postcode range, estimated from the
+ * per-postcode log buckets; each percentile is within one bucket width of the exact value
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryCapacityDistribution {
+    private long totalBatteries;
+    private double p50WattCapacity;
+    private double p90WattCapacity;
+    private double p99WattCapacity;
+    private List<CapacityHistogramBucket> histogram;
+}
@@ -0,0 +1,35 @@
+package com.sheikhimtiaz.vpp.model;
+
+import com.sheikhimtiaz.vpp.exception.GlobalWebFluxExceptionHandler.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position of the last battery on a page, in {@code (name, id)} order. Clients only ever see it as an opaque
+ * base64url token; the id is written first because it never contains the separator, while names may.
+ */
+public record BatteryCursor(String name, String id) {
+
+    private static final char SEPARATOR = ':';
+
+    public String encode() {
+        String raw = id + SEPARATOR + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static BatteryCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            if (separator <= 0) {
+                throw new ValidationException("Invalid cursor: " + token);
+            }
+            String id = UUID.fromString(raw.substring(0, separator)).toString();
+            return new BatteryCursor(raw.substring(separator + 1), id);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid cursor: " + token);
+        }
+    }
+}
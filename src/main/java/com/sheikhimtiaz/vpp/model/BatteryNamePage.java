@@ -0,0 +1,18 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of battery names and, when more rows follow, the cursor of its last row
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryNamePage {
+    private List<String> batteryNames;
+    private BatteryCursor nextCursor;
+}
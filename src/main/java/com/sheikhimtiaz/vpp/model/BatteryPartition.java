@@ -0,0 +1,21 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One range partition of {@code battery}, holding the postcodes {@code fromPostcode <= postcode < toPostcode}
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryPartition {
+    private String name;
+    private int fromPostcode;
+    private int toPostcode;
+
+    public boolean covers(int minPostcode, int maxPostcode) {
+        return minPostcode >= fromPostcode && maxPostcode < toPostcode;
+    }
+}
@@ -17,4 +17,10 @@ public class BatteryQueryResponse implements Serializable {
     private long totalBatteries;
     private int page;
     private int size;
+    private String nextCursor;
+
+    public BatteryQueryResponse(List<String> batteryNames, double totalWattCapacity, double averageWattCapacity,
+                                long totalBatteries, int page, int size) {
+        this(batteryNames, totalWattCapacity, averageWattCapacity, totalBatteries, page, size, null);
+    }
 }
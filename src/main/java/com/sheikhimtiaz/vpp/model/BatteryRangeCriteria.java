@@ -0,0 +1,20 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * A resolved range for the repository: numeric postcodes, and capacity bounds that are either both set or both null
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryRangeCriteria {
+    private int from;
+    private int to;
+    private Integer min;
+    private Integer max;
+    private Pageable pageable;
+}
@@ -0,0 +1,37 @@
+package com.sheikhimtiaz.vpp.model;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One range of a batch query; the same parameters GET /batteries takes, minus the cursor
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryRangeQuery {
+    @NotBlank(message = "postcodeFrom is required")
+    @Pattern(regexp = "^\\d{4}$", message = "Postcode must be exactly 4 digits")
+    private String postcodeFrom;
+
+    @NotBlank(message = "postcodeTo is required")
+    @Pattern(regexp = "^\\d{4}$", message = "Postcode must be exactly 4 digits")
+    private String postcodeTo;
+
+    private Integer minCapacity;
+    private Integer maxCapacity;
+
+    @Min(value = 0, message = "page must be non negative")
+    private Integer page;
+
+    @Min(value = 1, message = "size must be positive")
+    private Integer size;
+
+    public BatteryRangeQuery(String postcodeFrom, String postcodeTo, Integer minCapacity, Integer maxCapacity) {
+        this(postcodeFrom, postcodeTo, minCapacity, maxCapacity, null, null);
+    }
+}
@@ -0,0 +1,26 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of battery names together with the aggregates of the whole range, read in a single snapshot.
+ * {@code nextCursor} points at the last row of the page and is only set when more rows follow.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryRangeStatistics {
+    private List<String> batteryNames;
+    private long totalCount;
+    private double totalCapacity;
+    private double averageCapacity;
+    private BatteryCursor nextCursor;
+
+    public BatteryRangeStatistics(List<String> batteryNames, long totalCount, double totalCapacity, double averageCapacity) {
+        this(batteryNames, totalCount, totalCapacity, averageCapacity, null);
+    }
+}
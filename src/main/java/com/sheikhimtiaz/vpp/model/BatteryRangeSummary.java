@@ -0,0 +1,17 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Aggregates of a postcode range, sent as the trailing frame of a streamed name list
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryRangeSummary {
+    private long totalBatteries;
+    private double totalWattCapacity;
+    private double averageWattCapacity;
+}
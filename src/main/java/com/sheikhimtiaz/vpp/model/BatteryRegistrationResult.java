@@ -0,0 +1,22 @@
+package com.sheikhimtiaz.vpp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatteryRegistrationResult {
+    private long acknowledged;
+    private long failed;
+    private long rejected;
+    private long durationMillis;
+    private String message;
+
+    @JsonIgnore
+    public boolean isFullyAcknowledged() {
+        return failed == 0 && rejected == 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkLoadResult {
+    private String loadId;
+    private long staged;
+    private long merged;
+    private long rejected;
+    private long durationMillis;
+    private long rowsPerSecond;
+}
@@ -0,0 +1,17 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Batteries of a range whose capacity falls in {@code [lowerCapacity, upperCapacity)}
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CapacityHistogramBucket {
+    private int lowerCapacity;
+    private int upperCapacity;
+    private long batteries;
+}
@@ -0,0 +1,7 @@
+package com.sheikhimtiaz.vpp.model;
+
+/**
+ * A frequently requested query with its estimated, decayed request count
+ */
+public record HeavyHitter(HotQuery query, long estimatedCount) {
+}
@@ -0,0 +1,34 @@
+package com.sheikhimtiaz.vpp.model;
+
+/**
+ * Shape of a range query as tracked for cache warming: the range, the capacity bounds exactly as requested, and
+ * the page size, so warming fills the same cache keys as the request. Page and cursor are left out; every page
+ * of a range shares its aggregates entry, and warming loads the first page.
+ */
+public record HotQuery(String postcodeFrom, String postcodeTo, Integer minCapacity, Integer maxCapacity, int size) {
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * Compact form used as the member of the persisted heavy hitter set
+     */
+    public String encode() {
+        return String.join(SEPARATOR, postcodeFrom, postcodeTo,
+                String.valueOf(minCapacity), String.valueOf(maxCapacity), String.valueOf(size));
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code value} was not produced by {@link #encode()}
+     */
+    public static HotQuery decode(String value) {
+        String[] parts = value.split(SEPARATOR);
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Invalid hot query: " + value);
+        }
+        return new HotQuery(parts[0], parts[1], capacity(parts[2]), capacity(parts[3]), Integer.parseInt(parts[4]));
+    }
+
+    private static Integer capacity(String value) {
+        return "null".equals(value) ? null : Integer.valueOf(value);
+    }
+}
@@ -0,0 +1,18 @@
+package com.sheikhimtiaz.vpp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Count and capacity sum of the batteries of one postcode that fall into one capacity bucket
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PostcodeCapacityBucket {
+    private int postcode;
+    private int bucket;
+    private long batteryCount;
+    private long totalCapacity;
+}
@@ -0,0 +1,109 @@
+package com.sheikhimtiaz.vpp.repository;
+
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryCursor;
+import com.sheikhimtiaz.vpp.model.BatteryNamePage;
+import com.sheikhimtiaz.vpp.model.BatteryPartition;
+import com.sheikhimtiaz.vpp.model.BatteryRangeCriteria;
+import com.sheikhimtiaz.vpp.model.BatteryRangeStatistics;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.model.PostcodeCapacityBucket;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hand-written statements behind {@link BatteryRepository}; the service issues no derived queries
+ */
+public interface BatteryRepositoryCustom {
+
+    /**
+     * Page and aggregates of every range in one statement, returned in the order of {@code ranges}. Pages are
+     * sorted by {@code (name, id)}; the capacity filter of a range is applied only when both bounds are given.
+     * The aggregates are always computed from the battery rows.
+     */
+    Mono<List<BatteryRangeStatistics>> findRangeStatistics(List<BatteryRangeCriteria> ranges);
+
+    /**
+     * Reads a page sorted by {@code (name, id)}, plus the cursor of its last row when more rows follow. The
+     * capacity filter is applied only when both bounds are given. With a cursor the page starts right after it
+     * and the pageable's offset is ignored. Aggregates are read separately, see {@link #findRangeSummary}.
+     */
+    Mono<BatteryNamePage> findNamePage(int from, int to, Integer min, Integer max,
+                                       BatteryCursor after, Pageable pageable);
+
+    /**
+     * Battery count and capacity sum per postcode and capacity bucket. The last bucket collects
+     * every capacity at or above its lower bound.
+     */
+    Flux<PostcodeCapacityBucket> aggregateByPostcodeAndCapacityBucket(int bucketWidth, int buckets);
+
+    /**
+     * Count, sum and average of the range without reading any names. Without a capacity filter they are
+     * summed from the per-postcode rollup rather than the battery rows.
+     */
+    Mono<BatteryRangeSummary> findRangeSummary(int from, int to, Integer min, Integer max);
+
+    /**
+     * Capacity histogram of the range in bucket order, merged from the per-postcode log buckets; empty buckets
+     * are left out
+     */
+    Flux<CapacityHistogramBucket> findCapacityHistogram(int from, int to);
+
+    /**
+     * Streams every name of the range in {@code (name, id)} order, fetching {@code fetchSize} rows at a time
+     * so the result set is never materialised on either side
+     */
+    Flux<String> streamNames(int from, int to, Integer min, Integer max, int fetchSize);
+
+    /**
+     * Inserts all batteries with one multi-row INSERT and folds them into {@code battery_postcode_rollup} in the
+     * same statement, returning the number of rows written. Plain {@code save} bypasses the rollup, so ingestion
+     * must come through here or {@link #mergeStaging}.
+     */
+    Mono<Long> insertAll(List<Battery> batteries);
+
+    /**
+     * Streams the batteries into {@code battery_staging} over the COPY protocol, tagged with the load id
+     */
+    Mono<Long> copyIntoStaging(UUID loadId, Flux<Battery> batteries, int rowsPerChunk);
+
+    /**
+     * Moves every staged row of the load into {@code battery} with one set-based statement, updating the rollup
+     */
+    Mono<Long> mergeStaging(UUID loadId);
+
+    /**
+     * Same as {@link #mergeStaging(UUID)} but inserts straight into one partition, so the load skips tuple
+     * routing and only that partition is written. Every staged row must fall into the partition's range.
+     */
+    Mono<Long> mergeStaging(UUID loadId, BatteryPartition partition);
+
+    /**
+     * Range partitions of {@code battery} in name order; empty while the table is not partitioned
+     */
+    Flux<BatteryPartition> findPartitions();
+
+    /**
+     * The partition holding every staged row of the load, or empty if the rows span several partitions,
+     * nothing is staged or the table is not partitioned
+     */
+    Mono<BatteryPartition> findPartitionOfStagedLoad(UUID loadId);
+
+    /**
+     * Refreshes the planner statistics of one partition without reading the others
+     */
+    Mono<Void> analyze(BatteryPartition partition);
+
+    Mono<Long> deleteStaging(UUID loadId);
+
+    /**
+     * Recounts the postcode rollup and capacity histogram of postcodes {@code from} to {@code to} from
+     * {@code battery}, picking up rows written without them. Returns the number of rollup rows rewritten.
+     */
+    Mono<Long> reconcileRollups(int from, int to);
+}
@@ -0,0 +1,542 @@
+package com.sheikhimtiaz.vpp.repository;
+
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryCursor;
+import com.sheikhimtiaz.vpp.model.BatteryNamePage;
+import com.sheikhimtiaz.vpp.model.BatteryPartition;
+import com.sheikhimtiaz.vpp.model.BatteryRangeCriteria;
+import com.sheikhimtiaz.vpp.model.BatteryRangeStatistics;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.model.PostcodeCapacityBucket;
+import com.sheikhimtiaz.vpp.util.CapacityBuckets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Pageable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Slf4j
+public class BatteryRepositoryCustomImpl implements BatteryRepositoryCustom {
+
+    // Every range of a batch arrives as one row of the unnested parameter arrays. The aggregates are grouped
+    // per distinct range over a single join, so several pages of one range share them, and each row's page is
+    // a LATERAL subquery with its own limit; the whole batch is one statement and one round trip. A null
+    // min_capacity means no capacity filter.
+    static final String BATCH_RANGE_STATISTICS_SQL = """
+            WITH q AS (
+                SELECT *
+                FROM unnest(:froms::int[], :tos::int[], :mins::int[], :maxes::int[], :limits::int[], :offsets::int8[])
+                    WITH ORDINALITY AS q(from_postcode, to_postcode, min_capacity, max_capacity, page_limit, page_offset, idx)
+            ),
+            ranges AS (
+                SELECT DISTINCT from_postcode, to_postcode, min_capacity, max_capacity
+                FROM q
+            ),
+            stats AS (
+                SELECT r.from_postcode, r.to_postcode, r.min_capacity, r.max_capacity,
+                       COUNT(b.capacity) AS total_count,
+                       COALESCE(SUM(b.capacity), 0)::float8 AS total_capacity,
+                       COALESCE(AVG(b.capacity), 0)::float8 AS average_capacity
+                FROM ranges r
+                LEFT JOIN battery b
+                    ON b.postcode BETWEEN r.from_postcode AND r.to_postcode
+                    AND (r.min_capacity IS NULL OR b.capacity BETWEEN r.min_capacity AND r.max_capacity)
+                GROUP BY r.from_postcode, r.to_postcode, r.min_capacity, r.max_capacity
+            )
+            SELECT q.idx, s.total_count, s.total_capacity, s.average_capacity, p.name, p.id::text AS id
+            FROM q
+            JOIN stats s
+                ON s.from_postcode = q.from_postcode AND s.to_postcode = q.to_postcode
+                AND s.min_capacity IS NOT DISTINCT FROM q.min_capacity
+                AND s.max_capacity IS NOT DISTINCT FROM q.max_capacity
+            LEFT JOIN LATERAL (
+                SELECT b.name, b.id
+                FROM battery b
+                WHERE b.postcode BETWEEN q.from_postcode AND q.to_postcode
+                    AND (q.min_capacity IS NULL OR b.capacity BETWEEN q.min_capacity AND q.max_capacity)
+                ORDER BY b.name, b.id
+                LIMIT q.page_limit OFFSET q.page_offset
+            ) p ON TRUE
+            ORDER BY q.idx, p.name, p.id
+            """;
+
+    // A capacity filter needs the individual rows, so these aggregates still scan battery
+    private static final String BATTERY_AGGREGATES_SQL = """
+            SELECT COUNT(*) AS total_count,
+                   COALESCE(SUM(capacity), 0)::float8 AS total_capacity,
+                   COALESCE(AVG(capacity), 0)::float8 AS average_capacity
+            FROM battery
+            WHERE %s
+            """;
+
+    // Without a capacity filter the range is a sum over at most one rollup row per postcode
+    static final String ROLLUP_AGGREGATES_SQL = """
+            SELECT COALESCE(SUM(battery_count), 0)::int8 AS total_count,
+                   COALESCE(SUM(total_capacity), 0)::float8 AS total_capacity,
+                   COALESCE(SUM(total_capacity)::float8 / NULLIF(SUM(battery_count), 0), 0)::float8 AS average_capacity
+            FROM battery_postcode_rollup
+            WHERE postcode BETWEEN :from AND :to
+            """;
+
+    private static final String NAME_PAGE_SQL = """
+            SELECT name, id::text AS id
+            FROM battery
+            WHERE %s%s
+            ORDER BY name, id
+            LIMIT :limit OFFSET :offset
+            """;
+
+    private static final String POSTCODE_CAPACITY_BUCKETS_SQL = """
+            SELECT postcode,
+                   LEAST(GREATEST(capacity, 0) / :bucketWidth, :lastBucket) AS bucket,
+                   COUNT(*) AS battery_count,
+                   SUM(capacity) AS total_capacity
+            FROM battery
+            GROUP BY postcode, bucket
+            """;
+
+    // Merging the per-postcode histograms of a range is a sum of counts per bucket
+    static final String CAPACITY_HISTOGRAM_SQL = """
+            SELECT bucket::int AS bucket, SUM(battery_count)::int8 AS battery_count
+            FROM battery_capacity_histogram
+            WHERE postcode BETWEEN :from AND :to
+            GROUP BY bucket
+            HAVING SUM(battery_count) > 0
+            ORDER BY bucket
+            """;
+
+    private static final String STREAM_NAMES_SQL = "SELECT name FROM battery WHERE %s ORDER BY name, id";
+
+    // Row-value comparison lets the (name, id) index seek straight to the cursor instead of skipping rows
+    private static final String AFTER_CURSOR_FILTER = " AND (name, id) > (:afterName, :afterId::uuid)";
+
+    private static final String POSTCODE_RANGE_FILTER = "postcode BETWEEN :from AND :to";
+    // Written as equality so the planner knows postcode is constant and the (postcode, name, id) index
+    // already returns the page in name order; BETWEEN with equal bounds would still be sorted
+    private static final String SINGLE_POSTCODE_FILTER = "postcode = :from AND postcode = :to";
+    private static final String CAPACITY_RANGE_FILTER = " AND capacity BETWEEN :min AND :max";
+
+    // Bucket of a capacity in battery_capacity_histogram; the 008 migration backfills with the same expression
+    static final String CAPACITY_BUCKET_EXPRESSION =
+            "CASE WHEN capacity <= 0 THEN 0 ELSE 1 + floor(log(2, capacity::numeric) * 8)::int END";
+
+    // Folds the rows returned by an "inserted" CTE into the per-postcode rollup and capacity histogram within
+    // the same statement. Upserting in key order keeps concurrent batches from deadlocking on each other's rows.
+    private static final String ROLLUP_UPSERT_SQL = """
+            rolled_up AS (
+                INSERT INTO battery_postcode_rollup AS r (postcode, battery_count, total_capacity, min_capacity, max_capacity)
+                SELECT postcode, COUNT(*), SUM(capacity), MIN(capacity), MAX(capacity)
+                FROM inserted
+                GROUP BY postcode
+                ORDER BY postcode
+                ON CONFLICT (postcode) DO UPDATE SET
+                    battery_count = r.battery_count + EXCLUDED.battery_count,
+                    total_capacity = r.total_capacity + EXCLUDED.total_capacity,
+                    min_capacity = LEAST(r.min_capacity, EXCLUDED.min_capacity),
+                    max_capacity = GREATEST(r.max_capacity, EXCLUDED.max_capacity)
+            ),
+            histogram AS (
+                INSERT INTO battery_capacity_histogram AS h (postcode, bucket, battery_count)
+                SELECT postcode, %s AS bucket, COUNT(*)
+                FROM inserted
+                GROUP BY postcode, bucket
+                ORDER BY postcode, bucket
+                ON CONFLICT (postcode, bucket) DO UPDATE SET
+                    battery_count = h.battery_count + EXCLUDED.battery_count
+            )
+            SELECT COUNT(*) AS inserted FROM inserted
+            """.formatted(CAPACITY_BUCKET_EXPRESSION);
+
+    // unnest() turns the three parameter arrays into rows, so a whole batch is a single statement and round trip
+    private static final String INSERT_ALL_SQL = """
+            WITH inserted AS (
+                INSERT INTO battery (name, postcode, capacity)
+                SELECT * FROM unnest(:names::varchar[], :postcodes::smallint[], :capacities::int[])
+                RETURNING postcode, capacity
+            ),
+            """ + ROLLUP_UPSERT_SQL;
+
+    private static final String COPY_STAGING_SQL =
+            "COPY battery_staging (load_id, name, postcode, capacity) FROM STDIN";
+
+    // Deleting and inserting in one statement keeps the merge atomic and leaves no staged rows behind.
+    // The target is battery itself or, for a load that falls into one partition, that partition.
+    private static final String MERGE_STAGING_SQL = """
+            WITH moved AS (
+                DELETE FROM battery_staging WHERE load_id = :loadId
+                RETURNING name, postcode, capacity
+            ),
+            inserted AS (
+                INSERT INTO %s (name, postcode, capacity)
+                SELECT name, postcode, capacity FROM moved
+                RETURNING postcode, capacity
+            ),
+            """ + ROLLUP_UPSERT_SQL;
+
+    private static final String DELETE_STAGING_SQL = "DELETE FROM battery_staging WHERE load_id = :loadId";
+
+    // Created by the 009 migration; it locks the rollup tables itself, so the recount needs no transaction here
+    private static final String RECONCILE_ROLLUPS_SQL = "SELECT reconcile_battery_rollups(:from, :to) AS rewritten";
+
+    private static final String STAGED_POSTCODE_RANGE_SQL = """
+            SELECT MIN(postcode)::int AS min_postcode, MAX(postcode)::int AS max_postcode
+            FROM battery_staging
+            WHERE load_id = :loadId
+            """;
+
+    // Empty unless battery is partitioned; only plain FROM (a) TO (b) range bounds are reported
+    private static final String PARTITIONS_SQL = """
+            SELECT c.relname AS name, pg_get_expr(c.relpartbound, c.oid) AS bound
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'battery'::regclass
+            ORDER BY c.relname
+            """;
+
+    private static final Pattern RANGE_BOUND = Pattern.compile("FOR VALUES FROM \\('?(\\d+)'?\\) TO \\('?(\\d+)'?\\)");
+
+    private final DatabaseClient databaseClient;
+
+    public BatteryRepositoryCustomImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    // The aggregates repeat on every row; a range without matches still returns one row with a null name
+    private static BatteryRangeStatistics toRangeStatistics(List<StatisticsRow> rows, int pageSize) {
+        BatteryNamePage page = toNamePage(rows.stream()
+                .filter(statisticsRow -> statisticsRow.name() != null)
+                .map(statisticsRow -> new BatteryCursor(statisticsRow.name(), statisticsRow.id()))
+                .toList(), pageSize);
+        StatisticsRow first = rows.get(0);
+        return new BatteryRangeStatistics(page.getBatteryNames(), first.totalCount(), first.totalCapacity(),
+                first.averageCapacity(), page.getNextCursor());
+    }
+
+    @Override
+    public Mono<List<BatteryRangeStatistics>> findRangeStatistics(List<BatteryRangeCriteria> ranges) {
+        if (ranges.isEmpty()) {
+            return Mono.just(List.of());
+        }
+
+        int count = ranges.size();
+        Integer[] froms = new Integer[count];
+        Integer[] tos = new Integer[count];
+        Integer[] mins = new Integer[count];
+        Integer[] maxes = new Integer[count];
+        Integer[] limits = new Integer[count];
+        Long[] offsets = new Long[count];
+        for (int i = 0; i < count; i++) {
+            BatteryRangeCriteria range = ranges.get(i);
+            boolean capacityFilter = range.getMin() != null && range.getMax() != null;
+            froms[i] = range.getFrom();
+            tos[i] = range.getTo();
+            mins[i] = capacityFilter ? range.getMin() : null;
+            maxes[i] = capacityFilter ? range.getMax() : null;
+            limits[i] = range.getPageable().getPageSize() + 1;
+            offsets[i] = range.getPageable().getOffset();
+        }
+
+        log.debug("Querying {} ranges in one statement", count);
+        return databaseClient.sql(BATCH_RANGE_STATISTICS_SQL)
+                .bind("froms", froms)
+                .bind("tos", tos)
+                .bind("mins", mins)
+                .bind("maxes", maxes)
+                .bind("limits", limits)
+                .bind("offsets", offsets)
+                .map((row, metadata) -> new BatchStatisticsRow(
+                        row.get("idx", Long.class).intValue() - 1,
+                        new StatisticsRow(
+                                row.get("total_count", Long.class),
+                                row.get("total_capacity", Double.class),
+                                row.get("average_capacity", Double.class),
+                                row.get("name", String.class),
+                                row.get("id", String.class))))
+                .all()
+                .collectList()
+                .map(rows -> {
+                    List<List<StatisticsRow>> rowsByRange = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        rowsByRange.add(new ArrayList<>());
+                    }
+                    for (BatchStatisticsRow row : rows) {
+                        rowsByRange.get(row.index()).add(row.row());
+                    }
+                    List<BatteryRangeStatistics> statistics = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        statistics.add(toRangeStatistics(rowsByRange.get(i), ranges.get(i).getPageable().getPageSize()));
+                    }
+                    return statistics;
+                });
+    }
+
+    @Override
+    public Mono<BatteryNamePage> findNamePage(int from, int to, Integer min, Integer max,
+                                              BatteryCursor after, Pageable pageable) {
+        String sql = namePageSql(from, to, min, max, after != null);
+        int pageSize = pageable.getPageSize();
+
+        DatabaseClient.GenericExecuteSpec spec = bindRange(databaseClient.sql(sql), from, to, min, max)
+                .bind("limit", pageSize + 1)
+                .bind("offset", after != null ? 0L : pageable.getOffset());
+        if (after != null) {
+            spec = spec.bind("afterName", after.name()).bind("afterId", after.id());
+        }
+
+        return spec.map((row, metadata) -> new BatteryCursor(row.get("name", String.class), row.get("id", String.class)))
+                .all()
+                .collectList()
+                .map(rows -> toNamePage(rows, pageSize));
+    }
+
+    @Override
+    public Flux<PostcodeCapacityBucket> aggregateByPostcodeAndCapacityBucket(int bucketWidth, int buckets) {
+        return databaseClient.sql(POSTCODE_CAPACITY_BUCKETS_SQL)
+                .bind("bucketWidth", bucketWidth)
+                .bind("lastBucket", buckets - 1)
+                .map((row, metadata) -> new PostcodeCapacityBucket(
+                        row.get("postcode", Integer.class),
+                        row.get("bucket", Integer.class),
+                        row.get("battery_count", Long.class),
+                        row.get("total_capacity", Long.class)))
+                .all();
+    }
+
+    // Rows are read one past the page size; a row beyond the page means the last kept row becomes the cursor
+    private static BatteryNamePage toNamePage(List<BatteryCursor> rows, int pageSize) {
+        List<BatteryCursor> page = rows.size() > pageSize ? rows.subList(0, pageSize) : rows;
+        List<String> names = new ArrayList<>(page.size());
+        for (BatteryCursor row : page) {
+            names.add(row.name());
+        }
+        BatteryCursor nextCursor = rows.size() > pageSize && !page.isEmpty() ? page.get(page.size() - 1) : null;
+        return new BatteryNamePage(names, nextCursor);
+    }
+
+    @Override
+    public Mono<BatteryRangeSummary> findRangeSummary(int from, int to, Integer min, Integer max) {
+        return bindRange(databaseClient.sql(aggregatesSql(from, to, min, max)), from, to, min, max)
+                .map((row, metadata) -> new BatteryRangeSummary(
+                        row.get("total_count", Long.class),
+                        row.get("total_capacity", Double.class),
+                        row.get("average_capacity", Double.class)))
+                .one();
+    }
+
+    @Override
+    public Flux<CapacityHistogramBucket> findCapacityHistogram(int from, int to) {
+        return databaseClient.sql(CAPACITY_HISTOGRAM_SQL)
+                .bind("from", from)
+                .bind("to", to)
+                .map((row, metadata) -> {
+                    int bucket = row.get("bucket", Integer.class);
+                    return new CapacityHistogramBucket(CapacityBuckets.lowerBound(bucket), CapacityBuckets.upperBound(bucket),
+                            row.get("battery_count", Long.class));
+                })
+                .all();
+    }
+
+    @Override
+    public Flux<String> streamNames(int from, int to, Integer min, Integer max, int fetchSize) {
+        // A fetch size makes the driver read through a portal in chunks, pulled only as downstream requests rows
+        return bindRange(databaseClient.sql(streamNamesSql(from, to, min, max)), from, to, min, max)
+                .filter(statement -> statement.fetchSize(fetchSize))
+                .map((row, metadata) -> row.get("name", String.class))
+                .all();
+    }
+
+    // The statement builders, like the fixed statements above, are package-private so the query plan tests
+    // explain exactly what runs here
+
+    static String namePageSql(int from, int to, Integer min, Integer max, boolean afterCursor) {
+        return NAME_PAGE_SQL.formatted(rangeFilter(from, to, min, max), afterCursor ? AFTER_CURSOR_FILTER : "");
+    }
+
+    static String streamNamesSql(int from, int to, Integer min, Integer max) {
+        return STREAM_NAMES_SQL.formatted(rangeFilter(from, to, min, max));
+    }
+
+    static String aggregatesSql(int from, int to, Integer min, Integer max) {
+        return min != null && max != null
+                ? BATTERY_AGGREGATES_SQL.formatted(rangeFilter(from, to, min, max))
+                : ROLLUP_AGGREGATES_SQL;
+    }
+
+    private static String rangeFilter(int from, int to, Integer min, Integer max) {
+        String postcodeFilter = from == to ? SINGLE_POSTCODE_FILTER : POSTCODE_RANGE_FILTER;
+        return min != null && max != null ? postcodeFilter + CAPACITY_RANGE_FILTER : postcodeFilter;
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindRange(DatabaseClient.GenericExecuteSpec spec,
+                                                               int from, int to, Integer min, Integer max) {
+        spec = spec.bind("from", from).bind("to", to);
+        if (min != null && max != null) {
+            spec = spec.bind("min", min).bind("max", max);
+        }
+        return spec;
+    }
+
+    @Override
+    public Mono<Long> insertAll(List<Battery> batteries) {
+        if (batteries.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        String[] names = new String[batteries.size()];
+        Short[] postcodes = new Short[batteries.size()];
+        Integer[] capacities = new Integer[batteries.size()];
+        for (int i = 0; i < batteries.size(); i++) {
+            Battery battery = batteries.get(i);
+            names[i] = battery.getName();
+            postcodes[i] = (short) battery.getPostcode();
+            capacities[i] = battery.getCapacity();
+        }
+
+        log.debug("Inserting {} batteries in one statement", batteries.size());
+        return databaseClient.sql(INSERT_ALL_SQL)
+                .bind("names", names)
+                .bind("postcodes", postcodes)
+                .bind("capacities", capacities)
+                .map((row, metadata) -> row.get("inserted", Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Long> copyIntoStaging(UUID loadId, Flux<Battery> batteries, int rowsPerChunk) {
+        String loadIdText = loadId.toString();
+        Flux<ByteBuf> chunks = batteries
+                .buffer(rowsPerChunk)
+                .map(chunk -> {
+                    StringBuilder rows = new StringBuilder(chunk.size() * 48);
+                    for (Battery battery : chunk) {
+                        rows.append(loadIdText).append('\t')
+                                .append(escapeCopyText(battery.getName())).append('\t')
+                                .append(battery.getPostcode()).append('\t')
+                                .append(battery.getCapacity()).append('\n');
+                    }
+                    return Unpooled.copiedBuffer(rows, StandardCharsets.UTF_8);
+                });
+
+        return databaseClient.inConnection(connection -> postgresqlConnection(connection).copyIn(COPY_STAGING_SQL, chunks));
+    }
+
+    @Override
+    public Mono<Long> mergeStaging(UUID loadId) {
+        return mergeStagingInto("battery", loadId);
+    }
+
+    @Override
+    public Mono<Long> mergeStaging(UUID loadId, BatteryPartition partition) {
+        return mergeStagingInto(quoteIdentifier(partition.getName()), loadId);
+    }
+
+    private Mono<Long> mergeStagingInto(String table, UUID loadId) {
+        return databaseClient.sql(MERGE_STAGING_SQL.formatted(table))
+                .bind("loadId", loadId)
+                .map((row, metadata) -> row.get("inserted", Long.class))
+                .one();
+    }
+
+    @Override
+    public Flux<BatteryPartition> findPartitions() {
+        return databaseClient.sql(PARTITIONS_SQL)
+                .map((row, metadata) -> {
+                    Matcher bound = RANGE_BOUND.matcher(row.get("bound", String.class));
+                    return bound.matches()
+                            ? Optional.of(new BatteryPartition(row.get("name", String.class),
+                                    Integer.parseInt(bound.group(1)), Integer.parseInt(bound.group(2))))
+                            : Optional.<BatteryPartition>empty();
+                })
+                .all()
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    @Override
+    public Mono<BatteryPartition> findPartitionOfStagedLoad(UUID loadId) {
+        return databaseClient.sql(STAGED_POSTCODE_RANGE_SQL)
+                .bind("loadId", loadId)
+                .map((row, metadata) -> Optional.ofNullable(row.get("min_postcode", Integer.class))
+                        .map(min -> new int[]{min, row.get("max_postcode", Integer.class)}))
+                .one()
+                .flatMap(Mono::justOrEmpty)
+                .flatMap(range -> findPartitions()
+                        .filter(partition -> partition.covers(range[0], range[1]))
+                        .next());
+    }
+
+    @Override
+    public Mono<Void> analyze(BatteryPartition partition) {
+        return databaseClient.sql("ANALYZE " + quoteIdentifier(partition.getName())).then();
+    }
+
+    @Override
+    public Mono<Long> deleteStaging(UUID loadId) {
+        return databaseClient.sql(DELETE_STAGING_SQL)
+                .bind("loadId", loadId)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    @Override
+    public Mono<Long> reconcileRollups(int from, int to) {
+        return databaseClient.sql(RECONCILE_ROLLUPS_SQL)
+                .bind("from", from)
+                .bind("to", to)
+                .map((row, metadata) -> row.get("rewritten", Long.class))
+                .one();
+    }
+
+    private static PostgresqlConnection postgresqlConnection(Connection connection) {
+        Object current = connection;
+        while (!(current instanceof PostgresqlConnection) && current instanceof Wrapped<?> wrapped) {
+            current = wrapped.unwrap();
+        }
+        if (current instanceof PostgresqlConnection postgresqlConnection) {
+            return postgresqlConnection;
+        }
+        throw new IllegalStateException("COPY requires a PostgreSQL connection but got " + connection.getClass().getName());
+    }
+
+    // Partition names come from the catalog, but are still quoted before being spliced into a statement
+    private static String quoteIdentifier(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Escapes the characters that are significant in COPY's text format
+     */
+    private static String escapeCopyText(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case '\t' -> escaped.append("\\t");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private record StatisticsRow(long totalCount, double totalCapacity, double averageCapacity, String name, String id) {
+    }
+
+    private record BatchStatisticsRow(int index, StatisticsRow row) {
+    }
+}
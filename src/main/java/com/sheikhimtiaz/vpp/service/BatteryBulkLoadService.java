@@ -0,0 +1,137 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
+import com.sheikhimtiaz.vpp.model.BatteryDto;
+import com.sheikhimtiaz.vpp.model.BulkLoadResult;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import com.sheikhimtiaz.vpp.util.Postcodes;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+
+/**
+ * Backfills the battery table without going through Kafka. The upload is streamed over the COPY protocol
+ * into an unlogged staging table, moved into {@code battery} with one set-based statement, and the query
+ * cache is purged once at the end instead of per row.
+ */
+@Service
+@Slf4j
+public class BatteryBulkLoadService {
+
+    private final BatteryRepository batteryRepository;
+    private final BatteryQueryCache queryCache;
+    private final Validator validator;
+    private final VppProperties properties;
+    private final BatteryAggregateIndex aggregateIndex;
+
+    public BatteryBulkLoadService(BatteryRepository batteryRepository,
+                                  BatteryQueryCache queryCache,
+                                  Validator validator,
+                                  VppProperties properties,
+                                  BatteryAggregateIndex aggregateIndex) {
+        this.batteryRepository = batteryRepository;
+        this.queryCache = queryCache;
+        this.validator = validator;
+        this.properties = properties;
+        this.aggregateIndex = aggregateIndex;
+    }
+
+    public Mono<BulkLoadResult> load(Flux<BatteryDto> batteries) {
+        return Mono.defer(() -> {
+            UUID loadId = UUID.randomUUID();
+            AtomicLong rejected = new AtomicLong();
+            long startTime = System.nanoTime();
+            log.info("Starting bulk load {}", loadId);
+
+            Flux<Battery> validBatteries = batteries
+                    .filter(batteryDto -> isValid(batteryDto, rejected))
+                    .map(batteryDto -> new Battery(batteryDto.getName(), Postcodes.parse(batteryDto.getPostcode()), batteryDto.getCapacity()));
+
+            return batteryRepository.copyIntoStaging(loadId, validBatteries, properties.getBulkLoad().getRowsPerChunk())
+                    .doOnNext(staged -> log.info("Bulk load {} staged {} rows", loadId, staged))
+                    .flatMap(staged -> merge(loadId)
+                            .map(merged -> {
+                                long durationMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+                                long rowsPerSecond = merged * 1000 / Math.max(durationMillis, 1);
+                                log.info("Bulk load {} merged {} rows, rejected {} in {} ms ({} rows/s)",
+                                        loadId, merged, rejected.get(), durationMillis, rowsPerSecond);
+                                return new BulkLoadResult(loadId.toString(), staged, merged, rejected.get(),
+                                        durationMillis, rowsPerSecond);
+                            }))
+                    .flatMap(result -> rebuildAggregateIndex().then(purgeQueryCache()).thenReturn(result))
+                    .onErrorResume(error -> {
+                        log.error("Bulk load {} failed: {}", loadId, error.getMessage(), error);
+                        return batteryRepository.deleteStaging(loadId)
+                                .onErrorResume(cleanupError -> {
+                                    log.error("Failed to clean up staging rows of bulk load {}", loadId, cleanupError);
+                                    return Mono.just(0L);
+                                })
+                                .then(Mono.error(error));
+                    });
+        });
+    }
+
+    private boolean isValid(BatteryDto batteryDto, AtomicLong rejected) {
+        Set<ConstraintViolation<BatteryDto>> violations = validator.validate(batteryDto);
+        if (violations.isEmpty()) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        log.warn("Rejecting invalid battery {}: {}", batteryDto, violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .collect(Collectors.joining(", ")));
+        return false;
+    }
+
+    /**
+     * On a partitioned table, a load whose rows all fall into one partition is merged straight into it and
+     * only that partition is re-analyzed; the other partitions are neither written nor read. Any other load
+     * goes through {@code battery} as before.
+     */
+    private Mono<Long> merge(UUID loadId) {
+        return batteryRepository.findPartitionOfStagedLoad(loadId)
+                .flatMap(partition -> {
+                    log.info("Bulk load {} falls into partition {}, merging into it directly", loadId, partition.getName());
+                    return batteryRepository.mergeStaging(loadId, partition)
+                            .flatMap(merged -> batteryRepository.analyze(partition)
+                                    .onErrorResume(error -> {
+                                        log.error("Error analyzing partition {} after bulk load: {}",
+                                                partition.getName(), error.getMessage(), error);
+                                        return Mono.empty();
+                                    })
+                                    .thenReturn(merged));
+                })
+                .switchIfEmpty(Mono.defer(() -> batteryRepository.mergeStaging(loadId)));
+    }
+
+    // A load can touch any postcode, so the in-process index of every instance is rebuilt rather than patched
+    private Mono<Long> rebuildAggregateIndex() {
+        return aggregateIndex.rebuildEverywhere()
+                .onErrorResume(error -> {
+                    log.error("Error rebuilding aggregate index after bulk load: {}", error.getMessage(), error);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Long> purgeQueryCache() {
+        return queryCache.invalidateAll()
+                .doOnNext(deleted -> log.info("Invalidated the battery query cache after bulk load, {} entries deleted", deleted))
+                .onErrorResume(error -> {
+                    log.error("Error purging cache after bulk load: {}", error.getMessage(), error);
+                    return Mono.just(0L);
+                });
+    }
+}
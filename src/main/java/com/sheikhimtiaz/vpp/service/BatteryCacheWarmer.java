@@ -0,0 +1,186 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.cache.HeavyHitters;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.HeavyHitter;
+import com.sheikhimtiaz.vpp.model.HotQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the cache warm across deploys and Redis flushes. Every {@code persist-interval} the heavy hitters of
+ * this instance are merged into a sorted set in Redis, trimmed to the {@code top-k} highest scores. Each member
+ * keeps the highest estimate any instance reported, so a low estimate from one instance cannot push out a range
+ * that is hot on another; the set is halved once per interval across all instances, the way the local counts
+ * are, so ranges that cool down fall out of it. At startup the persisted queries seed the local counts and are
+ * loaded into the cache; Spring Boot only reports the instance ready once application runners have returned,
+ * so traffic arrives to a warm cache.
+ */
+@Slf4j
+@Component
+public class BatteryCacheWarmer implements ApplicationRunner, SmartLifecycle {
+
+    static final String HEAVY_HITTERS_KEY = "battery-stats-heavy-hitters";
+    static final String DECAY_KEY = HEAVY_HITTERS_KEY + "::decayed";
+
+    // The first instance to persist in an interval halves the set, dropping members that reach zero; every
+    // instance then raises members to its own estimates (ZADD GT needs Redis 6.2) and keeps only the top-k.
+    // KEYS are the set and the decay marker; ARGV holds top-k, retention and persist interval in milliseconds,
+    // then score and member pairs.
+    private static final RedisScript<Long> PERSIST_SCRIPT = RedisScript.of("""
+            if redis.call('set', KEYS[2], '1', 'PX', ARGV[3], 'NX') then
+                local members = redis.call('zrange', KEYS[1], 0, -1, 'WITHSCORES')
+                for i = 1, #members, 2 do
+                    local halved = math.floor(tonumber(members[i + 1]) / 2)
+                    if halved > 0 then
+                        redis.call('zadd', KEYS[1], halved, members[i])
+                    else
+                        redis.call('zrem', KEYS[1], members[i])
+                    end
+                end
+            end
+            for i = 4, #ARGV, 2 do
+                redis.call('zadd', KEYS[1], 'GT', ARGV[i], ARGV[i + 1])
+            end
+            redis.call('zremrangebyrank', KEYS[1], 0, -tonumber(ARGV[1]) - 1)
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            return redis.call('zcard', KEYS[1])
+            """, Long.class);
+
+    private final BatteryService batteryService;
+    private final HeavyHitters heavyHitters;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final VppProperties.Warming properties;
+
+    private volatile Disposable persistSchedule;
+
+    public BatteryCacheWarmer(BatteryService batteryService, HeavyHitters heavyHitters,
+                              ReactiveStringRedisTemplate redisTemplate, VppProperties properties) {
+        this.batteryService = batteryService;
+        this.heavyHitters = heavyHitters;
+        this.redisTemplate = redisTemplate;
+        this.properties = properties.getCache().getWarming();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        Long warmed = warm().block();
+        log.info("Warmed the cache with {} heavy hitter queries in {} ms", warmed,
+                Duration.ofNanos(System.nanoTime() - startTime).toMillis());
+    }
+
+    /**
+     * Loads the persisted heavy hitters into the cache, at most {@code warm-concurrency} at a time, and counts
+     * their scores towards this instance's estimates. Completes with the number of queries warmed once all are
+     * done or {@code warm-timeout} has passed; a query that fails is left to be loaded on demand.
+     */
+    public Mono<Long> warm() {
+        return redisTemplate.opsForZSet()
+                .reverseRangeWithScores(HEAVY_HITTERS_KEY, Range.closed(0L, (long) properties.getTopK() - 1))
+                .flatMap(this::decode)
+                .doOnNext(hitter -> heavyHitters.add(hitter.query(), hitter.estimatedCount()))
+                .flatMap(hitter -> batteryService.warm(hitter.query())
+                        .thenReturn(hitter)
+                        .onErrorResume(error -> {
+                            log.warn("Failed to warm {}: {}", hitter.query(), error.getMessage());
+                            return Mono.empty();
+                        }), properties.getWarmConcurrency())
+                .take(properties.getWarmTimeout())
+                .count()
+                .onErrorResume(error -> {
+                    log.error("Failed to read heavy hitters, starting with a cold cache: {}", error.getMessage(), error);
+                    return Mono.just(0L);
+                });
+    }
+
+    /**
+     * Merges the current heavy hitters into the persisted set, then halves the local counts
+     */
+    public Mono<Long> persist() {
+        List<HeavyHitter> top = heavyHitters.top();
+        if (top.isEmpty()) {
+            return Mono.fromRunnable(heavyHitters::decay).thenReturn(0L);
+        }
+        List<String> args = new ArrayList<>(3 + 2 * top.size());
+        args.add(String.valueOf(properties.getTopK()));
+        args.add(String.valueOf(properties.getRetention().toMillis()));
+        args.add(String.valueOf(properties.getPersistInterval().toMillis()));
+        for (HeavyHitter hitter : top) {
+            args.add(String.valueOf(hitter.estimatedCount()));
+            args.add(hitter.query().encode());
+        }
+        return redisTemplate.execute(PERSIST_SCRIPT, List.of(HEAVY_HITTERS_KEY, DECAY_KEY), args)
+                .next()
+                .doOnNext(persisted -> log.debug("Persisted {} heavy hitters, {} in total", top.size(), persisted))
+                .doFinally(signal -> heavyHitters.decay());
+    }
+
+    private Mono<HeavyHitter> decode(ZSetOperations.TypedTuple<String> member) {
+        try {
+            long score = member.getScore() != null ? member.getScore().longValue() : 0L;
+            return Mono.just(new HeavyHitter(HotQuery.decode(member.getValue()), score));
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping unreadable heavy hitter {}", member.getValue());
+            return Mono.empty();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        log.info("Starting heavy hitter tracking: topK={}, persistInterval={}",
+                properties.getTopK(), properties.getPersistInterval());
+        persistSchedule = Flux.interval(properties.getPersistInterval(), properties.getPersistInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> persist()
+                        .onErrorResume(error -> {
+                            log.error("Failed to persist heavy hitters: {}", error.getMessage(), error);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    /**
+     * Persists once more on shutdown, so a rolling deploy hands the latest counts to the next instances
+     */
+    @Override
+    public void stop() {
+        Disposable current = persistSchedule;
+        if (current != null) {
+            log.info("Stopping heavy hitter tracking");
+            current.dispose();
+            persistSchedule = null;
+            try {
+                persist().block(Duration.ofSeconds(5));
+            } catch (RuntimeException e) {
+                log.warn("Failed to persist heavy hitters on shutdown: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Disposable current = persistSchedule;
+        return current != null && !current.isDisposed();
+    }
+}
@@ -1,107 +1,112 @@
 package com.sheikhimtiaz.vpp.service;
 
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
 import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
-import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
 import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import com.sheikhimtiaz.vpp.util.Postcodes;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
+import static com.sheikhimtiaz.vpp.constant.AppConstants.BATTERY_TOPIC;
+
 @Service
 @Slf4j
 public class BatteryConsumerService {
 
     private final BatteryRepository batteryRepository;
-    private final ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
+    private final BatteryQueryCache queryCache;
+    private final BatteryAggregateIndex aggregateIndex;
 
     public BatteryConsumerService(BatteryRepository batteryRepository,
-                                  ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate){
+                                  BatteryQueryCache queryCache,
+                                  BatteryAggregateIndex aggregateIndex){
         this.batteryRepository = batteryRepository;
-        this.redisTemplate = redisTemplate;
+        this.queryCache = queryCache;
+        this.aggregateIndex = aggregateIndex;
     }
 
-    @KafkaListener(topics = "battery-topic", groupId = "battery-group")
+    /**
+     * Handles one event per call. The insert and the cache invalidation complete before the method returns,
+     * so the container only commits the offset of a persisted battery; failures are rethrown for redelivery.
+     * The insert goes through {@code insertAll} so the postcode rollup is updated in the same statement.
+     * The cache watermark is taken before the insert, see {@link BatteryQueryCache#watermark()}.
+     */
+    @KafkaListener(topics = BATTERY_TOPIC, groupId = "battery-group",
+            autoStartup = "#{'${vpp.kafka.consumer.mode:record}' == 'record'}")
     public void consume(BatteryDto event) {
-        try {
-            log.info("Received battery event: {}", event);
-            Battery battery = new Battery();
-            battery.setName(event.getName());
-            battery.setPostcode(event.getPostcode());
-            battery.setCapacity(event.getCapacity());
-            batteryRepository.save(battery)
-                    .doOnSuccess(savedBattery -> {
-                        log.info("Battery saved successfully: {}", savedBattery.getId());
-                        invalidateAffectedCacheEntries(savedBattery.getPostcode(), savedBattery.getCapacity());
-                    })
-                    .doOnError(error -> log.error("Error saving battery: {}", error.getMessage(), error))
-                    .subscribe();
-        } catch (Exception e) {
-            log.error("Error processing battery event: {}", event, e);
-            throw new RuntimeException(e);
-        }
+        log.info("Received battery event: {}", event);
+        List<Battery> batteries = List.of(toBattery(event));
+        queryCache.watermark()
+                .flatMap(watermark -> batteryRepository.insertAll(batteries)
+                        .doOnSuccess(inserted -> {
+                            log.info("Battery saved successfully: {}", event.getName());
+                            aggregateIndex.addAll(batteries);
+                        })
+                        .doOnError(error -> log.error("Error saving battery {}: {}", event, error.getMessage(), error))
+                        .flatMap(inserted -> invalidateAffectedCacheEntries(batteries, watermark)
+                                .doOnNext(deleted -> log.debug("Invalidated {} cache entries", deleted))
+                                .onErrorResume(error -> {
+                                    log.error("Error invalidating cache: {}", error.getMessage(), error);
+                                    return Mono.just(0L);
+                                })))
+                .block();
     }
 
-    private void invalidateAffectedCacheEntries(String postcode, double capacity) {
-        redisTemplate.keys("battery-stats::*")
-                .flatMap(key -> {
-                    if (isCacheKeyAffectedByBattery(key, postcode, capacity)) {
-                        log.debug("Invalidating cache key: {}", key);
-                        return redisTemplate.delete(key);
-                    }
-                    return Mono.just(false);
-                })
-                .subscribe(
-                        deleted -> {
-                            if (deleted.equals(true)) {
-                                log.debug("Cache entry invalidated");
-                            }
-                        },
-                        error -> log.error("Error invalidating cache: {}", error.getMessage(), error)
-                );
+    /**
+     * Receives every record of a poll at once and blocks the container thread until the batch is
+     * persisted, so offsets are only committed for rows that reached the database. A failure is
+     * rethrown and the container's error handler redelivers the batch.
+     */
+    @KafkaListener(topics = BATTERY_TOPIC, groupId = "battery-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "#{'${vpp.kafka.consumer.mode:record}' == 'batch'}")
+    public void consumeBatch(List<BatteryDto> events) {
+        log.info("Received batch of {} battery events", events.size());
+        persistBatch(events).block();
     }
 
-    public boolean isCacheKeyAffectedByBattery(String key, String postcode, double capacity) {
-        try {
-            String[] parts = key.split("::");
-            if (parts.length != 2) return true;
-
-            String[] params = parts[1].split(":");
-            String from = null;
-            String to = null;
-            Integer min = null;
-            Integer max = null;
+    /**
+     * Writes the batch with a single multi-row INSERT, then runs one cache invalidation pass for the whole batch.
+     * The cache watermark is taken before the insert, so aggregates cached while it runs are evicted rather than
+     * having the batch added to them a second time.
+     */
+    public Mono<Long> persistBatch(List<BatteryDto> events) {
+        List<Battery> batteries = events.stream()
+                .map(this::toBattery)
+                .toList();
 
-            for (String param : params) {
-                String[] kv = param.split("=");
-                if (kv.length != 2) continue;
-
-                switch (kv[0]) {
-                    case "from":
-                        from = kv[1];
-                        break;
-                    case "to":
-                        to = kv[1];
-                        break;
-                    case "min":
-                        min = "null".equals(kv[1]) ? null : Integer.parseInt(kv[1]);
-                        break;
-                    case "max":
-                        max = "null".equals(kv[1]) ? null : Integer.parseInt(kv[1]);
-                        break;
-                }
-            }
+        return queryCache.watermark()
+                .flatMap(watermark -> batteryRepository.insertAll(batteries)
+                        .doOnSuccess(inserted -> {
+                            log.info("Inserted {} batteries", inserted);
+                            aggregateIndex.addAll(batteries);
+                        })
+                        .doOnError(error -> log.error("Error saving battery batch: {}", error.getMessage(), error))
+                        .flatMap(inserted -> invalidateAffectedCacheEntries(batteries, watermark)
+                                .doOnNext(deleted -> log.debug("Invalidated {} cache entries", deleted))
+                                .onErrorResume(error -> {
+                                    log.error("Error invalidating cache: {}", error.getMessage(), error);
+                                    return Mono.just(0L);
+                                })
+                                .thenReturn(inserted)));
+    }
 
-            boolean postcodeInRange = from != null && to != null &&
-                    postcode.compareTo(from) >= 0 && postcode.compareTo(to) <= 0;
-            boolean capacityInRange = (min == null || capacity >= min) && (max == null || capacity <= max);
+    private Battery toBattery(BatteryDto event) {
+        Battery battery = new Battery();
+        battery.setName(event.getName());
+        battery.setPostcode(Postcodes.parse(event.getPostcode()));
+        battery.setCapacity(event.getCapacity());
+        return battery;
+    }
 
-            return postcodeInRange && capacityInRange;
-        } catch (Exception e) {
-            log.error("Error parsing cache key: {}", e.getMessage());
-            return true;
-        }
+    // One pass per batch; the invalidation strategy maps the postcodes to buckets, so no key is scanned
+    private Mono<Long> invalidateAffectedCacheEntries(List<Battery> batteries, long watermark) {
+        return queryCache.invalidate(batteries, watermark);
     }
 }
@@ -0,0 +1,119 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.BatteryDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.util.retry.Retry;
+
+import java.util.List;
+
+/**
+ * Consumes battery events through a reactor-kafka receiver. Records are written in batches with a bounded
+ * number of writes outstanding; once that limit is reached no more demand is signalled and the receiver
+ * pauses its poll loop. Offsets are acknowledged in partition order and only after the batch containing
+ * them has been persisted, so a restart redelivers anything that was not stored.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(prefix = "vpp.kafka.consumer", name = "mode", havingValue = "reactive")
+public class BatteryReceiverService implements SmartLifecycle {
+
+    private final KafkaReceiver<String, BatteryDto> kafkaReceiver;
+    private final BatteryConsumerService batteryConsumerService;
+    private final VppProperties.Receiver receiverProperties;
+
+    private volatile Disposable subscription;
+
+    public BatteryReceiverService(KafkaReceiver<String, BatteryDto> kafkaReceiver,
+                                  BatteryConsumerService batteryConsumerService,
+                                  VppProperties properties) {
+        this.kafkaReceiver = kafkaReceiver;
+        this.batteryConsumerService = batteryConsumerService;
+        this.receiverProperties = properties.getKafka().getConsumer().getReceiver();
+        int partitions = properties.getKafka().getTopic().getPartitions();
+        if (receiverProperties.isPreservePartitionOrder() && receiverProperties.getMaxInFlightBatches() < partitions) {
+            // A partition pipeline never completes, so one beyond the limit would never be subscribed and stall the receiver
+            throw new IllegalStateException("vpp.kafka.consumer.receiver.max-in-flight-batches ("
+                    + receiverProperties.getMaxInFlightBatches() + ") must be at least the number of topic partitions ("
+                    + partitions + ") when preserve-partition-order is enabled");
+        }
+    }
+
+    @Override
+    public void start() {
+        log.info("Starting reactive battery receiver: batchSize={}, maxInFlightBatches={}",
+                receiverProperties.getBatchSize(), receiverProperties.getMaxInFlightBatches());
+        subscription = Flux.defer(() -> process(kafkaReceiver.receive()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, receiverProperties.getRetryBackoff())
+                        .maxBackoff(receiverProperties.getMaxRetryBackoff())
+                        .doBeforeRetry(signal -> log.warn("Restarting battery receiver after failure: {}",
+                                signal.failure().getMessage())))
+                .subscribe(
+                        records -> log.debug("Committed offsets for {} battery events", records.size()),
+                        error -> log.error("Battery receiver stopped: {}", error.getMessage(), error)
+                );
+    }
+
+    /**
+     * Batches the records, persists each batch and acknowledges the batch's offsets once it is stored.
+     * With {@code preserve-partition-order} every partition gets its own sequential pipeline, so batches
+     * of one partition are written one after another while up to {@code max-in-flight-batches} partitions
+     * proceed in parallel. Otherwise {@code flatMapSequential} lets several writes run concurrently but emits
+     * them in arrival order.
+     * Either way an offset is never acknowledged ahead of an earlier record that is still being written.
+     */
+    Flux<List<ReceiverRecord<String, BatteryDto>>> process(Flux<ReceiverRecord<String, BatteryDto>> records) {
+        if (receiverProperties.isPreservePartitionOrder()) {
+            return records
+                    .groupBy(receiverRecord -> receiverRecord.receiverOffset().topicPartition())
+                    .flatMap(partitionRecords -> partitionRecords
+                            .bufferTimeout(receiverProperties.getBatchSize(), receiverProperties.getBatchTimeout(), true)
+                            .concatMap(this::persistAndAcknowledge), receiverProperties.getMaxInFlightBatches());
+        }
+        return records
+                .bufferTimeout(receiverProperties.getBatchSize(), receiverProperties.getBatchTimeout(), true)
+                .flatMapSequential(batch -> persist(batch).thenReturn(batch),
+                        receiverProperties.getMaxInFlightBatches(), 1)
+                .doOnNext(this::acknowledge);
+    }
+
+    private Mono<List<ReceiverRecord<String, BatteryDto>>> persistAndAcknowledge(List<ReceiverRecord<String, BatteryDto>> batch) {
+        return persist(batch)
+                .thenReturn(batch)
+                .doOnNext(this::acknowledge);
+    }
+
+    private Mono<Long> persist(List<ReceiverRecord<String, BatteryDto>> batch) {
+        return batteryConsumerService.persistBatch(batch.stream()
+                .map(ReceiverRecord::value)
+                .toList());
+    }
+
+    private void acknowledge(List<ReceiverRecord<String, BatteryDto>> batch) {
+        batch.forEach(receiverRecord -> receiverRecord.receiverOffset().acknowledge());
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = subscription;
+        if (current != null) {
+            log.info("Stopping reactive battery receiver");
+            current.dispose();
+            subscription = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Disposable current = subscription;
+        return current != null && !current.isDisposed();
+    }
+}
@@ -0,0 +1,90 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import com.sheikhimtiaz.vpp.util.Postcodes;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Keeps the postcode rollup and capacity histogram in line with {@code battery}. Both are only maintained by
+ * {@code insertAll} and the bulk-load merge, so rows written any other way - by instances of an older version
+ * during a rolling deploy, or by hand - would be missing from range aggregates and percentiles for good. Every
+ * {@code reconcile-interval} the postcodes are recounted a slice at a time, so writers only ever wait for one
+ * slice.
+ */
+@Slf4j
+@Component
+public class BatteryRollupReconciler implements SmartLifecycle {
+
+    private final BatteryRepository batteryRepository;
+    private final VppProperties.Rollup properties;
+
+    private volatile Disposable reconcileSchedule;
+
+    public BatteryRollupReconciler(BatteryRepository batteryRepository, VppProperties properties) {
+        this.batteryRepository = batteryRepository;
+        this.properties = properties.getRollup();
+    }
+
+    /**
+     * Recounts every postcode, one slice of {@code reconcile-postcodes} after the other. Completes with the
+     * number of rollup rows that had drifted and were rewritten.
+     */
+    public Mono<Long> reconcile() {
+        int slice = Math.max(1, properties.getReconcilePostcodes());
+        long startTime = System.nanoTime();
+        return Flux.range(0, (Postcodes.MAX - Postcodes.MIN) / slice + 1)
+                .map(i -> Postcodes.MIN + i * slice)
+                .concatMap(from -> batteryRepository.reconcileRollups(from, Math.min(from + slice - 1, Postcodes.MAX)))
+                .reduce(0L, Long::sum)
+                .doOnNext(rewritten -> {
+                    long durationMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+                    if (rewritten > 0) {
+                        log.warn("Rewrote {} drifted postcode rollup rows in {} ms", rewritten, durationMillis);
+                    } else {
+                        log.debug("Postcode rollup matches the table, checked in {} ms", durationMillis);
+                    }
+                });
+    }
+
+    @Override
+    public void start() {
+        Duration interval = properties.getReconcileInterval();
+        if (interval.isZero() || interval.isNegative()) {
+            return;
+        }
+        log.info("Starting postcode rollup reconciliation: interval={}, postcodesPerSlice={}",
+                interval, properties.getReconcilePostcodes());
+        reconcileSchedule = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> reconcile()
+                        .onErrorResume(error -> {
+                            log.error("Failed to reconcile the postcode rollup: {}", error.getMessage(), error);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = reconcileSchedule;
+        if (current != null) {
+            log.info("Stopping postcode rollup reconciliation");
+            current.dispose();
+            reconcileSchedule = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Disposable current = reconcileSchedule;
+        return current != null && !current.isDisposed();
+    }
+}
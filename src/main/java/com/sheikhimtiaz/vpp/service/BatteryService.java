@@ -1,14 +1,34 @@
 package com.sheikhimtiaz.vpp.service;
 
-import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
+import com.sheikhimtiaz.vpp.cache.CacheInvalidationStrategy;
+import com.sheikhimtiaz.vpp.cache.HeavyHitters;
+import com.sheikhimtiaz.vpp.cache.InFlightRequests;
+import com.sheikhimtiaz.vpp.cache.RecomputeLease;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.exception.GlobalWebFluxExceptionHandler.ValidationException;
 import com.sheikhimtiaz.vpp.exception.KafkaPublishException;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
+import com.sheikhimtiaz.vpp.model.BatteryBatchQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryCapacityDistribution;
+import com.sheikhimtiaz.vpp.model.BatteryCursor;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryRangeCriteria;
+import com.sheikhimtiaz.vpp.model.BatteryRangeQuery;
+import com.sheikhimtiaz.vpp.model.BatteryRangeStatistics;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.BatteryRegistrationResult;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.model.HotQuery;
 import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import com.sheikhimtiaz.vpp.util.CapacityBuckets;
+import com.sheikhimtiaz.vpp.util.Postcodes;
 import com.sheikhimtiaz.vpp.util.ReactiveContextUtils;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
-import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
@@ -18,11 +38,22 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.sheikhimtiaz.vpp.constant.AppConstants.BATTERY_TOPIC;
+import static com.sheikhimtiaz.vpp.constant.AppConstants.CACHE_KEY_BATTERY_AGGREGATES_FORMAT;
+import static com.sheikhimtiaz.vpp.constant.AppConstants.CACHE_KEY_BATTERY_CURSOR_QUERY_FORMAT;
 import static com.sheikhimtiaz.vpp.constant.AppConstants.CACHE_KEY_BATTERY_QUERY_FORMAT;
 
 @Slf4j
@@ -31,124 +62,554 @@ public class BatteryService {
 
     private final KafkaTemplate<String, BatteryDto> kafkaTemplate;
     private final BatteryRepository batteryRepository;
-    private final ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
+    private final BatteryQueryCache queryCache;
+    private final Validator validator;
+    private final VppProperties properties;
+    private final BatteryAggregateIndex aggregateIndex;
+    private final InFlightRequests inFlightRequests;
+    private final RecomputeLease recomputeLease;
+    private final HeavyHitters heavyHitters;
 
     public BatteryService(KafkaTemplate<String, BatteryDto> kafkaTemplate,
                           BatteryRepository batteryRepository,
-                          ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate) {
+                          BatteryQueryCache queryCache,
+                          Validator validator,
+                          VppProperties properties,
+                          BatteryAggregateIndex aggregateIndex,
+                          InFlightRequests inFlightRequests,
+                          RecomputeLease recomputeLease,
+                          HeavyHitters heavyHitters) {
         this.kafkaTemplate = kafkaTemplate;
         this.batteryRepository = batteryRepository;
-        this.redisTemplate = redisTemplate;
+        this.queryCache = queryCache;
+        this.validator = validator;
+        this.properties = properties;
+        this.aggregateIndex = aggregateIndex;
+        this.inFlightRequests = inFlightRequests;
+        this.recomputeLease = recomputeLease;
+        this.heavyHitters = heavyHitters;
     }
 
-    public Mono<String> registerBatteries(List<BatteryDto> batteries) {
+    public Mono<BatteryRegistrationResult> registerBatteries(List<BatteryDto> batteries) {
         log.info("Processing registration of {} batteries", batteries.size());
-        return Flux.fromIterable(batteries)
-                .doOnNext(batteryDto -> {
-                    log.debug("Sending battery to Kafka: {}", batteryDto);
-                    kafkaTemplate.send("battery-topic", batteryDto);
-                    log.debug("Battery sent to Kafka: {}", batteryDto.getName());
-//                    try {
-//                    } catch (Exception ex) {
-//                        log.error("Failed to send battery to Kafka: {}", batteryDto.getName(), ex);
-//                    }
-                })
-                .doOnComplete(() -> log.info("All {} batteries sent to Kafka", batteries.size()))
-                .doOnError(err -> Mono.just("Failed to register batteries."))
-                .then(Mono.just("Successfully registered " + batteries.size() + " batteries"));
+        return publish(Flux.fromIterable(batteries), new AtomicLong());
+    }
+
+    /**
+     * Publishes an NDJSON upload item by item. Demand on the request body is bounded by the
+     * number of sends awaiting acknowledgement, so heap use does not grow with the upload size.
+     * Items failing bean validation are skipped and reported instead of aborting the stream.
+     */
+    public Mono<BatteryRegistrationResult> registerBatteryStream(Flux<BatteryDto> batteries) {
+        return Mono.defer(() -> {
+            AtomicLong rejected = new AtomicLong();
+            return publish(batteries
+                    .filter(batteryDto -> {
+                        Set<ConstraintViolation<BatteryDto>> violations = validator.validate(batteryDto);
+                        if (violations.isEmpty()) {
+                            return true;
+                        }
+                        rejected.incrementAndGet();
+                        log.warn("Rejecting invalid battery {}: {}", batteryDto, violations.stream()
+                                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                                .collect(Collectors.joining(", ")));
+                        return false;
+                    }), rejected);
+        });
+    }
+
+    /**
+     * Sends every battery with at most {@code publish-concurrency} records awaiting a broker
+     * acknowledgement and tallies the outcome of each send future, so the result only counts
+     * records Kafka has actually accepted. Sends are issued in input order, which together with the
+     * idempotent producer keeps the per-partition order of each postcode's events.
+     */
+    private Mono<BatteryRegistrationResult> publish(Flux<BatteryDto> batteries, AtomicLong rejected) {
+        int concurrency = properties.getIngestion().getPublishConcurrency();
+
+        return Mono.defer(() -> {
+            AtomicLong acknowledged = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            long startTime = System.nanoTime();
+            return batteries
+                    .flatMap(batteryDto -> Mono.fromFuture(() -> kafkaTemplate.send(BATTERY_TOPIC, partitionKey(batteryDto), batteryDto))
+                            .doOnNext(sendResult -> acknowledged.incrementAndGet())
+                            .onErrorResume(error -> {
+                                failed.incrementAndGet();
+                                log.error("Failed to send battery to Kafka: {}", batteryDto.getName(), error);
+                                return Mono.empty();
+                            }), concurrency)
+                    .then(Mono.fromCallable(() -> {
+                        long durationMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+                        long ratePerSecond = acknowledged.get() * 1000 / Math.max(durationMillis, 1);
+                        log.info("Kafka acknowledged {} batteries, failed {}, rejected {} in {} ms ({} records/s)",
+                                acknowledged.get(), failed.get(), rejected.get(), durationMillis, ratePerSecond);
+                        return new BatteryRegistrationResult(
+                                acknowledged.get(),
+                                failed.get(),
+                                rejected.get(),
+                                durationMillis,
+                                registrationMessage(acknowledged.get(), failed.get(), rejected.get()));
+                    }));
+        });
+    }
+
+    /**
+     * Events with the same key land on the same partition, which keeps every postcode's events in order
+     */
+    private String partitionKey(BatteryDto batteryDto) {
+        String postcode = batteryDto.getPostcode();
+        VppProperties.Partitioning partitioning = properties.getKafka().getPartitioning();
+        if (postcode == null || partitioning.getKeyStrategy() == VppProperties.PartitionKeyStrategy.POSTCODE) {
+            return postcode;
+        }
+        return postcode.substring(0, Math.min(partitioning.getPostcodePrefixLength(), postcode.length()));
+    }
+
+    private static String registrationMessage(long acknowledged, long failed, long rejected) {
+        StringBuilder message = new StringBuilder("Successfully registered " + acknowledged + " batteries");
+        if (failed > 0) {
+            message.append(", failed to publish ").append(failed).append(" batteries");
+        }
+        if (rejected > 0) {
+            message.append(", rejected ").append(rejected).append(" invalid batteries");
+        }
+        return message.toString();
     }
 
     public Mono<BatteryQueryResponse> getBatteries(String from, String to,
                                                    Optional<Integer> min, Optional<Integer> max,
                                                    Optional<Integer> pageNUmber, Optional<Integer> size) {
+        return getBatteries(from, to, min, max, pageNUmber, size, Optional.empty());
+    }
+
+    /**
+     * With a cursor the page continues after the last battery of the previous page, so its cost does not
+     * grow with depth and rows ingested in the meantime do not shift it. Without one, {@code page} is
+     * resolved with OFFSET as before. The range aggregates and the page are cached as separate entries read
+     * in one MGET, so paging through a range computes and stores its aggregates only once.
+     */
+    public Mono<BatteryQueryResponse> getBatteries(String from, String to,
+                                                   Optional<Integer> min, Optional<Integer> max,
+                                                   Optional<Integer> pageNUmber, Optional<Integer> size,
+                                                   Optional<String> cursor) {
+        return getBatteries(from, to, min, max, pageNUmber, size, cursor, true);
+    }
+
+    /**
+     * Loads the aggregates and first page of {@code query} into the cache, unless they are there already.
+     * Not counted as a request of the query.
+     */
+    public Mono<Void> warm(HotQuery query) {
+        return getBatteries(query.postcodeFrom(), query.postcodeTo(),
+                Optional.ofNullable(query.minCapacity()), Optional.ofNullable(query.maxCapacity()),
+                Optional.of(0), Optional.of(query.size()), Optional.empty(), false)
+                .then();
+    }
+
+    private Mono<BatteryQueryResponse> getBatteries(String from, String to,
+                                                    Optional<Integer> min, Optional<Integer> max,
+                                                    Optional<Integer> pageNUmber, Optional<Integer> size,
+                                                    Optional<String> cursor, boolean track) {
         int pageNum = pageNUmber.orElse(0);
         int pageSize = size.orElse(50);
         Pageable pageable = PageRequest.of(pageNum, pageSize, Sort.by("name"));
 
-        log.info("Querying batteries: postcodeRange=[{} to {}], capacityRange=[{} to {}], page={}, size={}",
-                from, to, min.orElse(null), max.orElse(null), pageNum, pageSize);
+        int fromPostcode;
+        int toPostcode;
+        BatteryCursor after;
+        try {
+            fromPostcode = Postcodes.parse(from);
+            toPostcode = Postcodes.parse(to);
+            after = cursor.map(BatteryCursor::decode).orElse(null);
+        } catch (ValidationException e) {
+            return Mono.error(e);
+        }
+
+        log.info("Querying batteries: postcodeRange=[{} to {}], capacityRange=[{} to {}], page={}, size={}, cursor={}",
+                from, to, min.orElse(null), max.orElse(null), pageNum, pageSize, cursor.orElse(null));
 
-        String cacheKey = generateCacheKey(from, to, min, max, pageNum, pageSize);
+        boolean capacityFilter = min.isPresent() && max.isPresent();
+        Integer minCapacity = capacityFilter ? min.get() : null;
+        Integer maxCapacity = capacityFilter ? max.get() : null;
+        if (track) {
+            heavyHitters.record(new HotQuery(from, to, min.orElse(null), max.orElse(null), pageSize));
+        }
+        String aggregatesKey = generateAggregatesCacheKey(from, to, min, max);
+        String pageKey = after != null
+                ? generateCursorCacheKey(from, to, min, max, cursor.get(), pageSize)
+                : generateCacheKey(from, to, min, max, pageNum, pageSize);
+        VppProperties.EntryTtls ttls = properties.getCache().getTtl();
+        VppProperties.Ttl pageTtl = after != null ? ttls.getCursorPage() : ttls.getPage();
 
         Map<String, String> mdcContext = MDC.getCopyOfContextMap();
 
-        return redisTemplate.opsForValue().get(cacheKey)
-                .doOnSubscribe(s -> log.debug("Checking cache for key: {}", cacheKey))
-                .doOnNext(cached -> log.debug("Cache hit for key: {}", cacheKey))
-                .onErrorResume(e -> {
-                    log.error("Error retrieving from cache: {}", e.getMessage(), e);
-                    return Mono.empty();
+        return queryCache.resolveKeys(List.of(
+                        new CacheInvalidationStrategy.RangeKey(aggregatesKey, fromPostcode, toPostcode),
+                        new CacheInvalidationStrategy.RangeKey(pageKey, fromPostcode, toPostcode)))
+                .flatMap(cacheKeys -> {
+                    List<Supplier<Mono<BatteryQueryResponse>>> loads = List.of(
+                            () -> loadAggregates(fromPostcode, toPostcode, minCapacity, maxCapacity,
+                                    cacheKeys.get(0), ttls.getAggregates()),
+                            () -> loadNamePage(fromPostcode, toPostcode, minCapacity, maxCapacity, after, pageable,
+                                    cacheKeys.get(1), pageTtl));
+                    return queryCache.getAll(cacheKeys)
+                            .doOnSubscribe(s -> log.debug("Checking cache for keys: {}", cacheKeys))
+                            .flatMap(cached -> {
+                                refreshStale(cacheKeys, cached, loads, mdcContext);
+                                return Mono.zip(
+                                        cachedOrLoad(cacheKeys.get(0), cached.get(0), mdcContext, loads.get(0)),
+                                        cachedOrLoad(cacheKeys.get(1), cached.get(1), mdcContext, loads.get(1)),
+                                        BatteryService::assemble);
+                            });
+                });
+    }
+
+    /**
+     * Starts a background recompute of every hit past its soft TTL whose refresh this instance claims. The
+     * response is built from the cached values and never waits for it.
+     */
+    private void refreshStale(List<String> cacheKeys, List<BatteryQueryResponse> cached,
+                              List<Supplier<Mono<BatteryQueryResponse>>> loads, Map<String, String> mdcContext) {
+        Map<String, Supplier<Mono<BatteryQueryResponse>>> hits = new LinkedHashMap<>();
+        for (int i = 0; i < cacheKeys.size(); i++) {
+            if (cached.get(i) != null) {
+                hits.put(cacheKeys.get(i), loads.get(i));
+            }
+        }
+        if (hits.isEmpty()) {
+            return;
+        }
+        queryCache.claimStale(List.copyOf(hits.keySet()))
+                .flatMapMany(Flux::fromIterable)
+                .flatMap(cacheKey -> {
+                    log.debug("Refreshing stale cache key in the background: {}", cacheKey);
+                    Mono<BatteryQueryResponse> refreshed = inFlightRequests.join(cacheKey, hits.get(cacheKey));
+                    return mdcContext != null ? ReactiveContextUtils.withMdc(refreshed, mdcContext) : refreshed;
                 })
-                .switchIfEmpty(Mono.defer(() -> {
-                    log.debug("Cache miss for key: {}", cacheKey);
-                    Mono<BatteryQueryResponse> result = queryDatabaseAndCache(from, to, min, max, pageNum, pageSize, pageable, cacheKey);
-
-                    return mdcContext != null ? ReactiveContextUtils.withMdc(result, mdcContext) : result;
-                }));
-    }
-
-    public Mono<BatteryQueryResponse> queryDatabaseAndCache(String from, String to,
-                                                            Optional<Integer> min, Optional<Integer> max,
-                                                            int page, int size, Pageable pageable, String cacheKey) {
-        log.debug("Querying database for batteries");
-
-        Flux<Battery> batteriesFlux;
-        Mono<Long> countMono;
-        Mono<Double> sumMono;
-        Mono<Double> avgMono;
-
-        if (min.isPresent() && max.isPresent()) {
-            log.debug("Using capacity range filter: min={}, max={}", min.get(), max.get());
-            batteriesFlux = batteryRepository.findByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get(), pageable);
-            countMono = batteryRepository.countByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get());
-            sumMono = batteryRepository.sumCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get())
-                    .switchIfEmpty(Mono.just(0.0));
-            avgMono = batteryRepository.avgCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get())
-                    .switchIfEmpty(Mono.just(0.0));
-        } else {
-            log.debug("Using postcode range filter only");
-            batteriesFlux = batteryRepository.findByPostcodeBetween(from, to, pageable);
-            countMono = batteryRepository.countByPostcodeBetween(from, to);
-            sumMono = batteryRepository.sumCapacityByPostcodeBetween(from, to).switchIfEmpty(Mono.just(0.0));;
-            avgMono = batteryRepository.avgCapacityByPostcodeBetween(from, to).switchIfEmpty(Mono.just(0.0));;
+                .subscribe(null, error -> log.error("Background cache refresh failed: {}", error.getMessage(), error));
+    }
+
+    /**
+     * A missed entry is loaded once per key on this instance, so concurrent requests for different pages of a
+     * range share one computation of its aggregates
+     */
+    private Mono<BatteryQueryResponse> cachedOrLoad(String cacheKey, BatteryQueryResponse cached,
+                                                    Map<String, String> mdcContext,
+                                                    Supplier<Mono<BatteryQueryResponse>> load) {
+        if (cached != null) {
+            log.debug("Cache hit for key: {}", cacheKey);
+            return Mono.just(cached);
+        }
+        log.debug("Cache miss for key: {}", cacheKey);
+        Mono<BatteryQueryResponse> result = inFlightRequests.join(cacheKey, () -> recompute(cacheKey, load));
+        return mdcContext != null ? ReactiveContextUtils.withMdc(result, mdcContext) : result;
+    }
+
+    /**
+     * Runs the query for a missed key. Concurrent misses on this instance already share one call through
+     * {@link InFlightRequests}; with the lease enabled, instances that lose the lease wait for the holder's
+     * entry to appear in Redis and only query themselves if it does not show up in time.
+     */
+    private Mono<BatteryQueryResponse> recompute(String cacheKey, Supplier<Mono<BatteryQueryResponse>> query) {
+        if (!properties.getCache().getLease().isEnabled()) {
+            return query.get();
+        }
+        return recomputeLease.tryAcquire(cacheKey)
+                .flatMap(acquired -> {
+                    if (acquired) {
+                        return Mono.usingWhen(Mono.just(cacheKey), key -> query.get(), recomputeLease::release);
+                    }
+                    log.debug("Waiting for another instance to recompute key: {}", cacheKey);
+                    return recomputeLease.awaitHolder(queryCache.get(cacheKey))
+                            .switchIfEmpty(Mono.defer(query));
+                });
+    }
+
+    /**
+     * Answers many ranges at once. The aggregates and page entries of every query come from a single MGET,
+     * using the same keys as {@code GET /batteries} so both share entries; queries missing either are computed
+     * together in one statement and the missing entries written back. Results keep the order of {@code queries}.
+     */
+    public Mono<BatteryBatchQueryResponse> getBatteryBatch(List<BatteryRangeQuery> queries) {
+        int maxBatchQueries = properties.getQuery().getMaxBatchQueries();
+        if (queries.size() > maxBatchQueries) {
+            return Mono.error(new ValidationException(
+                    "A batch may contain at most " + maxBatchQueries + " queries, got " + queries.size()));
         }
 
-        Mono<List<String>> namesMono = batteriesFlux
-                .map(Battery::getName)
-                .collectList();
-
-        return Mono.zip(namesMono, sumMono, avgMono, countMono)
-                .map(tuple -> {
-                    List<String> names = tuple.getT1();
-                    Double totalCapacity = tuple.getT2() != null ? tuple.getT2() : 0.0;
-                    Double avgCapacity = tuple.getT3() != null ? tuple.getT3() : 0.0;
-                    long totalCount = tuple.getT4();
-
-                    log.debug("Query results: names.size={}, totalCapacity={}, avgCapacity={}, totalCount={}",
-                            names.size(), totalCapacity, avgCapacity, totalCount);
-
-                    return new BatteryQueryResponse(
-                            names,
-                            totalCapacity,
-                            avgCapacity,
-                            totalCount,
-                            page,
-                            size
-                    );
+        List<BatchEntry> unresolved;
+        try {
+            unresolved = queries.stream().map(BatteryService::toBatchEntry).toList();
+        } catch (ValidationException e) {
+            return Mono.error(e);
+        }
+        log.info("Querying batteries for a batch of {} ranges", unresolved.size());
+
+        // Each query looks up its aggregates entry followed by its page entry
+        return queryCache.resolveKeys(unresolved.stream()
+                        .flatMap(entry -> Stream.of(
+                                new CacheInvalidationStrategy.RangeKey(entry.aggregatesKey(), entry.from(), entry.to()),
+                                new CacheInvalidationStrategy.RangeKey(entry.pageKey(), entry.from(), entry.to())))
+                        .toList())
+                .flatMap(cacheKeys -> {
+                    List<BatchEntry> entries = new ArrayList<>(unresolved.size());
+                    for (int i = 0; i < unresolved.size(); i++) {
+                        entries.add(unresolved.get(i).withCacheKeys(cacheKeys.get(2 * i), cacheKeys.get(2 * i + 1)));
+                    }
+                    return getBatteryBatch(entries, cacheKeys);
+                });
+    }
+
+    private Mono<BatteryBatchQueryResponse> getBatteryBatch(List<BatchEntry> entries, List<String> cacheKeys) {
+        return queryCache.getAll(cacheKeys)
+                .flatMap(cached -> {
+                    Map<String, BatteryQueryResponse> found = new HashMap<>();
+                    for (int i = 0; i < cacheKeys.size(); i++) {
+                        if (cached.get(i) != null) {
+                            found.put(cacheKeys.get(i), cached.get(i));
+                        }
+                    }
+                    Map<String, BatchEntry> misses = new LinkedHashMap<>();
+                    for (BatchEntry entry : entries) {
+                        if (!found.containsKey(entry.aggregatesKey()) || !found.containsKey(entry.pageKey())) {
+                            misses.putIfAbsent(entry.pageKey(), entry);
+                        }
+                    }
+                    log.debug("Batch cache hits: {}, misses: {}", entries.size() - misses.size(), misses.size());
+                    refreshStale(entries, found);
+
+                    return queryDatabaseAndCache(List.copyOf(misses.values()), found)
+                            .map(computed -> {
+                                found.putAll(computed);
+                                return new BatteryBatchQueryResponse(entries.stream()
+                                        .map(entry -> assemble(found.get(entry.aggregatesKey()), found.get(entry.pageKey())))
+                                        .toList());
+                            });
+                });
+    }
+
+    /**
+     * Recomputes the queries with a hit past its soft TTL in the background, in one statement like misses.
+     * Only the claimed entries are rewritten; the response is built from the cached values.
+     */
+    private void refreshStale(List<BatchEntry> entries, Map<String, BatteryQueryResponse> found) {
+        if (found.isEmpty()) {
+            return;
+        }
+        queryCache.claimStale(List.copyOf(found.keySet()))
+                .filter(claimed -> !claimed.isEmpty())
+                .flatMap(claimed -> {
+                    Map<String, BatteryQueryResponse> fresh = new HashMap<>(found);
+                    fresh.keySet().removeAll(claimed);
+                    Map<String, BatchEntry> stale = new LinkedHashMap<>();
+                    for (BatchEntry entry : entries) {
+                        if (found.containsKey(entry.aggregatesKey()) && found.containsKey(entry.pageKey())
+                                && (claimed.contains(entry.aggregatesKey()) || claimed.contains(entry.pageKey()))) {
+                            stale.putIfAbsent(entry.pageKey(), entry);
+                        }
+                    }
+                    log.debug("Refreshing {} stale batch queries in the background", stale.size());
+                    return queryDatabaseAndCache(List.copyOf(stale.values()), fresh);
                 })
-                .flatMap(result -> {
-                    log.debug("Caching results with key: {}, expires in 10 minutes", cacheKey);
-                    return redisTemplate.opsForValue().set(cacheKey, result, Duration.ofMinutes(10))
-                            .doOnSuccess(success -> log.debug("Successfully cached results"))
-                            .doOnError(error -> log.error("Failed to cache results: {}", error.getMessage(), error))
-                            .thenReturn(result);
+                .subscribe(null, error -> log.error("Background cache refresh failed: {}", error.getMessage(), error));
+    }
+
+    /**
+     * Computes the missed queries in one statement and writes back only the entries that were missing; an
+     * aggregates entry shared by several queries is written once
+     */
+    private Mono<Map<String, BatteryQueryResponse>> queryDatabaseAndCache(List<BatchEntry> misses,
+                                                                          Map<String, BatteryQueryResponse> cached) {
+        if (misses.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+
+        List<BatteryRangeCriteria> criteria = misses.stream()
+                .map(entry -> new BatteryRangeCriteria(entry.from(), entry.to(), entry.min(), entry.max(), entry.pageable()))
+                .toList();
+
+        return batteryRepository.findRangeStatistics(criteria)
+                .flatMap(statistics -> {
+                    Map<String, BatteryQueryResponse> computed = new LinkedHashMap<>();
+                    Map<String, BatchEntry> owners = new HashMap<>();
+                    for (int i = 0; i < misses.size(); i++) {
+                        BatchEntry entry = misses.get(i);
+                        BatteryRangeStatistics rangeStatistics = statistics.get(i);
+                        if (!cached.containsKey(entry.aggregatesKey()) && !computed.containsKey(entry.aggregatesKey())) {
+                            computed.put(entry.aggregatesKey(), aggregatesEntry(new BatteryRangeSummary(
+                                    rangeStatistics.getTotalCount(),
+                                    rangeStatistics.getTotalCapacity(),
+                                    rangeStatistics.getAverageCapacity())));
+                            owners.put(entry.aggregatesKey(), entry);
+                        }
+                        if (!cached.containsKey(entry.pageKey())) {
+                            computed.put(entry.pageKey(), namePageEntry(rangeStatistics.getBatteryNames(),
+                                    rangeStatistics.getNextCursor(), entry.page(), entry.size()));
+                            owners.put(entry.pageKey(), entry);
+                        }
+                    }
+                    // The client pipelines these writes over its shared connection
+                    return Flux.fromIterable(computed.entrySet())
+                            .flatMap(computedEntry -> {
+                                BatchEntry owner = owners.get(computedEntry.getKey());
+                                VppProperties.EntryTtls ttls = properties.getCache().getTtl();
+                                VppProperties.Ttl ttl = computedEntry.getKey().equals(owner.aggregatesKey())
+                                        ? ttls.getAggregates() : ttls.getPage();
+                                return queryCache.put(computedEntry.getKey(), computedEntry.getValue(), owner.from(), owner.to(), ttl)
+                                        .doOnError(error -> log.error("Failed to cache results: {}", error.getMessage(), error))
+                                        .onErrorResume(error -> Mono.empty());
+                            })
+                            .then(Mono.just(computed));
                 });
     }
 
-    private String generateCacheKey(String from, String to, Optional<Integer> min, Optional<Integer> max, int page, int size) {
+    private static BatchEntry toBatchEntry(BatteryRangeQuery query) {
+        int page = Optional.ofNullable(query.getPage()).orElse(0);
+        int size = Optional.ofNullable(query.getSize()).orElse(50);
+        boolean capacityFilter = query.getMinCapacity() != null && query.getMaxCapacity() != null;
+        Optional<Integer> min = Optional.ofNullable(query.getMinCapacity());
+        Optional<Integer> max = Optional.ofNullable(query.getMaxCapacity());
+        return new BatchEntry(
+                Postcodes.parse(query.getPostcodeFrom()),
+                Postcodes.parse(query.getPostcodeTo()),
+                capacityFilter ? query.getMinCapacity() : null,
+                capacityFilter ? query.getMaxCapacity() : null,
+                page,
+                size,
+                PageRequest.of(page, size, Sort.by("name")),
+                generateAggregatesCacheKey(query.getPostcodeFrom(), query.getPostcodeTo(), min, max),
+                generateCacheKey(query.getPostcodeFrom(), query.getPostcodeTo(), min, max, page, size));
+    }
+
+    private record BatchEntry(int from, int to, Integer min, Integer max, int page, int size,
+                              Pageable pageable, String aggregatesKey, String pageKey) {
+
+        BatchEntry withCacheKeys(String resolvedAggregatesKey, String resolvedPageKey) {
+            return new BatchEntry(from, to, min, max, page, size, pageable, resolvedAggregatesKey, resolvedPageKey);
+        }
+    }
+
+    /**
+     * Streams every battery name of the range straight from the row stream; demand from the client is what
+     * pulls the next fetch from the database. Names are not cached.
+     */
+    public Flux<String> streamBatteryNames(String from, String to, Optional<Integer> min, Optional<Integer> max) {
+        boolean capacityFilter = min.isPresent() && max.isPresent();
+        log.info("Streaming battery names: postcodeRange=[{} to {}], capacityRange=[{} to {}]",
+                from, to, min.orElse(null), max.orElse(null));
+        return Flux.defer(() -> batteryRepository.streamNames(Postcodes.parse(from), Postcodes.parse(to),
+                capacityFilter ? min.get() : null,
+                capacityFilter ? max.get() : null,
+                properties.getQuery().getStreamFetchSize()));
+    }
+
+    public Mono<BatteryRangeSummary> getRangeSummary(String from, String to, Optional<Integer> min, Optional<Integer> max) {
+        boolean capacityFilter = min.isPresent() && max.isPresent();
+        Integer minCapacity = capacityFilter ? min.get() : null;
+        Integer maxCapacity = capacityFilter ? max.get() : null;
+        return Mono.defer(() -> summarize(Postcodes.parse(from), Postcodes.parse(to), minCapacity, maxCapacity));
+    }
+
+    /**
+     * Percentiles and histogram of capacity over the range, from the per-postcode histograms kept up to
+     * date on every insert. The capacity filter does not apply here; the distribution is the filter's input.
+     */
+    public Mono<BatteryCapacityDistribution> getCapacityDistribution(String from, String to) {
+        return Mono.defer(() -> batteryRepository.findCapacityHistogram(Postcodes.parse(from), Postcodes.parse(to))
+                .collectList()
+                .map(histogram -> new BatteryCapacityDistribution(
+                        histogram.stream().mapToLong(CapacityHistogramBucket::getBatteries).sum(),
+                        CapacityBuckets.quantile(histogram, 0.5),
+                        CapacityBuckets.quantile(histogram, 0.9),
+                        CapacityBuckets.quantile(histogram, 0.99),
+                        histogram)));
+    }
+
+    /**
+     * Aggregates of the range, from the in-process index when it can answer them and otherwise from the database
+     */
+    private Mono<BatteryRangeSummary> summarize(int from, int to, Integer minCapacity, Integer maxCapacity) {
+        return aggregateIndex.summarize(from, to, minCapacity, maxCapacity)
+                .map(summary -> {
+                    log.debug("Using aggregate index for range aggregates");
+                    return Mono.just(summary);
+                })
+                .orElseGet(() -> batteryRepository.findRangeSummary(from, to, minCapacity, maxCapacity));
+    }
+
+    private Mono<BatteryQueryResponse> loadAggregates(int from, int to, Integer minCapacity, Integer maxCapacity,
+                                                      String cacheKey, VppProperties.Ttl ttl) {
+        log.debug("Querying aggregates: capacityRange=[{} to {}]", minCapacity, maxCapacity);
+        return summarize(from, to, minCapacity, maxCapacity)
+                .map(BatteryService::aggregatesEntry)
+                .flatMap(entry -> cache(cacheKey, entry, from, to, ttl));
+    }
+
+    private Mono<BatteryQueryResponse> loadNamePage(int from, int to, Integer minCapacity, Integer maxCapacity,
+                                                    BatteryCursor after, Pageable pageable, String cacheKey,
+                                                    VppProperties.Ttl ttl) {
+        log.debug("Querying name page: capacityRange=[{} to {}], page={}, after={}",
+                minCapacity, maxCapacity, pageable.getPageNumber(), after);
+        return batteryRepository.findNamePage(from, to, minCapacity, maxCapacity, after, pageable)
+                .map(page -> namePageEntry(page.getBatteryNames(), page.getNextCursor(),
+                        pageable.getPageNumber(), pageable.getPageSize()))
+                .flatMap(entry -> cache(cacheKey, entry, from, to, ttl));
+    }
+
+    private Mono<BatteryQueryResponse> cache(String cacheKey, BatteryQueryResponse entry, int from, int to,
+                                             VppProperties.Ttl ttl) {
+        log.debug("Caching results with key: {}, stale after {}, expires in {}", cacheKey, ttl.getSoft(), ttl.getHard());
+        return queryCache.put(cacheKey, entry, from, to, ttl)
+                .doOnSuccess(success -> log.debug("Successfully cached results"))
+                .doOnError(error -> log.error("Failed to cache results: {}", error.getMessage(), error))
+                .onErrorResume(error -> Mono.empty())
+                .thenReturn(entry);
+    }
+
+    /**
+     * Aggregates entries are responses without a page; they are shared by every page of the range
+     */
+    private static BatteryQueryResponse aggregatesEntry(BatteryRangeSummary summary) {
+        return new BatteryQueryResponse(null, summary.getTotalWattCapacity(), summary.getAverageWattCapacity(),
+                summary.getTotalBatteries(), 0, 0);
+    }
+
+    /**
+     * Page entries carry the names, position and cursor of one page and no aggregates
+     */
+    private static BatteryQueryResponse namePageEntry(List<String> names, BatteryCursor nextCursor, int page, int size) {
+        return new BatteryQueryResponse(names, 0, 0, 0, page, size, nextCursor != null ? nextCursor.encode() : null);
+    }
+
+    private static BatteryQueryResponse assemble(BatteryQueryResponse aggregates, BatteryQueryResponse page) {
+        return new BatteryQueryResponse(
+                page.getBatteryNames(),
+                aggregates.getTotalWattCapacity(),
+                aggregates.getAverageWattCapacity(),
+                aggregates.getTotalBatteries(),
+                page.getPage(),
+                page.getSize(),
+                page.getNextCursor());
+    }
+
+    private static String generateAggregatesCacheKey(String from, String to, Optional<Integer> min, Optional<Integer> max) {
+        String key = String.format(CACHE_KEY_BATTERY_AGGREGATES_FORMAT, from, to, min.orElse(null), max.orElse(null));
+        log.trace("Generated cache key: {}", key);
+        return key;
+    }
+
+    private static String generateCacheKey(String from, String to, Optional<Integer> min, Optional<Integer> max, int page, int size) {
         String key = String.format(CACHE_KEY_BATTERY_QUERY_FORMAT,
                 from, to, min.orElse(null), max.orElse(null), page, size);
         log.trace("Generated cache key: {}", key);
         return key;
     }
+
+    private String generateCursorCacheKey(String from, String to, Optional<Integer> min, Optional<Integer> max, String cursor, int size) {
+        String key = String.format(CACHE_KEY_BATTERY_CURSOR_QUERY_FORMAT,
+                from, to, min.orElse(null), max.orElse(null), cursor, size);
+        log.trace("Generated cache key: {}", key);
+        return key;
+    }
 }
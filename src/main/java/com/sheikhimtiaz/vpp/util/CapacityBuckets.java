@@ -0,0 +1,54 @@
+package com.sheikhimtiaz.vpp.util;
+
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+
+import java.util.List;
+
+/**
+ * Bounds of the fixed log buckets kept in {@code battery_capacity_histogram}. Bucket 0 holds capacities up to 0;
+ * bucket {@code b >= 1} holds {@code [2^((b-1)/8), 2^(b/8))}. The database assigns rows to buckets, so only the
+ * bounds are needed here, to turn merged counts back into watts.
+ */
+public final class CapacityBuckets {
+
+    public static final int BUCKETS_PER_DOUBLING = 8;
+
+    private CapacityBuckets() {
+    }
+
+    /**
+     * Smallest capacity in the bucket
+     */
+    public static int lowerBound(int bucket) {
+        return bucket <= 0 ? 0 : (int) Math.ceil(Math.pow(2, (bucket - 1) / (double) BUCKETS_PER_DOUBLING));
+    }
+
+    /**
+     * Smallest capacity past the bucket
+     */
+    public static int upperBound(int bucket) {
+        return bucket <= 0 ? 1 : (int) Math.min(Math.ceil(Math.pow(2, bucket / (double) BUCKETS_PER_DOUBLING)), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Estimated capacity at quantile {@code q} of a histogram ordered by bucket, interpolating linearly within
+     * the bucket that holds the rank. 0 for an empty histogram, like the averages of an empty range.
+     */
+    public static double quantile(List<CapacityHistogramBucket> histogram, double q) {
+        long total = histogram.stream().mapToLong(CapacityHistogramBucket::getBatteries).sum();
+        if (total == 0) {
+            return 0;
+        }
+        double rank = q * total;
+        long below = 0;
+        for (CapacityHistogramBucket bucket : histogram) {
+            if (bucket.getBatteries() > 0 && below + bucket.getBatteries() >= rank) {
+                double fraction = (rank - below) / bucket.getBatteries();
+                return bucket.getLowerCapacity() + fraction * (bucket.getUpperCapacity() - bucket.getLowerCapacity());
+            }
+            below += bucket.getBatteries();
+        }
+        CapacityHistogramBucket last = histogram.get(histogram.size() - 1);
+        return last.getUpperCapacity();
+    }
+}
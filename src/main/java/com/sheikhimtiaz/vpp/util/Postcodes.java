@@ -0,0 +1,51 @@
+package com.sheikhimtiaz.vpp.util;
+
+import com.sheikhimtiaz.vpp.exception.GlobalWebFluxExceptionHandler.ValidationException;
+
+/**
+ * Postcodes are four-digit strings at the API and a SMALLINT everywhere below it. Conversion happens here,
+ * once per request or event, so the repository, index and cache invalidation compare plain numbers.
+ */
+public final class Postcodes {
+
+    public static final int MIN = 0;
+    public static final int MAX = 9999;
+
+    private Postcodes() {
+    }
+
+    /**
+     * Numeric value of a four-digit postcode, leading zeros included
+     *
+     * @throws ValidationException if the value is not exactly four digits
+     */
+    public static int parse(String postcode) {
+        if (postcode == null || postcode.length() != 4) {
+            throw new ValidationException("Postcode must be exactly 4 digits: " + postcode);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = postcode.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new ValidationException("Postcode must be exactly 4 digits: " + postcode);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * API form of a stored postcode, zero-padded back to four digits
+     */
+    public static String format(int postcode) {
+        if (postcode < MIN || postcode > MAX) {
+            throw new IllegalArgumentException("Postcode out of range: " + postcode);
+        }
+        char[] digits = new char[4];
+        for (int i = 3; i >= 0; i--) {
+            digits[i] = (char) ('0' + postcode % 10);
+            postcode /= 10;
+        }
+        return new String(digits);
+    }
+}
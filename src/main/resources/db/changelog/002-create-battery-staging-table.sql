@@ -0,0 +1,12 @@
+-- 002-create-battery-staging-table.sql
+-- Bulk loads are streamed here with COPY and merged into battery set-based.
+-- Rows only live for the duration of a load, so the table skips WAL.
+CREATE UNLOGGED TABLE IF NOT EXISTS battery_staging (
+    load_id UUID NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    postcode VARCHAR(20) NOT NULL,
+    capacity INT NOT NULL
+);
+
+-- Indexes
+CREATE INDEX idx_battery_staging_load_id ON battery_staging (load_id);
@@ -0,0 +1,47 @@
+--liquibase formatted sql
+
+--changeset vpp:009-create-rollup-reconcile-function splitStatements:false
+-- 009-create-rollup-reconcile-function.sql
+-- Rows written by instances that predate the rollup (during a rolling deploy, after the 004 and 008 backfills)
+-- never reach battery_postcode_rollup or battery_capacity_histogram. This recomputes both for a postcode range
+-- from battery and rewrites the rows that differ, returning how many were rewritten.
+-- The SHARE ROW EXCLUSIVE lock is held until the calling statement commits. A write that touches the rollup
+-- either committed before it, and is part of the recount, or waits and adds its delta to the recounted rows.
+CREATE OR REPLACE FUNCTION reconcile_battery_rollups(from_postcode INT, to_postcode INT) RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    rolled_up BIGINT;
+    histogram BIGINT;
+BEGIN
+    LOCK TABLE battery_postcode_rollup, battery_capacity_histogram IN SHARE ROW EXCLUSIVE MODE;
+
+    INSERT INTO battery_postcode_rollup AS r (postcode, battery_count, total_capacity, min_capacity, max_capacity)
+    SELECT postcode, COUNT(*), SUM(capacity), MIN(capacity), MAX(capacity)
+    FROM battery
+    WHERE postcode BETWEEN from_postcode AND to_postcode
+    GROUP BY postcode
+    ON CONFLICT (postcode) DO UPDATE SET
+        battery_count = EXCLUDED.battery_count,
+        total_capacity = EXCLUDED.total_capacity,
+        min_capacity = EXCLUDED.min_capacity,
+        max_capacity = EXCLUDED.max_capacity
+    WHERE (r.battery_count, r.total_capacity, r.min_capacity, r.max_capacity)
+          IS DISTINCT FROM (EXCLUDED.battery_count, EXCLUDED.total_capacity, EXCLUDED.min_capacity, EXCLUDED.max_capacity);
+    GET DIAGNOSTICS rolled_up = ROW_COUNT;
+
+    -- Same bucket expression as the 008 backfill and the insert path
+    INSERT INTO battery_capacity_histogram AS h (postcode, bucket, battery_count)
+    SELECT postcode,
+           CASE WHEN capacity <= 0 THEN 0 ELSE 1 + floor(log(2, capacity::numeric) * 8)::int END AS bucket,
+           COUNT(*)
+    FROM battery
+    WHERE postcode BETWEEN from_postcode AND to_postcode
+    GROUP BY postcode, bucket
+    ON CONFLICT (postcode, bucket) DO UPDATE SET
+        battery_count = EXCLUDED.battery_count
+    WHERE h.battery_count IS DISTINCT FROM EXCLUDED.battery_count;
+    GET DIAGNOSTICS histogram = ROW_COUNT;
+
+    RETURN rolled_up + histogram;
+END;
+$$;
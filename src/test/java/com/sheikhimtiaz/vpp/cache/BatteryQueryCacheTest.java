@@ -0,0 +1,260 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatteryQueryCacheTest {
+
+    private static final String KEY = "battery-stats::from=1000:to=4000:min=null:max=null:page=0:size=50";
+    private static final String AGGREGATES_KEY = "battery-stats::from=1000:to=4000:min=null:max=null:aggregates";
+    private static final VppProperties.Ttl TTL = new VppProperties.Ttl();
+    private static final String OTHER_KEY = "battery-stats::from=5000:to=6000:min=null:max=null:page=0:size=50";
+
+    @Mock
+    private ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, BatteryQueryResponse> valueOperations;
+
+    @Mock
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private CacheKeyIndex keyIndex;
+
+    @Mock
+    private ReactiveValueOperations<String, String> stringValueOperations;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BatteryQueryResponse response = new BatteryQueryResponse(List.of("Battery A"), 5000, 5000, 1, 0, 50);
+
+    private BatteryQueryCache queryCache;
+
+    @BeforeEach
+    void setUp() {
+        VppProperties properties = new VppProperties();
+        properties.getCache().getLocal().setEnabled(true);
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(keyIndex.register(anyString(), anyInt(), anyInt())).thenReturn(Mono.empty());
+        queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, keyIndex, properties, meterRegistry);
+    }
+
+    @Test
+    void get_shouldServeRepeatedReadsWithoutRedis() {
+        when(valueOperations.get(KEY)).thenReturn(Mono.just(response));
+
+        StepVerifier.create(queryCache.get(KEY)).expectNext(response).verifyComplete();
+        StepVerifier.create(queryCache.get(KEY)).expectNext(response).verifyComplete();
+
+        verify(valueOperations, times(1)).get(KEY);
+        assertEquals(1.0, count("l1", "hit"));
+        assertEquals(1.0, count("l1", "miss"));
+        assertEquals(1.0, count("l2", "hit"));
+    }
+
+    @Test
+    void getAll_shouldOnlyFetchLocalMissesFromRedis() {
+        when(valueOperations.set(KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(valueOperations.multiGet(List.of(OTHER_KEY))).thenReturn(Mono.just(Arrays.asList((BatteryQueryResponse) null)));
+
+        StepVerifier.create(queryCache.put(KEY, response, 1000, 4000, TTL)
+                        .then(queryCache.getAll(List.of(KEY, OTHER_KEY))))
+                .expectNext(Arrays.asList(response, null))
+                .verifyComplete();
+
+        assertEquals(1.0, count("l2", "miss"));
+    }
+
+    @Test
+    void put_whenTheStrategyUpdatesInPlace_shouldStoreTheValueTogetherWithItsRegistration() {
+        Jackson2JsonRedisSerializer<BatteryQueryResponse> serializer = new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class);
+        when(redisTemplate.getSerializationContext()).thenReturn(RedisSerializationContext
+                .<String, BatteryQueryResponse>newSerializationContext(new StringRedisSerializer())
+                .value(serializer)
+                .build());
+        when(keyIndex.updatesInPlace()).thenReturn(true);
+        when(keyIndex.store(eq(AGGREGATES_KEY), any(byte[].class), eq(TTL.getHard()), eq(1000), eq(4000)))
+                .thenReturn(Mono.just(Boolean.TRUE));
+
+        StepVerifier.create(queryCache.put(AGGREGATES_KEY, response, 1000, 4000, TTL))
+                .expectNext(true)
+                .verifyComplete();
+
+        verify(keyIndex).store(eq(AGGREGATES_KEY), aryEq(serializer.serialize(response)), eq(TTL.getHard()), eq(1000), eq(4000));
+        verify(keyIndex, never()).register(anyString(), anyInt(), anyInt());
+        verifyNoInteractions(valueOperations);
+    }
+
+    @Test
+    void evict_shouldDropLocalEntriesAndNotifyOtherInstances() {
+        when(valueOperations.set(KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(redisTemplate.delete(KEY, OTHER_KEY)).thenReturn(Mono.just(1L));
+        when(stringRedisTemplate.convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, KEY + "\n" + OTHER_KEY))
+                .thenReturn(Mono.just(1L));
+        when(valueOperations.get(KEY)).thenReturn(Mono.empty());
+
+        StepVerifier.create(queryCache.put(KEY, response, 1000, 4000, TTL)
+                        .then(queryCache.evict(List.of(KEY, OTHER_KEY))))
+                .expectNext(1L)
+                .verifyComplete();
+        StepVerifier.create(queryCache.get(KEY)).verifyComplete();
+
+        verify(stringRedisTemplate).convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, KEY + "\n" + OTHER_KEY);
+    }
+
+    @Test
+    void invalidate_shouldEvictTheKeysIndexedForThoseBatteries() {
+        List<Battery> batteries = List.of(new Battery("Battery A", 1500, 5000));
+        when(keyIndex.invalidate(batteries, 7L)).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.evicting(List.of(KEY))));
+        when(redisTemplate.delete(KEY)).thenReturn(Mono.just(1L));
+        when(stringRedisTemplate.convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, KEY)).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(queryCache.invalidate(batteries, 7L))
+                .expectNext(1L)
+                .verifyComplete();
+
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void invalidate_withUpdatedAggregates_shouldOnlyDropThemLocally() {
+        List<Battery> batteries = List.of(new Battery("Battery A", 1500, 5000));
+        when(valueOperations.set(AGGREGATES_KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(keyIndex.invalidate(batteries, 7L)).thenReturn(Mono.just(
+                new CacheInvalidationStrategy.Invalidation(List.of(KEY), List.of(AGGREGATES_KEY))));
+        when(redisTemplate.delete(KEY)).thenReturn(Mono.just(1L));
+        when(stringRedisTemplate.convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, KEY + "\n" + AGGREGATES_KEY))
+                .thenReturn(Mono.just(1L));
+        BatteryQueryResponse updated = new BatteryQueryResponse(null, 10000, 5000, 2, 0, 0);
+        when(valueOperations.get(AGGREGATES_KEY)).thenReturn(Mono.just(updated));
+
+        StepVerifier.create(queryCache.put(AGGREGATES_KEY, response, 1000, 4000, TTL)
+                        .then(queryCache.invalidate(batteries, 7L)))
+                .expectNext(2L)
+                .verifyComplete();
+        StepVerifier.create(queryCache.get(AGGREGATES_KEY)).expectNext(updated).verifyComplete();
+
+        verify(redisTemplate).delete(KEY);
+        verify(redisTemplate, never()).delete(AGGREGATES_KEY);
+    }
+
+    @Test
+    void invalidateAll_shouldEvictWhatTheStrategyFindsWithItsMarkersAndClearEveryLocalTier() {
+        VppProperties properties = new VppProperties();
+        properties.getCache().getLocal().setEnabled(true);
+        properties.getCache().getRefresh().setEnabled(true);
+        queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, keyIndex, properties, meterRegistry);
+        when(valueOperations.set(OTHER_KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringValueOperations);
+        when(stringValueOperations.set("battery-stats-fresh::" + OTHER_KEY, "1", TTL.getSoft())).thenReturn(Mono.just(Boolean.TRUE));
+        when(keyIndex.invalidateAll()).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.evicting(List.of(KEY))));
+        when(redisTemplate.delete(KEY)).thenReturn(Mono.just(1L));
+        when(stringRedisTemplate.delete("battery-stats-fresh::" + KEY)).thenReturn(Mono.just(1L));
+        when(stringRedisTemplate.convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, "*")).thenReturn(Mono.just(1L));
+        when(valueOperations.get(OTHER_KEY)).thenReturn(Mono.empty());
+
+        StepVerifier.create(queryCache.put(OTHER_KEY, response, 5000, 6000, TTL)
+                        .then(queryCache.invalidateAll()))
+                .expectNext(1L)
+                .verifyComplete();
+        StepVerifier.create(queryCache.get(OTHER_KEY)).verifyComplete();
+
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void invalidateAll_whenTheStrategyEvictsNothing_shouldOnlyClearLocalTiers() {
+        when(valueOperations.set(KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(keyIndex.invalidateAll()).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.NONE));
+        when(stringRedisTemplate.convertAndSend(BatteryQueryCache.INVALIDATION_CHANNEL, "*")).thenReturn(Mono.just(1L));
+        when(valueOperations.get(KEY)).thenReturn(Mono.empty());
+
+        StepVerifier.create(queryCache.put(KEY, response, 1000, 4000, TTL)
+                        .then(queryCache.invalidateAll()))
+                .expectNext(0L)
+                .verifyComplete();
+        StepVerifier.create(queryCache.get(KEY)).verifyComplete();
+
+        verify(redisTemplate, never()).delete(any(String[].class));
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void onInvalidation_shouldDropEntriesEvictedByAnotherInstance() {
+        when(valueOperations.set(anyString(), eq(response), eq(TTL.getHard()))).thenReturn(Mono.just(Boolean.TRUE));
+        when(valueOperations.get(KEY)).thenReturn(Mono.empty());
+
+        queryCache.put(KEY, response, 1000, 4000, TTL).then(queryCache.put(OTHER_KEY, response, 5000, 6000, TTL)).block();
+        queryCache.onInvalidation(KEY);
+
+        StepVerifier.create(queryCache.get(KEY)).verifyComplete();
+        StepVerifier.create(queryCache.get(OTHER_KEY)).expectNext(response).verifyComplete();
+
+        queryCache.onInvalidation("*");
+        when(valueOperations.get(OTHER_KEY)).thenReturn(Mono.empty());
+        StepVerifier.create(queryCache.get(OTHER_KEY)).verifyComplete();
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void claimStale_shouldOnlyAskRedisAboutKeysNotKnownToBeFresh() {
+        VppProperties properties = new VppProperties();
+        properties.getCache().getRefresh().setEnabled(true);
+        queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, keyIndex, properties, meterRegistry);
+        when(valueOperations.set(KEY, response, TTL.getHard())).thenReturn(Mono.just(Boolean.TRUE));
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringValueOperations);
+        when(stringValueOperations.set("battery-stats-fresh::" + KEY, "1", TTL.getSoft())).thenReturn(Mono.just(Boolean.TRUE));
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(0L, 60_000L)));
+
+        StepVerifier.create(queryCache.put(KEY, response, 1000, 4000, TTL)
+                        .then(queryCache.claimStale(List.of(KEY, AGGREGATES_KEY, OTHER_KEY))))
+                .expectNext(List.of(AGGREGATES_KEY))
+                .verifyComplete();
+        // Claimed and fresh keys are now known locally, so nothing is left to ask about
+        StepVerifier.create(queryCache.claimStale(List.of(KEY, AGGREGATES_KEY, OTHER_KEY)))
+                .expectNext(List.of())
+                .verifyComplete();
+
+        verify(stringRedisTemplate, times(1)).execute(any(RedisScript.class),
+                eq(List.of("battery-stats-fresh::" + AGGREGATES_KEY, "battery-stats-fresh::" + OTHER_KEY)),
+                eq(List.of("30000")));
+    }
+
+    @Test
+    void claimStale_withRefreshDisabled_shouldClaimNothing() {
+        StepVerifier.create(queryCache.claimStale(List.of(KEY))).expectNext(List.of()).verifyComplete();
+
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    private double count(String tier, String result) {
+        return meterRegistry.get("vpp.cache.gets").tag("tier", tier).tag("result", result).counter().count();
+    }
+}
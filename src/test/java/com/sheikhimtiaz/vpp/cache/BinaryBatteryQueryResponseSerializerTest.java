@@ -0,0 +1,68 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryBatteryQueryResponseSerializerTest {
+
+    private final BinaryBatteryQueryResponseSerializer serializer = new BinaryBatteryQueryResponseSerializer(true, 256, 3);
+
+    @Test
+    void serialize_shouldRoundTripAPageWithCursor() {
+        BatteryQueryResponse page = new BatteryQueryResponse(List.of("Battery A", "Bätterie B", ""), 0, 0, 0, 2, 50,
+                "eyJuIjoiQmF0dGVyeSBCIn0");
+
+        byte[] bytes = serializer.serialize(page);
+
+        assertEquals(BinaryBatteryQueryResponseSerializer.VERSION, bytes[0]);
+        assertEquals(page, serializer.deserialize(bytes));
+    }
+
+    @Test
+    void serialize_shouldRoundTripAggregatesWithoutNames() {
+        BatteryQueryResponse aggregates = new BatteryQueryResponse(null, 123_456_789, 4115.2263, 30_000, 0, 0);
+
+        BatteryQueryResponse decoded = serializer.deserialize(serializer.serialize(aggregates));
+
+        assertEquals(aggregates, decoded);
+        assertNull(decoded.getBatteryNames());
+    }
+
+    @Test
+    void serialize_shouldCompressLargeValuesAndStayFarSmallerThanJson() {
+        List<String> names = IntStream.range(0, 1000).mapToObj(i -> "Battery " + i).toList();
+        BatteryQueryResponse page = new BatteryQueryResponse(names, 0, 0, 0, 0, 1000);
+
+        byte[] bytes = serializer.serialize(page);
+        byte[] json = new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class).serialize(page);
+
+        assertEquals(1, bytes[1] & 1);
+        assertTrue(bytes.length < json.length / 2, bytes.length + " bytes vs " + json.length + " as JSON");
+        assertEquals(page, serializer.deserialize(bytes));
+    }
+
+    @Test
+    void deserialize_shouldStillReadJsonEntries() {
+        BatteryQueryResponse aggregates = new BatteryQueryResponse(null, 10000, 5000, 2, 0, 0);
+        byte[] json = new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class).serialize(aggregates);
+
+        assertEquals(aggregates, serializer.deserialize(json));
+    }
+
+    @Test
+    void deserialize_shouldRejectUnknownVersionsAndTruncatedValues() {
+        byte[] bytes = serializer.serialize(new BatteryQueryResponse(List.of("Battery A"), 0, 0, 0, 0, 50));
+
+        assertThrows(SerializationException.class, () -> serializer.deserialize(new byte[]{2, 0}));
+        assertThrows(SerializationException.class,
+                () -> serializer.deserialize(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+}
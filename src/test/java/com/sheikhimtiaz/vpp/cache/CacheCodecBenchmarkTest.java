@@ -0,0 +1,73 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Payload size and encode/decode time of the cached response codecs: the JSON serializer against the binary
+ * codec with and without zstd, for an aggregates entry and name pages of growing size. Numbers are only
+ * logged. Excluded from {@code test}; run with {@code ./gradlew benchmark}, and
+ * {@code -Dvpp.benchmark.iterations=...} to change the number of timed round trips.
+ */
+@Slf4j
+@Tag("benchmark")
+public class CacheCodecBenchmarkTest {
+
+    private static final int ITERATIONS = Integer.getInteger("vpp.benchmark.iterations", 20_000);
+    private static final int WARMUP_ITERATIONS = ITERATIONS / 4;
+
+    @Test
+    void compareCodecs() {
+        Map<String, RedisSerializer<BatteryQueryResponse>> codecs = new LinkedHashMap<>();
+        codecs.put("json", new Jackson2JsonRedisSerializer<>(BatteryQueryResponse.class));
+        codecs.put("binary", new BinaryBatteryQueryResponseSerializer());
+        codecs.put("binary+zstd", new BinaryBatteryQueryResponseSerializer(true, 1024, 3));
+
+        Map<String, BatteryQueryResponse> values = new LinkedHashMap<>();
+        values.put("aggregates", new BatteryQueryResponse(null, 123_456_789, 4115.2263, 30_000, 0, 0));
+        for (int size : new int[]{50, 500, 5000}) {
+            values.put("page of " + size, namePage(size));
+        }
+
+        values.forEach((shape, value) -> codecs.forEach((name, codec) -> {
+            byte[] bytes = codec.serialize(value);
+            assertEquals(value, codec.deserialize(bytes));
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                codec.deserialize(codec.serialize(value));
+            }
+
+            long encodeNanos = 0;
+            long decodeNanos = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                byte[] encoded = codec.serialize(value);
+                long encodedAt = System.nanoTime();
+                codec.deserialize(encoded);
+                encodeNanos += encodedAt - start;
+                decodeNanos += System.nanoTime() - encodedAt;
+            }
+            log.info("{} / {}: {} bytes, encode {} ns, decode {} ns", shape, name, bytes.length,
+                    encodeNanos / ITERATIONS, decodeNanos / ITERATIONS);
+        }));
+    }
+
+    // Page entries carry no aggregates, just names sorted the way the query returns them, and a cursor
+    private static BatteryQueryResponse namePage(int size) {
+        List<String> names = IntStream.range(0, size)
+                .mapToObj(i -> String.format("Battery %08x", i * 2654435761L & 0xFFFFFFFFL))
+                .sorted()
+                .toList();
+        return new BatteryQueryResponse(names, 0, 0, 0, 0, size, "eyJuIjoiQmF0dGVyeSBmZmZmIn0");
+    }
+}
@@ -0,0 +1,88 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CacheGenerationsTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> valueOperations;
+
+    private CacheGenerations generations;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        generations = new CacheGenerations(redisTemplate, new VppProperties());
+    }
+
+    @Test
+    void resolve_shouldVersionEachKeyBySumOfItsBucketGenerationsFromOneMultiGet() {
+        when(valueOperations.multiGet(List.of(
+                "battery-stats-generation::bucket=59",
+                "battery-stats-generation::bucket=60",
+                "battery-stats-generation::bucket=70")))
+                .thenReturn(Mono.just(Arrays.asList("3", null, "5")));
+
+        StepVerifier.create(generations.resolve(List.of(
+                        new CacheInvalidationStrategy.RangeKey("wide", 5999, 6000),
+                        new CacheInvalidationStrategy.RangeKey("narrow", 6000, 6099),
+                        new CacheInvalidationStrategy.RangeKey("other", 7000, 7000))))
+                .expectNext(List.of("wide:gen=3", "narrow:gen=0", "other:gen=5"))
+                .verifyComplete();
+
+        verify(valueOperations, times(1)).multiGet(anyList());
+    }
+
+    @Test
+    void invalidate_shouldIncrementEachAffectedBucketOnceAndDeleteNothing() {
+        when(valueOperations.increment(anyString())).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(generations.invalidate(List.of(
+                        new Battery("Battery A", 6000, 5000),
+                        new Battery("Battery B", 6050, 7000),
+                        new Battery("Battery C", 7000, 9000)), 0L))
+                .expectNext(CacheInvalidationStrategy.Invalidation.NONE)
+                .verifyComplete();
+
+        verify(valueOperations).increment("battery-stats-generation::bucket=60");
+        verify(valueOperations).increment("battery-stats-generation::bucket=70");
+        verifyNoMoreInteractions(valueOperations);
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void invalidateAll_shouldIncrementEveryBucketAndDeleteNothing() {
+        when(valueOperations.increment(anyString())).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(generations.invalidateAll())
+                .expectNext(CacheInvalidationStrategy.Invalidation.NONE)
+                .verifyComplete();
+
+        verify(valueOperations, times(100)).increment(startsWith("battery-stats-generation::bucket="));
+        verify(valueOperations).increment("battery-stats-generation::bucket=0");
+        verify(valueOperations).increment("battery-stats-generation::bucket=99");
+        verifyNoMoreInteractions(valueOperations);
+        verify(redisTemplate, never()).keys(anyString());
+        verify(redisTemplate, never()).delete(any(String[].class));
+    }
+}
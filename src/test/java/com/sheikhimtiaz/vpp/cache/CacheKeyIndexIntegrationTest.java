@@ -0,0 +1,89 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+class CacheKeyIndexIntegrationTest {
+
+    private static final String AGGREGATES = "{\"totalBatteries\":1,\"totalWattCapacity\":5000.0,\"averageWattCapacity\":5000.0}";
+    private static final String BEFORE_INSERT = "battery-stats::from=1000:to=4000:min=null:max=null:aggregates";
+    private static final String AFTER_INSERT = "battery-stats::from=1000:to=3000:min=null:max=null:aggregates";
+
+    @Container
+    static GenericContainer<?> redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveStringRedisTemplate redisTemplate;
+    private CacheKeyIndex cacheKeyIndex;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getFirstMappedPort()));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        redisTemplate.execute(connection -> connection.serverCommands().flushAll()).blockLast();
+
+        VppProperties properties = new VppProperties();
+        properties.getCache().getInvalidation().setAggregateDeltas(true);
+        cacheKeyIndex = new CacheKeyIndex(redisTemplate, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void invalidate_shouldEvictAggregatesLoadedAfterTheWatermarkInsteadOfCountingTheBatteriesTwice() {
+        cache(BEFORE_INSERT, 1000, 4000);
+        long watermark = cacheKeyIndex.watermark().block();
+        // Loaded while the batch was being inserted, so it may already count the new battery
+        cache(AFTER_INSERT, 1000, 3000);
+
+        StepVerifier.create(cacheKeyIndex.invalidate(List.of(new Battery("Battery B", 2000, 7000)), watermark))
+                .expectNext(new CacheInvalidationStrategy.Invalidation(List.of(AFTER_INSERT), List.of(BEFORE_INSERT)))
+                .verifyComplete();
+
+        String patched = redisTemplate.opsForValue().get(BEFORE_INSERT).block();
+        assertNotNull(patched);
+        assertTrue(patched.contains("\"totalBatteries\":2"), patched);
+    }
+
+    @Test
+    void invalidate_shouldEvictAnEntryOverwrittenAfterTheWatermark() {
+        byte[] before = AGGREGATES.getBytes(StandardCharsets.UTF_8);
+        byte[] after = "{\"totalBatteries\":2,\"totalWattCapacity\":12000.0,\"averageWattCapacity\":6000.0}"
+                .getBytes(StandardCharsets.UTF_8);
+        cacheKeyIndex.store(BEFORE_INSERT, before, Duration.ofMinutes(10), 1000, 4000).block();
+        long watermark = cacheKeyIndex.watermark().block();
+        // A refresh that already counts the new battery overwrites the entry before the delta is applied
+        cacheKeyIndex.store(BEFORE_INSERT, after, Duration.ofMinutes(10), 1000, 4000).block();
+
+        StepVerifier.create(cacheKeyIndex.invalidate(List.of(new Battery("Battery B", 2000, 7000)), watermark))
+                .expectNext(CacheInvalidationStrategy.Invalidation.evicting(List.of(BEFORE_INSERT)))
+                .verifyComplete();
+    }
+
+    private void cache(String key, int from, int to) {
+        redisTemplate.opsForValue().set(key, AGGREGATES).block();
+        cacheKeyIndex.register(key, from, to).block();
+    }
+}
@@ -0,0 +1,144 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CacheKeyIndexTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    private final VppProperties properties = new VppProperties();
+
+    private CacheKeyIndex cacheKeyIndex;
+
+    @BeforeEach
+    void setUp() {
+        cacheKeyIndex = new CacheKeyIndex(redisTemplate, properties);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void register_shouldAddTheKeyToEachBucketInOneScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(2L));
+
+        StepVerifier.create(cacheKeyIndex.register("key", 5999, 6000)).verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("battery-stats-registrations::sequence",
+                        "battery-stats-registrations::bucket=59", "battery-stats-registrations::bucket=60")),
+                eq(List.of("key", String.valueOf(Duration.ofMinutes(10).toMillis()))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void store_shouldSetTheValueAndRegisterItInOneScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList(), any(), any())).thenReturn(Flux.just(3L));
+
+        StepVerifier.create(cacheKeyIndex.store("key", new byte[]{1, 2}, Duration.ofMinutes(5), 5999, 6000))
+                .expectNext(true)
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("key", "battery-stats-registrations::sequence",
+                        "battery-stats-registrations::bucket=59", "battery-stats-registrations::bucket=60")),
+                argThat(args -> args.size() == 3 && Arrays.equals((byte[]) args.get(0), new byte[]{1, 2})),
+                any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidate_shouldReadEachBucketOnceAndDropDuplicateKeys() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("wide", "narrow", "wide")));
+
+        StepVerifier.create(cacheKeyIndex.invalidate(List.of(battery(6000, 5000), battery(6050, 7000), battery(7000, 9000)), 0L))
+                .expectNext(CacheInvalidationStrategy.Invalidation.evicting(List.of("wide", "narrow")))
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("battery-stats-registrations::bucket=60", "battery-stats-registrations::bucket=70")), eq(List.of()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidateAll_shouldDrainEveryBucketInOneScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("wide", "narrow", "wide")));
+
+        StepVerifier.create(cacheKeyIndex.invalidateAll())
+                .expectNext(CacheInvalidationStrategy.Invalidation.evicting(List.of("wide", "narrow")))
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                argThat(buckets -> buckets.size() == 100 && buckets.get(99).equals("battery-stats-registrations::bucket=99")),
+                eq(List.of()));
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidate_withAggregateDeltas_shouldPassEachBatteryToTheScriptAndSplitTheResult() {
+        properties.getCache().getInvalidation().setAggregateDeltas(true);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(List.of("page"), List.of("aggregates"))));
+
+        StepVerifier.create(cacheKeyIndex.invalidate(List.of(battery(6000, 5000), battery(6050, 7000)), 12L))
+                .expectNext(new CacheInvalidationStrategy.Invalidation(List.of("page"), List.of("aggregates")))
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("battery-stats-registrations::bucket=60")), eq(List.of("12", "6000", "5000", "6050", "7000")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void watermark_shouldReadTheRegistrationSequence() {
+        properties.getCache().getInvalidation().setAggregateDeltas(true);
+        ReactiveValueOperations<String, String> valueOperations = mock(ReactiveValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("battery-stats-registrations::sequence")).thenReturn(Mono.just("42"));
+
+        StepVerifier.create(cacheKeyIndex.watermark()).expectNext(42L).verifyComplete();
+    }
+
+    @Test
+    void watermark_withoutAggregateDeltas_shouldNotTouchRedis() {
+        StepVerifier.create(cacheKeyIndex.watermark()).expectNext(0L).verifyComplete();
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void invalidate_withoutBatteries_shouldNotTouchRedis() {
+        StepVerifier.create(cacheKeyIndex.invalidate(List.of(), 0L))
+                .expectNext(CacheInvalidationStrategy.Invalidation.NONE)
+                .verifyComplete();
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    private static Battery battery(int postcode, int capacity) {
+        return new Battery("Battery " + postcode, postcode, capacity);
+    }
+}
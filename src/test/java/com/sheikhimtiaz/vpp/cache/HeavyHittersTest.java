@@ -0,0 +1,74 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.HeavyHitter;
+import com.sheikhimtiaz.vpp.model.HotQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeavyHittersTest {
+
+    private static final HotQuery HOT = new HotQuery("1000", "4000", null, null, 50);
+    private static final HotQuery WARM = new HotQuery("2000", "2999", 1000, 5000, 50);
+
+    private final VppProperties properties = new VppProperties();
+
+    private HeavyHitters heavyHitters;
+
+    @BeforeEach
+    void setUp() {
+        properties.getCache().getWarming().setEnabled(true);
+        properties.getCache().getWarming().setTopK(2);
+        heavyHitters = new HeavyHitters(properties);
+    }
+
+    @Test
+    void top_shouldKeepTheMostRequestedQueriesInOrder() {
+        for (int i = 0; i < 50; i++) {
+            heavyHitters.record(HOT);
+        }
+        for (int i = 0; i < 20; i++) {
+            heavyHitters.record(WARM);
+        }
+        // A long tail of one-off queries must not push the heavy hitters out
+        for (int i = 0; i < 1000; i++) {
+            heavyHitters.record(new HotQuery(String.format("%04d", i), "9999", null, null, 50));
+        }
+
+        List<HeavyHitter> top = heavyHitters.top();
+
+        assertEquals(List.of(HOT, WARM), top.stream().map(HeavyHitter::query).toList());
+        assertTrue(top.get(0).estimatedCount() >= 50);
+        assertTrue(top.get(1).estimatedCount() >= 20);
+    }
+
+    @Test
+    void decay_shouldHalveEstimatesAndDropQueriesThatFadedOut() {
+        heavyHitters.add(HOT, 8);
+        heavyHitters.record(WARM);
+
+        heavyHitters.decay();
+
+        assertEquals(List.of(new HeavyHitter(HOT, 4)), heavyHitters.top());
+    }
+
+    @Test
+    void record_whenDisabled_shouldTrackNothing() {
+        properties.getCache().getWarming().setEnabled(false);
+
+        heavyHitters.record(HOT);
+
+        assertTrue(heavyHitters.top().isEmpty());
+    }
+
+    @Test
+    void hotQuery_shouldRoundTripThroughItsPersistedForm() {
+        assertEquals(HOT, HotQuery.decode(HOT.encode()));
+        assertEquals(WARM, HotQuery.decode(WARM.encode()));
+        assertThrows(IllegalArgumentException.class, () -> HotQuery.decode("1000:4000"));
+    }
+}
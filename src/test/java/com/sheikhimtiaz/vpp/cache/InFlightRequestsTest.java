@@ -0,0 +1,58 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightRequestsTest {
+
+    private final InFlightRequests inFlightRequests = new InFlightRequests();
+
+    @Test
+    void join_shouldShareOneLoadBetweenConcurrentCallers() {
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.One<String> result = Sinks.one();
+
+        Mono<String> first = inFlightRequests.join("key", () -> {
+            loads.incrementAndGet();
+            return result.asMono();
+        });
+        Mono<String> second = inFlightRequests.join("key", () -> {
+            loads.incrementAndGet();
+            return Mono.just("unexpected");
+        });
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> {
+                    assertEquals(1, inFlightRequests.size());
+                    result.tryEmitValue("value");
+                })
+                .expectNextMatches(both -> both.getT1().equals("value") && both.getT2().equals("value"))
+                .verifyComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(0, inFlightRequests.size());
+    }
+
+    @Test
+    void join_shouldLoadAgainOnceThePreviousLoadTerminated() {
+        AtomicInteger loads = new AtomicInteger();
+
+        StepVerifier.create(inFlightRequests.join("key", () -> Mono.error(new IllegalStateException("down"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+        StepVerifier.create(inFlightRequests.join("key", () -> Mono.fromCallable(loads::incrementAndGet)))
+                .expectNext(1)
+                .verifyComplete();
+        StepVerifier.create(inFlightRequests.join("other", () -> Mono.fromCallable(loads::incrementAndGet)))
+                .expectNext(2)
+                .verifyComplete();
+
+        assertEquals(0, inFlightRequests.size());
+    }
+}
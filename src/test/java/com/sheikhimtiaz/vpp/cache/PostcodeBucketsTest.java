@@ -0,0 +1,35 @@
+package com.sheikhimtiaz.vpp.cache;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostcodeBucketsTest {
+
+    private final VppProperties properties = new VppProperties();
+    private final PostcodeBuckets buckets = new PostcodeBuckets("bucket=", properties);
+
+    @Test
+    void keys_shouldCoverEveryBucketTheRangeOverlaps() {
+        assertEquals(List.of("bucket=60"), buckets.keys(6000, 6099));
+        assertEquals(List.of("bucket=59", "bucket=60", "bucket=61"), buckets.keys(5999, 6100));
+        assertEquals(100, buckets.keys(0, 9999).size());
+        assertEquals(buckets.keys(0, 9999), buckets.all());
+        assertTrue(buckets.keys(4000, 1000).isEmpty());
+    }
+
+    @Test
+    void keysOf_shouldNameEachBucketOfTheBatteriesOnceInOrder() {
+        properties.getCache().getIndex().setBucketWidth(1000);
+
+        assertEquals(List.of("bucket=6", "bucket=7"), buckets.keysOf(List.of(
+                new Battery("Battery A", 7000, 9000),
+                new Battery("Battery B", 6000, 5000),
+                new Battery("Battery C", 6999, 7000))));
+        assertEquals(10, buckets.all().size());
+    }
+}
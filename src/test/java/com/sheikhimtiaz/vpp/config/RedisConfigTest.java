@@ -0,0 +1,31 @@
+package com.sheikhimtiaz.vpp.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RedisConfigTest {
+
+    private final ReactiveRedisConnectionFactory factory = mock(ReactiveRedisConnectionFactory.class);
+
+    @Test
+    void reactiveRedisTemplate_shouldRejectAggregateDeltasWithTheBinaryCodec() {
+        VppProperties properties = new VppProperties();
+        properties.getCache().getCodec().setFormat(VppProperties.CacheCodecFormat.BINARY);
+        properties.getCache().getInvalidation().setAggregateDeltas(true);
+
+        assertThrows(IllegalStateException.class, () -> new RedisConfig().reactiveRedisTemplate(factory, properties));
+    }
+
+    @Test
+    void reactiveRedisTemplate_shouldAllowTheBinaryCodecWhereNothingIsPatched() {
+        VppProperties properties = new VppProperties();
+        properties.getCache().getCodec().setFormat(VppProperties.CacheCodecFormat.BINARY);
+        properties.getCache().getInvalidation().setAggregateDeltas(true);
+        properties.getCache().getInvalidation().setStrategy(VppProperties.CacheInvalidationMode.GENERATION);
+
+        assertNotNull(new RedisConfig().reactiveRedisTemplate(factory, properties));
+    }
+}
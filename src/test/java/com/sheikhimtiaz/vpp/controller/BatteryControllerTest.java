@@ -1,7 +1,16 @@
 package com.sheikhimtiaz.vpp.controller;
 
+import com.sheikhimtiaz.vpp.model.BatteryBatchQueryRequest;
+import com.sheikhimtiaz.vpp.model.BatteryBatchQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryCapacityDistribution;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryRangeQuery;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.BatteryRegistrationResult;
+import com.sheikhimtiaz.vpp.model.BulkLoadResult;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.service.BatteryBulkLoadService;
 import com.sheikhimtiaz.vpp.service.BatteryService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,10 +22,14 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.util.Arrays;
 import java.util.List;
@@ -39,6 +52,9 @@ public class BatteryControllerTest {
     @Autowired
     private BatteryService batteryService;
 
+    @Autowired
+    private BatteryBulkLoadService batteryBulkLoadService;
+
     private List<BatteryDto> testBatteries;
     private BatteryQueryResponse testResponse;
     private int pageNumber;
@@ -51,11 +67,16 @@ public class BatteryControllerTest {
         public BatteryService batteryService() {
             return Mockito.mock(BatteryService.class);
         }
+
+        @Bean
+        public BatteryBulkLoadService batteryBulkLoadService() {
+            return Mockito.mock(BatteryBulkLoadService.class);
+        }
     }
 
     @BeforeEach
     public void setup() {
-        Mockito.reset(batteryService);
+        Mockito.reset(batteryService, batteryBulkLoadService);
         pageNumber = 0;
         pageSize = 50;
         pageable = PageRequest.of(pageNumber, pageSize, Sort.by("name"));
@@ -73,7 +94,7 @@ public class BatteryControllerTest {
         );
 
         when(batteryService.registerBatteries(anyList())).thenReturn(Mono.empty());
-        when(batteryService.getBatteries(any(), any(), any(), any(), any(), any()))
+        when(batteryService.getBatteries(any(), any(), any(), any(), any(), any(), any()))
                 .thenReturn(Mono.just(testResponse));
     }
 
@@ -89,6 +110,100 @@ public class BatteryControllerTest {
         verify(batteryService, times(1)).registerBatteries(testBatteries);
     }
 
+    @Test
+    public void testRegisterBatteryStream() {
+        when(batteryService.registerBatteryStream(any()))
+                .thenAnswer(invocation -> invocation.<Flux<BatteryDto>>getArgument(0)
+                        .count()
+                        .map(count -> new BatteryRegistrationResult(count, 0, 0, 5,
+                                "Successfully registered " + count + " batteries")));
+
+        webTestClient.post()
+                .uri("/batteries")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"name\":\"Battery1\",\"postcode\":\"1234\",\"capacity\":100}\n"
+                        + "{\"name\":\"Battery2\",\"postcode\":\"2345\",\"capacity\":200}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BatteryRegistrationResult.class)
+                .isEqualTo(new BatteryRegistrationResult(2, 0, 0, 5, "Successfully registered 2 batteries"));
+
+        verify(batteryService, times(1)).registerBatteryStream(any());
+    }
+
+    @Test
+    public void testRegisterBatteriesWithFailedSends() {
+        when(batteryService.registerBatteries(anyList()))
+                .thenReturn(Mono.just(new BatteryRegistrationResult(1, 1, 0, 5,
+                        "Successfully registered 1 batteries, failed to publish 1 batteries")));
+
+        webTestClient.post()
+                .uri("/batteries")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(testBatteries)
+                .exchange()
+                .expectStatus().isEqualTo(207)
+                .expectBody()
+                .jsonPath("$.acknowledged").isEqualTo(1)
+                .jsonPath("$.failed").isEqualTo(1);
+    }
+
+    @Test
+    public void testBulkLoad() {
+        BulkLoadResult result = new BulkLoadResult("load-1", 2, 2, 0, 10, 200);
+        when(batteryBulkLoadService.load(any())).thenReturn(Mono.just(result));
+
+        webTestClient.post()
+                .uri("/batteries/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"name\":\"Battery1\",\"postcode\":\"1234\",\"capacity\":100}\n"
+                        + "{\"name\":\"Battery2\",\"postcode\":\"2345\",\"capacity\":200}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BulkLoadResult.class)
+                .isEqualTo(result);
+
+        verify(batteryBulkLoadService, times(1)).load(any());
+    }
+
+    @Test
+    public void testQueryBatch() {
+        List<BatteryRangeQuery> queries = List.of(
+                new BatteryRangeQuery("1000", "2000", null, null),
+                new BatteryRangeQuery("3000", "4000", 50, 300));
+        when(batteryService.getBatteryBatch(queries))
+                .thenReturn(Mono.just(new BatteryBatchQueryResponse(List.of(testResponse, testResponse))));
+
+        webTestClient.post()
+                .uri("/batteries/query")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new BatteryBatchQueryRequest(queries))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BatteryBatchQueryResponse.class)
+                .isEqualTo(new BatteryBatchQueryResponse(List.of(testResponse, testResponse)));
+
+        verify(batteryService, times(1)).getBatteryBatch(queries);
+    }
+
+    @Test
+    public void testCapacityDistribution() {
+        BatteryCapacityDistribution distribution = new BatteryCapacityDistribution(4, 150.0, 190.0, 199.0,
+                List.of(new CapacityHistogramBucket(128, 140, 1), new CapacityHistogramBucket(140, 153, 3)));
+        when(batteryService.getCapacityDistribution("1000", "2000")).thenReturn(Mono.just(distribution));
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/batteries/distribution")
+                        .queryParam("postcodeFrom", "1000")
+                        .queryParam("postcodeTo", "2000")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BatteryCapacityDistribution.class)
+                .isEqualTo(distribution);
+    }
+
     @Test
     public void testQueryBatteries() {
         String from = "10000";
@@ -98,7 +213,7 @@ public class BatteryControllerTest {
         int page = 0;
         int size = 50;
 
-        when(batteryService.getBatteries(eq(from), eq(to), eq(Optional.of(min)), eq(Optional.of(max)), eq(Optional.of(pageNumber)), eq(Optional.of(pageSize))))
+        when(batteryService.getBatteries(eq(from), eq(to), eq(Optional.of(min)), eq(Optional.of(max)), eq(Optional.of(pageNumber)), eq(Optional.of(pageSize)), eq(Optional.empty())))
                 .thenReturn(Mono.just(testResponse));
 
         webTestClient.get()
@@ -117,7 +232,7 @@ public class BatteryControllerTest {
                 .isEqualTo(testResponse);
 
         verify(batteryService, times(1))
-                .getBatteries(from, to, Optional.of(min), Optional.of(max), Optional.of(pageNumber), Optional.of(pageSize));
+                .getBatteries(from, to, Optional.of(min), Optional.of(max), Optional.of(pageNumber), Optional.of(pageSize), Optional.empty());
     }
 
     @Test
@@ -127,7 +242,7 @@ public class BatteryControllerTest {
 
         when(batteryService.getBatteries(eq(from), eq(to),
                 eq(Optional.empty()), eq(Optional.empty()),
-                eq(Optional.of(pageNumber)), eq(Optional.of(pageSize))))
+                eq(Optional.of(pageNumber)), eq(Optional.of(pageSize)), eq(Optional.empty())))
                 .thenReturn(Mono.just(testResponse));
 
         webTestClient.get()
@@ -142,7 +257,7 @@ public class BatteryControllerTest {
                 .isEqualTo(testResponse);
 
         verify(batteryService, times(1))
-                .getBatteries(from, to, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+                .getBatteries(from, to, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
     }
 
     @Test
@@ -152,7 +267,7 @@ public class BatteryControllerTest {
         int min = 50;
 
         when(batteryService.getBatteries(eq(from), eq(to), eq(Optional.of(min)), eq(Optional.empty()),
-                eq(Optional.of(pageNumber)), eq(Optional.of(pageSize))))
+                eq(Optional.of(pageNumber)), eq(Optional.of(pageSize)), eq(Optional.empty())))
                 .thenReturn(Mono.just(testResponse));
 
         webTestClient.get()
@@ -168,7 +283,7 @@ public class BatteryControllerTest {
                 .isEqualTo(testResponse);
 
         verify(batteryService, times(1))
-                .getBatteries(from, to, Optional.of(min), Optional.empty(), Optional.empty(), Optional.empty());
+                .getBatteries(from, to, Optional.of(min), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
     }
 
     @Test
@@ -178,7 +293,7 @@ public class BatteryControllerTest {
         int max = 300;
 
         when(batteryService.getBatteries(eq(from), eq(to), eq(Optional.empty()), eq(Optional.of(max)),
-                eq(Optional.empty()), eq(Optional.empty())))
+                eq(Optional.empty()), eq(Optional.empty()), eq(Optional.empty())))
                 .thenReturn(Mono.just(testResponse));
 
         webTestClient.get()
@@ -194,6 +309,63 @@ public class BatteryControllerTest {
                 .isEqualTo(testResponse);
 
         verify(batteryService, times(1))
-                .getBatteries(from, to, Optional.empty(), Optional.of(max), Optional.empty(), Optional.empty());
+                .getBatteries(from, to, Optional.empty(), Optional.of(max), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    @Test
+    public void testQueryBatteriesWithCursor() {
+        String from = "10000";
+        String to = "20000";
+        String cursor = "Y3Vyc29y";
+        BatteryQueryResponse nextPage = new BatteryQueryResponse(
+                List.of("Battery3"), 150.0, 300.0, 3, 0, 50, "bmV4dA");
+
+        when(batteryService.getBatteries(eq(from), eq(to), eq(Optional.empty()), eq(Optional.empty()),
+                eq(Optional.empty()), eq(Optional.empty()), eq(Optional.of(cursor))))
+                .thenReturn(Mono.just(nextPage));
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/batteries")
+                        .queryParam("postcodeFrom", from)
+                        .queryParam("postcodeTo", to)
+                        .queryParam("cursor", cursor)
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BatteryQueryResponse.class)
+                .isEqualTo(nextPage);
+
+        verify(batteryService, times(1))
+                .getBatteries(from, to, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(cursor));
+    }
+
+    @Test
+    public void testQueryBatteriesStream() {
+        String from = "10000";
+        String to = "20000";
+
+        when(batteryService.streamBatteryNames(from, to, Optional.empty(), Optional.empty()))
+                .thenReturn(Flux.just("Battery1", "Battery2"));
+        when(batteryService.getRangeSummary(from, to, Optional.empty(), Optional.empty()))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 300.0, 150.0)));
+
+        Flux<ServerSentEvent<String>> events = webTestClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/batteries/stream")
+                        .queryParam("postcodeFrom", from)
+                        .queryParam("postcodeTo", to)
+                        .build())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectNextMatches(event -> "name".equals(event.event()) && "Battery1".equals(event.data()))
+                .expectNextMatches(event -> "name".equals(event.event()) && "Battery2".equals(event.data()))
+                .expectNextMatches(event -> "summary".equals(event.event()) && event.data().contains("\"totalBatteries\":2"))
+                .verifyComplete();
     }
 }
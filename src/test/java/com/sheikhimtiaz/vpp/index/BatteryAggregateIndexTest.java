@@ -0,0 +1,180 @@
+package com.sheikhimtiaz.vpp.index;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.PostcodeCapacityBucket;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+public class BatteryAggregateIndexTest {
+
+    @Mock
+    private BatteryRepository batteryRepository;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    private VppProperties properties;
+    private BatteryAggregateIndex aggregateIndex;
+
+    @BeforeEach
+    void setUp() {
+        properties = new VppProperties();
+        properties.getAggregateIndex().setEnabled(true);
+        properties.getAggregateIndex().setCapacityBucketWidth(1000);
+        properties.getAggregateIndex().setCapacityBuckets(16);
+        lenient().when(redisTemplate.convertAndSend(eq(BatteryAggregateIndex.DELTA_CHANNEL), anyString()))
+                .thenReturn(Mono.just(1L));
+        aggregateIndex = new BatteryAggregateIndex(batteryRepository, redisTemplate, properties);
+    }
+
+    @Test
+    void summarize_shouldAnswerPostcodeAndAlignedCapacityRangesFromTheTree() {
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16)).thenReturn(Flux.just(
+                new PostcodeCapacityBucket(1000, 5, 2, 11000),
+                new PostcodeCapacityBucket(2000, 7, 1, 7500),
+                new PostcodeCapacityBucket(3000, 10, 1, 10000),
+                new PostcodeCapacityBucket(9999, 15, 1, 90000)));
+
+        StepVerifier.create(aggregateIndex.rebuild())
+                .expectNext(4L)
+                .verifyComplete();
+
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 4, 28500);
+        assertSummary(aggregateIndex.summarize(2000, 9999, 7000, 10999), 2, 17500);
+        assertSummary(aggregateIndex.summarize(0, 9999, 15000, Integer.MAX_VALUE), 1, 90000);
+        assertSummary(aggregateIndex.summarize(4000, 8000, null, null), 0, 0);
+    }
+
+    @Test
+    void summarize_shouldFallBackWhenTheQueryCannotBeAnsweredExactly() {
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16)).thenReturn(Flux.empty());
+        aggregateIndex.rebuild().block();
+
+        assertTrue(aggregateIndex.summarize(1000, 3000, 7500, 10999).isEmpty());
+        assertTrue(aggregateIndex.summarize(1000, 3000, 7000, 10500).isEmpty());
+        assertTrue(aggregateIndex.summarize(1000, 3000, 7000, 20999).isEmpty());
+        assertTrue(aggregateIndex.summarize(10000, 20000, null, null).isEmpty());
+    }
+
+    @Test
+    void summarize_shouldBeEmptyUntilBuiltAndIncludeIngestedBatteriesAfterwards() {
+        assertTrue(aggregateIndex.summarize(1000, 3000, null, null).isEmpty());
+
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16)).thenReturn(Flux.empty());
+        aggregateIndex.rebuild().block();
+        aggregateIndex.addAll(List.of(
+                new Battery("Battery A", 1500, 4000),
+                new Battery("Battery B", 2500, 6000)));
+
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 2, 10000);
+        assertSummary(aggregateIndex.summarize(1000, 3000, 5000, 6999), 1, 6000);
+    }
+
+    @Test
+    void rebuild_shouldFallBackAndIgnoreIngestedBatteriesUntilTheFreshTreeIsSwappedIn() {
+        Sinks.Many<PostcodeCapacityBucket> cells = Sinks.many().unicast().onBackpressureBuffer();
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16))
+                .thenReturn(Flux.just(new PostcodeCapacityBucket(1000, 5, 1, 5000)), cells.asFlux());
+        aggregateIndex.rebuild().block();
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 1, 5000);
+
+        StepVerifier.create(aggregateIndex.rebuild())
+                .then(() -> {
+                    assertTrue(aggregateIndex.summarize(1000, 3000, null, null).isEmpty());
+                    // Already committed, so the running read may or may not include it
+                    aggregateIndex.addAll(List.of(new Battery("Battery B", 2000, 7500)));
+                    cells.tryEmitNext(new PostcodeCapacityBucket(1000, 5, 1, 5000));
+                    cells.tryEmitNext(new PostcodeCapacityBucket(2000, 7, 1, 7500));
+                    assertTrue(aggregateIndex.summarize(1000, 3000, null, null).isEmpty());
+                    cells.tryEmitComplete();
+                })
+                .expectNext(2L)
+                .verifyComplete();
+
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 2, 12500);
+    }
+
+    @Test
+    void addAll_shouldPublishTheBatteriesForOtherInstancesAndIgnoreItsOwnMessages() {
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16)).thenReturn(Flux.empty());
+        aggregateIndex.rebuild().block();
+        ArgumentCaptor<String> published = ArgumentCaptor.forClass(String.class);
+
+        aggregateIndex.addAll(List.of(new Battery("Battery A", 1500, 4000)));
+        verify(redisTemplate).convertAndSend(eq(BatteryAggregateIndex.DELTA_CHANNEL), published.capture());
+        aggregateIndex.onMessage(published.getValue());
+        aggregateIndex.onMessage("other-instance\n2500:6000\n2600:7000");
+
+        assertTrue(published.getValue().endsWith("\n1500:4000"));
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 3, 17000);
+    }
+
+    @Test
+    void onMessage_withARebuildRequest_shouldRebuildFromTheTable() {
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16))
+                .thenReturn(Flux.empty(), Flux.just(new PostcodeCapacityBucket(2000, 7, 3, 22500)));
+        aggregateIndex.rebuild().block();
+
+        aggregateIndex.onMessage("other-instance\n*");
+
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 3, 22500);
+    }
+
+    @Test
+    void reconcile_shouldOnlyRebuildWhenTheRollupDisagreesTwiceInARow() {
+        when(batteryRepository.aggregateByPostcodeAndCapacityBucket(1000, 16))
+                .thenReturn(Flux.just(new PostcodeCapacityBucket(1000, 5, 1, 5000)),
+                        Flux.just(new PostcodeCapacityBucket(1000, 5, 1, 5000), new PostcodeCapacityBucket(2000, 7, 1, 7500)));
+        when(batteryRepository.findRangeSummary(0, 9999, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(1, 5000, 5000)),
+                        Mono.just(new BatteryRangeSummary(2, 12500, 6250)));
+
+        StepVerifier.create(aggregateIndex.reconcile()).expectNext(1L).verifyComplete();
+        StepVerifier.create(aggregateIndex.reconcile()).verifyComplete();
+        StepVerifier.create(aggregateIndex.reconcile()).verifyComplete();
+        StepVerifier.create(aggregateIndex.reconcile()).expectNext(2L).verifyComplete();
+
+        assertSummary(aggregateIndex.summarize(1000, 3000, null, null), 2, 12500);
+        verify(batteryRepository, times(2)).aggregateByPostcodeAndCapacityBucket(1000, 16);
+    }
+
+    @Test
+    void summarize_whenDisabled_shouldNeverAnswer() {
+        properties.getAggregateIndex().setEnabled(false);
+
+        StepVerifier.create(aggregateIndex.rebuild())
+                .verifyComplete();
+
+        assertTrue(aggregateIndex.summarize(1000, 3000, null, null).isEmpty());
+        verifyNoInteractions(batteryRepository);
+    }
+
+    private static void assertSummary(Optional<BatteryRangeSummary> summary, long count, double totalCapacity) {
+        assertTrue(summary.isPresent());
+        assertEquals(count, summary.get().getTotalBatteries());
+        assertEquals(totalCapacity, summary.get().getTotalWattCapacity());
+        assertEquals(count == 0 ? 0 : totalCapacity / count, summary.get().getAverageWattCapacity());
+    }
+}
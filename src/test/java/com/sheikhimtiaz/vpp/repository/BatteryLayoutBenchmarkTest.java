@@ -0,0 +1,166 @@
+package com.sheikhimtiaz.vpp.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Before/after comparison of the battery row layout: the original VARCHAR postcode table, recreated here as
+ * {@code battery_varchar_layout}, against the compact SMALLINT table the migrations now produce. Both get the
+ * same rows and the same indexes, then table size, index size, row width and range query latency are logged
+ * side by side. Excluded from {@code test}; run with {@code ./gradlew benchmark}, and
+ * {@code -Dvpp.benchmark.rows=...} to change the fleet size.
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest
+@Testcontainers
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BatteryLayoutBenchmarkTest {
+
+    private static final int ROWS = Integer.getInteger("vpp.benchmark.rows", 1_000_000);
+    private static final int QUERY_RUNS = 15;
+
+    private static final String CREATE_VARCHAR_LAYOUT_SQL = """
+            CREATE TABLE battery_varchar_layout (
+                id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+                name VARCHAR(255) NOT NULL,
+                postcode VARCHAR(20) NOT NULL,
+                capacity INT NOT NULL
+            )
+            """;
+
+    private static final String[] VARCHAR_LAYOUT_INDEXES = {
+            "CREATE INDEX ON battery_varchar_layout (name, id)",
+            "CREATE INDEX ON battery_varchar_layout (postcode, capacity) INCLUDE (name, id)",
+            "CREATE INDEX ON battery_varchar_layout (postcode, name, id)"
+    };
+
+    private static final String SEED_SQL = """
+            INSERT INTO %s (name, postcode, capacity)
+            SELECT 'Battery ' || md5(g::text), %s, (g * 104729) %% 100000
+            FROM generate_series(1, %d) AS g
+            """;
+
+    private static final String RANGE_AGGREGATE_SQL = """
+            SELECT COUNT(*), SUM(capacity) FROM %s
+            WHERE postcode BETWEEN %s AND %s AND capacity BETWEEN 10000 AND 59999
+            """;
+
+    private static final String RANGE_PAGE_SQL = """
+            SELECT name FROM %s WHERE postcode BETWEEN %s AND %s ORDER BY name, id LIMIT 50
+            """;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:14-alpine")
+            .withDatabaseName("vppdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @DynamicPropertySource
+    static void registerPostgresProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.r2dbc.url", () ->
+                String.format("r2dbc:postgresql://%s:%d/%s",
+                        postgres.getHost(),
+                        postgres.getFirstMappedPort(),
+                        postgres.getDatabaseName()));
+        registry.add("spring.r2dbc.username", postgres::getUsername);
+        registry.add("spring.r2dbc.password", postgres::getPassword);
+        registry.add("spring.liquibase.url", postgres::getJdbcUrl);
+        registry.add("spring.liquibase.user", postgres::getUsername);
+        registry.add("spring.liquibase.password", postgres::getPassword);
+    }
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @BeforeAll
+    public void seedBothLayouts() {
+        execute("DELETE FROM battery");
+        // The test schema adds a unique constraint and a name index; drop them so both tables carry the same indexes
+        execute("ALTER TABLE battery DROP CONSTRAINT IF EXISTS uq_battery_name_postcode");
+        execute("DROP INDEX IF EXISTS idx_battery_name");
+        execute(CREATE_VARCHAR_LAYOUT_SQL);
+        // Identical rows in both tables; only the postcode representation differs
+        execute(SEED_SQL.formatted("battery_varchar_layout", "lpad(((g * 7919) % 10000)::text, 4, '0')", ROWS));
+        execute(SEED_SQL.formatted("battery", "(g * 7919) % 10000", ROWS));
+        for (String index : VARCHAR_LAYOUT_INDEXES) {
+            execute(index);
+        }
+        execute("VACUUM ANALYZE battery_varchar_layout");
+        execute("VACUUM ANALYZE battery");
+    }
+
+    @Test
+    void compactLayout_shouldBeSmallerAndNoSlowerThanTheVarcharLayout() {
+        LayoutStats before = measure("battery_varchar_layout", "'6000'", "'6999'");
+        LayoutStats after = measure("battery", "6000", "6999");
+
+        log.info("Battery layout benchmark over {} rows", ROWS);
+        log.info("{}", String.format("%-24s %14s %14s", "", "varchar", "smallint"));
+        log.info("{}", String.format("%-24s %14d %14d", "table bytes", before.tableBytes(), after.tableBytes()));
+        log.info("{}", String.format("%-24s %14d %14d", "index bytes", before.indexBytes(), after.indexBytes()));
+        log.info("{}", String.format("%-24s %14.1f %14.1f", "avg row bytes", before.rowBytes(), after.rowBytes()));
+        log.info("{}", String.format("%-24s %14.2f %14.2f", "range aggregate ms (p50)", before.aggregateMillis(), after.aggregateMillis()));
+        log.info("{}", String.format("%-24s %14.2f %14.2f", "range page ms (p50)", before.pageMillis(), after.pageMillis()));
+
+        assertTrue(after.rowBytes() < before.rowBytes(), "compact rows should be narrower");
+        assertTrue(after.tableBytes() <= before.tableBytes(), "compact table should not be larger");
+        assertTrue(after.indexBytes() < before.indexBytes(), "postcode indexes should shrink");
+    }
+
+    private LayoutStats measure(String table, String from, String to) {
+        long tableBytes = scalar("SELECT pg_table_size('" + table + "')");
+        long indexBytes = scalar("SELECT pg_indexes_size('" + table + "')");
+        double rowBytes = databaseClient.sql("SELECT AVG(pg_column_size(t.*))::float8 FROM " + table + " t")
+                .map((row, metadata) -> row.get(0, Double.class))
+                .one()
+                .block();
+        double aggregateMillis = medianMillis(RANGE_AGGREGATE_SQL.formatted(table, from, to));
+        double pageMillis = medianMillis(RANGE_PAGE_SQL.formatted(table, from, to));
+        return new LayoutStats(tableBytes, indexBytes, rowBytes, aggregateMillis, pageMillis);
+    }
+
+    // The first runs warm the buffer cache for both layouts alike; the median ignores them and outliers
+    private double medianMillis(String sql) {
+        double[] millis = new double[QUERY_RUNS];
+        for (int i = 0; i < QUERY_RUNS; i++) {
+            long started = System.nanoTime();
+            databaseClient.sql(sql).fetch().all().then().block();
+            millis[i] = (System.nanoTime() - started) / 1_000_000.0;
+        }
+        Arrays.sort(millis);
+        return millis[QUERY_RUNS / 2];
+    }
+
+    private long scalar(String sql) {
+        return databaseClient.sql(sql)
+                .map((row, metadata) -> row.get(0, Long.class))
+                .one()
+                .block();
+    }
+
+    private void execute(String sql) {
+        databaseClient.sql(sql).then().block();
+    }
+
+    private record LayoutStats(long tableBytes, long indexBytes, double rowBytes,
+                               double aggregateMillis, double pageMillis) {
+    }
+}
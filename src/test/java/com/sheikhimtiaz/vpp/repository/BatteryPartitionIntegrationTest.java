@@ -0,0 +1,165 @@
+package com.sheikhimtiaz.vpp.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryPartition;
+import io.r2dbc.postgresql.codec.Json;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the migrations with the {@code partitioned} context, so {@code battery} is split by leading postcode digit
+ */
+@SpringBootTest
+@Testcontainers
+@ActiveProfiles("test")
+public class BatteryPartitionIntegrationTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:14-alpine")
+            .withDatabaseName("vppdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @DynamicPropertySource
+    static void registerPostgresProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.r2dbc.url", () ->
+                String.format("r2dbc:postgresql://%s:%d/%s",
+                        postgres.getHost(),
+                        postgres.getFirstMappedPort(),
+                        postgres.getDatabaseName()));
+        registry.add("spring.r2dbc.username", postgres::getUsername);
+        registry.add("spring.r2dbc.password", postgres::getPassword);
+        registry.add("spring.liquibase.url", postgres::getJdbcUrl);
+        registry.add("spring.liquibase.user", postgres::getUsername);
+        registry.add("spring.liquibase.password", postgres::getPassword);
+        registry.add("spring.liquibase.contexts", () -> "test,partitioned");
+    }
+
+    @Autowired
+    private BatteryRepository batteryRepository;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    public void setup() {
+        batteryRepository.deleteAll()
+                .then(databaseClient.sql("DELETE FROM battery_postcode_rollup").then())
+                .then(databaseClient.sql("DELETE FROM battery_capacity_histogram").then())
+                .then(batteryRepository.insertAll(List.of(
+                        new Battery("Battery A", 1000, 5000),
+                        new Battery("Battery B", 6000, 7500),
+                        new Battery("Battery C", 6050, 10000),
+                        new Battery("Battery D", 9999, 12500))))
+                .block();
+    }
+
+    @Test
+    public void testFindPartitions() {
+        StepVerifier.create(batteryRepository.findPartitions().collectList())
+                .expectNextMatches(partitions -> partitions.size() == 10 &&
+                        partitions.get(0).equals(new BatteryPartition("battery_p0", 0, 1000)) &&
+                        partitions.get(6).equals(new BatteryPartition("battery_p6", 6000, 7000)) &&
+                        partitions.get(9).equals(new BatteryPartition("battery_p9", 9000, 10000)))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testRangeQueriesArePrunedToOverlappingPartitions() throws Exception {
+        String namePage = BatteryRepositoryCustomImpl.namePageSql(6000, 6099, 5000, 15000, false);
+        Set<String> scanned = scannedRelations(databaseClient.sql("EXPLAIN (ANALYZE, FORMAT JSON) " + namePage)
+                .bind("from", 6000).bind("to", 6099).bind("min", 5000).bind("max", 15000)
+                .bind("limit", 51).bind("offset", 0L));
+        assertEquals(Set.of("battery_p6"), scanned);
+
+        Set<String> straddling = scannedRelations(databaseClient.sql("EXPLAIN (ANALYZE, FORMAT JSON) " +
+                        BatteryRepositoryCustomImpl.aggregatesSql(5500, 6500, 5000, 15000))
+                .bind("from", 5500).bind("to", 6500).bind("min", 5000).bind("max", 15000));
+        assertEquals(Set.of("battery_p5", "battery_p6"), straddling);
+
+        StepVerifier.create(batteryRepository.findNamePage(6000, 6099, 5000, 15000, null, PageRequest.of(0, 50)))
+                .expectNextMatches(page -> page.getBatteryNames().equals(List.of("Battery B", "Battery C")))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testBulkLoadWithinOnePartitionMergesIntoIt() {
+        UUID loadId = UUID.randomUUID();
+        StepVerifier.create(batteryRepository.copyIntoStaging(loadId, Flux.just(
+                                new Battery("Battery E", 6100, 20000),
+                                new Battery("Battery F", 6999, 22500)), 100)
+                        .then(batteryRepository.findPartitionOfStagedLoad(loadId)))
+                .expectNext(new BatteryPartition("battery_p6", 6000, 7000))
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.mergeStaging(loadId, new BatteryPartition("battery_p6", 6000, 7000))
+                        .flatMap(merged -> batteryRepository.analyze(new BatteryPartition("battery_p6", 6000, 7000))
+                                .thenReturn(merged)))
+                .expectNext(2L)
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.findRangeSummary(6000, 6999, null, null))
+                .expectNextMatches(summary -> summary.getTotalBatteries() == 4 && summary.getTotalWattCapacity() == 60000.0)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testBulkLoadSpanningPartitionsHasNoSinglePartition() {
+        UUID loadId = UUID.randomUUID();
+        StepVerifier.create(batteryRepository.copyIntoStaging(loadId, Flux.just(
+                                new Battery("Battery E", 5999, 20000),
+                                new Battery("Battery F", 6000, 22500)), 100)
+                        .then(batteryRepository.findPartitionOfStagedLoad(loadId)))
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.mergeStaging(loadId))
+                .expectNext(2L)
+                .expectComplete()
+                .verify();
+    }
+
+    private Set<String> scannedRelations(DatabaseClient.GenericExecuteSpec explain) throws Exception {
+        String plan = explain.map((row, metadata) -> row.get(0, Json.class).asString()).one().block();
+        Set<String> relations = new TreeSet<>();
+        collectBatteryRelations(objectMapper.readTree(plan).get(0).get("Plan"), relations);
+        return relations;
+    }
+
+    private static void collectBatteryRelations(JsonNode node, Set<String> relations) {
+        if (node.has("Relation Name") && node.get("Relation Name").asText().matches("battery_p\\d+")) {
+            relations.add(node.get("Relation Name").asText());
+        }
+        if (node.has("Plans")) {
+            node.get("Plans").forEach(child -> collectBatteryRelations(child, relations));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.sheikhimtiaz.vpp.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.codec.Json;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Seeds a fleet large enough for the planner to prefer indexes, then runs EXPLAIN (ANALYZE, BUFFERS) on every
+ * read the service issues. A sequential scan of {@code battery} or one of its rollup tables, or a sort where an
+ * index already provides the order, fails the test, so an index regression shows up here instead of in production.
+ */
+@SpringBootTest
+@Testcontainers
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BatteryQueryPlanIntegrationTest {
+
+    private static final int FLEET_SIZE = 200_000;
+
+    // Deterministic spread: ~20 batteries per postcode, capacities 0..99,999 W, names unrelated to postcode
+    private static final String SEED_FLEET_SQL = """
+            INSERT INTO battery (name, postcode, capacity)
+            SELECT 'Battery ' || md5(g::text),
+                   (g * 7919) %% 10000,
+                   (g * 104729) %% 100000
+            FROM generate_series(1, %d) AS g
+            """.formatted(FLEET_SIZE);
+
+    private static final String BACKFILL_ROLLUP_SQL = """
+            INSERT INTO battery_postcode_rollup (postcode, battery_count, total_capacity, min_capacity, max_capacity)
+            SELECT postcode, COUNT(*), SUM(capacity), MIN(capacity), MAX(capacity)
+            FROM battery
+            GROUP BY postcode
+            """;
+
+    private static final String BACKFILL_HISTOGRAM_SQL = """
+            INSERT INTO battery_capacity_histogram (postcode, bucket, battery_count)
+            SELECT postcode, %s AS bucket, COUNT(*)
+            FROM battery
+            GROUP BY postcode, bucket
+            """.formatted(BatteryRepositoryCustomImpl.CAPACITY_BUCKET_EXPRESSION);
+
+    private static final List<String> SCANNED_TABLES =
+            List.of("battery", "battery_postcode_rollup", "battery_capacity_histogram");
+
+    private static final Map<String, Object> RANGE = Map.of("from", 6000, "to", 6099);
+    private static final Map<String, Object> RANGE_AND_CAPACITY =
+            Map.of("from", 6000, "to", 6099, "min", 10000, "max", 19999);
+    private static final Map<String, Object> PAGE = Map.of("limit", 51, "offset", 0L);
+    private static final Map<String, Object> CURSOR =
+            Map.of("afterName", "Battery 8", "afterId", "00000000-0000-0000-0000-000000000000");
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:14-alpine")
+            .withDatabaseName("vppdb")
+            .withUsername("test")
+            .withPassword("test");
+
+    @DynamicPropertySource
+    static void registerPostgresProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.r2dbc.url", () ->
+                String.format("r2dbc:postgresql://%s:%d/%s",
+                        postgres.getHost(),
+                        postgres.getFirstMappedPort(),
+                        postgres.getDatabaseName()));
+        registry.add("spring.r2dbc.username", postgres::getUsername);
+        registry.add("spring.r2dbc.password", postgres::getPassword);
+        registry.add("spring.liquibase.url", postgres::getJdbcUrl);
+        registry.add("spring.liquibase.user", postgres::getUsername);
+        registry.add("spring.liquibase.password", postgres::getPassword);
+    }
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    public void seedFleet() {
+        databaseClient.sql("DELETE FROM battery").then()
+                .then(databaseClient.sql("DELETE FROM battery_postcode_rollup").then())
+                .then(databaseClient.sql(SEED_FLEET_SQL).then())
+                .then(databaseClient.sql("DELETE FROM battery_capacity_histogram").then())
+                .then(databaseClient.sql(BACKFILL_ROLLUP_SQL).then())
+                .then(databaseClient.sql(BACKFILL_HISTOGRAM_SQL).then())
+                .then(databaseClient.sql("VACUUM ANALYZE battery").then())
+                .then(databaseClient.sql("VACUUM ANALYZE battery_postcode_rollup").then())
+                .then(databaseClient.sql("VACUUM ANALYZE battery_capacity_histogram").then())
+                .block();
+    }
+
+    Stream<PlanCase> repositoryQueries() {
+        return Stream.of(
+                new PlanCase("findRangeStatistics for a batch",
+                        BatteryRepositoryCustomImpl.BATCH_RANGE_STATISTICS_SQL,
+                        Map.of("froms", new Integer[]{6000, 6000, 6050},
+                                "tos", new Integer[]{6099, 6099, 6050},
+                                "mins", new Integer[]{null, 10000, null},
+                                "maxes", new Integer[]{null, 19999, null},
+                                "limits", new Integer[]{51, 51, 51},
+                                "offsets", new Long[]{0L, 0L, 50L}), false),
+                new PlanCase("findNamePage for one postcode",
+                        BatteryRepositoryCustomImpl.namePageSql(6000, 6000, null, null, false),
+                        merge(Map.of("from", 6000, "to", 6000), PAGE), true),
+                new PlanCase("findNamePage for one postcode after cursor",
+                        BatteryRepositoryCustomImpl.namePageSql(6000, 6000, null, null, true),
+                        merge(merge(Map.of("from", 6000, "to", 6000), PAGE), CURSOR), true),
+                new PlanCase("findNamePage with capacity filter",
+                        BatteryRepositoryCustomImpl.namePageSql(6000, 6099, 10000, 19999, false),
+                        merge(RANGE_AND_CAPACITY, PAGE), false),
+                new PlanCase("streamNames for one postcode",
+                        BatteryRepositoryCustomImpl.streamNamesSql(6000, 6000, null, null),
+                        Map.of("from", 6000, "to", 6000), true),
+                new PlanCase("streamNames",
+                        BatteryRepositoryCustomImpl.streamNamesSql(6000, 6099, null, null),
+                        RANGE, false),
+                new PlanCase("findRangeSummary from the rollup",
+                        BatteryRepositoryCustomImpl.ROLLUP_AGGREGATES_SQL,
+                        RANGE, false),
+                new PlanCase("findRangeSummary with capacity filter",
+                        BatteryRepositoryCustomImpl.aggregatesSql(6000, 6099, 10000, 19999),
+                        RANGE_AND_CAPACITY, false),
+                new PlanCase("findCapacityHistogram",
+                        BatteryRepositoryCustomImpl.CAPACITY_HISTOGRAM_SQL,
+                        RANGE, false)
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("repositoryQueries")
+    public void planUsesIndexes(PlanCase planCase) throws Exception {
+        List<String> nodes = planNodes(planCase);
+
+        for (String table : SCANNED_TABLES) {
+            assertTrue(nodes.stream().noneMatch(node -> node.equals("Seq Scan on " + table)),
+                    () -> planCase.name() + " scans the whole " + table + " table: " + nodes);
+        }
+        if (planCase.sortFree()) {
+            assertTrue(nodes.stream().noneMatch(node -> node.startsWith("Sort") || node.startsWith("Incremental Sort")),
+                    () -> planCase.name() + " sorts rows an index already returns in order: " + nodes);
+        }
+    }
+
+    private List<String> planNodes(PlanCase planCase) throws Exception {
+        DatabaseClient.GenericExecuteSpec spec =
+                databaseClient.sql("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + planCase.sql());
+        for (Map.Entry<String, Object> bind : planCase.binds().entrySet()) {
+            spec = spec.bind(bind.getKey(), bind.getValue());
+        }
+        String plan = spec.map((row, metadata) -> row.get(0, Json.class).asString()).one().block();
+
+        List<String> nodes = new ArrayList<>();
+        collectNodes(objectMapper.readTree(plan).get(0).get("Plan"), nodes);
+        return nodes;
+    }
+
+    private static void collectNodes(JsonNode node, List<String> nodes) {
+        String nodeType = node.get("Node Type").asText();
+        nodes.add(node.has("Relation Name") ? nodeType + " on " + node.get("Relation Name").asText() : nodeType);
+        if (node.has("Plans")) {
+            node.get("Plans").forEach(child -> collectNodes(child, nodes));
+        }
+    }
+
+    private static Map<String, Object> merge(Map<String, Object> first, Map<String, Object> second) {
+        Map<String, Object> merged = new HashMap<>(first);
+        merged.putAll(second);
+        return merged;
+    }
+
+    record PlanCase(String name, String sql, Map<String, Object> binds, boolean sortFree) {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
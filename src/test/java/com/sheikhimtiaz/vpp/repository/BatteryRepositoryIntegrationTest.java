@@ -1,6 +1,11 @@
 package com.sheikhimtiaz.vpp.repository;
 
 import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.model.BatteryNamePage;
+import com.sheikhimtiaz.vpp.model.BatteryRangeCriteria;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.model.PostcodeCapacityBucket;
 import com.sheikhimtiaz.vpp.repository.BatteryRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,6 +14,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
@@ -16,11 +22,13 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
 
 @SpringBootTest
 @Testcontainers
@@ -53,82 +61,282 @@ public class BatteryRepositoryIntegrationTest {
     @Autowired
     private BatteryRepository batteryRepository;
 
+    @Autowired
+    private DatabaseClient databaseClient;
+
     private List<Battery> testBatteries = Arrays.asList(
-            new Battery("Battery A", "1000", 5000),
-            new Battery("Battery B", "2000", 7500),
-            new Battery("Battery C", "3000", 10000),
-            new Battery("Battery D", "4000", 12500),
-            new Battery("Battery E", "5000", 15000)
+            new Battery("Battery A", 1000, 5000),
+            new Battery("Battery B", 2000, 7500),
+            new Battery("Battery C", 3000, 10000),
+            new Battery("Battery D", 4000, 12500),
+            new Battery("Battery E", 5000, 15000)
     );
 
     @BeforeEach
     public void setup() {
         batteryRepository.deleteAll()
-                .thenMany(Flux.fromIterable(testBatteries))
-                .flatMap(batteryRepository::save)
-                .blockLast();
+                .then(databaseClient.sql("DELETE FROM battery_postcode_rollup").then())
+                .then(databaseClient.sql("DELETE FROM battery_capacity_histogram").then())
+                .then(batteryRepository.insertAll(testBatteries))
+                .block();
         pageNumber = 0;
         pageSize = 50;
         pageable = PageRequest.of(pageNumber, pageSize, Sort.by("name"));
     }
 
     @Test
-    public void testFindByPostcodeBetween() {
-        Flux<Battery> result = batteryRepository.findByPostcodeBetween("2000", "4000", pageable);
+    public void testFindNamePage() {
+        StepVerifier.create(batteryRepository.findNamePage(2000, 4000, null, null, null, pageable))
+                .expectNextMatches(page ->
+                        page.getBatteryNames().equals(List.of("Battery B", "Battery C", "Battery D")) &&
+                                page.getNextCursor() == null)
+                .expectComplete()
+                .verify();
+    }
 
-        StepVerifier.create(result.sort(Comparator.comparing(Battery::getPostcode)))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("2000") && battery.getName().equals("Battery B"))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("3000") && battery.getName().equals("Battery C"))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("4000") && battery.getName().equals("Battery D"))
+    @Test
+    public void testFindNamePage_NoResults() {
+        StepVerifier.create(batteryRepository.findNamePage(6000, 7000, null, null, null, pageable))
+                .expectNextMatches(page -> page.getBatteryNames().isEmpty() && page.getNextCursor() == null)
                 .expectComplete()
                 .verify();
     }
 
     @Test
-    public void testFindByPostcodeBetween_NoResults() {
-        Flux<Battery> result = batteryRepository.findByPostcodeBetween("6000", "7000", pageable);
+    public void testFindNamePage_WithCapacityFilter() {
+        StepVerifier.create(batteryRepository.findNamePage(2000, 5000, 10000, 15000, null, pageable))
+                .expectNextMatches(page ->
+                        page.getBatteryNames().equals(List.of("Battery C", "Battery D", "Battery E")))
+                .expectComplete()
+                .verify();
+    }
 
-        StepVerifier.create(result)
+    @Test
+    public void testFindNamePage_WithCapacityFilterPartialMatch() {
+        StepVerifier.create(batteryRepository.findNamePage(1000, 3000, 6000, 8000, null, pageable))
+                .expectNextMatches(page -> page.getBatteryNames().equals(List.of("Battery B")))
                 .expectComplete()
                 .verify();
     }
 
     @Test
-    public void testFindByPostcodeBetweenAndCapacityBetween() {
-        Flux<Battery> result = batteryRepository.findByPostcodeBetweenAndCapacityBetween(
-                "2000", "5000", 10000, 15000, pageable);
+    public void testFindNamePage_WithCursorContinuesAfterPreviousPage() {
+        Pageable firstPage = PageRequest.of(0, 2, Sort.by("name"));
+        BatteryNamePage first = batteryRepository.findNamePage(1000, 5000, null, null, null, firstPage).block();
+        StepVerifier.create(Mono.justOrEmpty(first))
+                .expectNextMatches(page -> page.getBatteryNames().equals(List.of("Battery A", "Battery B")))
+                .expectComplete()
+                .verify();
 
-        StepVerifier.create(result.sort(Comparator.comparing(Battery::getPostcode)))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("3000") &&
-                                battery.getCapacity() == 10000 &&
-                                battery.getName().equals("Battery C"))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("4000") &&
-                                battery.getCapacity() == 12500 &&
-                                battery.getName().equals("Battery D"))
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("5000") &&
-                                battery.getCapacity() == 15000 &&
-                                battery.getName().equals("Battery E"))
+        StepVerifier.create(batteryRepository.findNamePage(1000, 5000, null, null, first.getNextCursor(), firstPage))
+                .expectNextMatches(page ->
+                        page.getBatteryNames().equals(List.of("Battery C", "Battery D")) &&
+                                page.getNextCursor() != null &&
+                                page.getNextCursor().name().equals("Battery D"))
                 .expectComplete()
                 .verify();
     }
 
     @Test
-    public void testFindByPostcodeBetweenAndCapacityBetween_PartialMatch() {
-        Flux<Battery> result = batteryRepository.findByPostcodeBetweenAndCapacityBetween(
-                "1000", "3000", 6000, 8000, pageable);
+    public void testFindRangeStatistics_WithCapacityFilterAndEmptyPage() {
+        StepVerifier.create(batteryRepository.findRangeStatistics(List.of(
+                        new BatteryRangeCriteria(2000, 5000, 10000, 15000, PageRequest.of(1, 50, Sort.by("name"))))))
+                .expectNextMatches(results -> results.size() == 1 &&
+                        results.get(0).getBatteryNames().isEmpty() &&
+                        results.get(0).getTotalCount() == 3 &&
+                        results.get(0).getTotalCapacity() == 37500.0 &&
+                        results.get(0).getAverageCapacity() == 12500.0)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testFindRangeStatisticsForSeveralRangesInOneQuery() {
+        StepVerifier.create(batteryRepository.findRangeStatistics(List.of(
+                        new BatteryRangeCriteria(2000, 4000, null, null, PageRequest.of(0, 2, Sort.by("name"))),
+                        new BatteryRangeCriteria(6000, 7000, null, null, PageRequest.of(0, 50, Sort.by("name"))),
+                        new BatteryRangeCriteria(2000, 5000, 10000, 15000, PageRequest.of(0, 50, Sort.by("name"))))))
+                .expectNextMatches(results -> results.size() == 3 &&
+                        results.get(0).getBatteryNames().equals(List.of("Battery B", "Battery C")) &&
+                        results.get(0).getTotalCount() == 3 &&
+                        results.get(0).getNextCursor() != null &&
+                        results.get(1).getBatteryNames().isEmpty() &&
+                        results.get(1).getTotalCount() == 0 &&
+                        results.get(1).getTotalCapacity() == 0.0 &&
+                        results.get(2).getBatteryNames().equals(List.of("Battery C", "Battery D", "Battery E")) &&
+                        results.get(2).getTotalCapacity() == 37500.0 &&
+                        results.get(2).getNextCursor() == null)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testStreamNamesAndFindRangeSummary() {
+        StepVerifier.create(batteryRepository.streamNames(2000, 5000, 10000, 15000, 1), 1)
+                .expectNext("Battery C")
+                .thenRequest(2)
+                .expectNext("Battery D", "Battery E")
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.findRangeSummary(2000, 5000, 10000, 15000))
+                .expectNextMatches(summary ->
+                        summary.getTotalBatteries() == 3 &&
+                                summary.getTotalWattCapacity() == 37500.0 &&
+                                summary.getAverageWattCapacity() == 12500.0)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testAggregateByPostcodeAndCapacityBucket() {
+        StepVerifier.create(batteryRepository.aggregateByPostcodeAndCapacityBucket(5000, 3)
+                        .filter(cell -> cell.getPostcode() == 2000 || cell.getPostcode() == 5000)
+                        .sort(Comparator.comparingInt(PostcodeCapacityBucket::getPostcode)))
+                .expectNextMatches(cell -> cell.getBucket() == 1 && cell.getBatteryCount() == 1 && cell.getTotalCapacity() == 7500)
+                .expectNextMatches(cell -> cell.getBucket() == 2 && cell.getBatteryCount() == 1 && cell.getTotalCapacity() == 15000)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testInsertAll() {
+        List<Battery> batch = Arrays.asList(
+                new Battery("Battery F", 6000, 17500),
+                new Battery("Battery G", 6100, 20000)
+        );
+
+        StepVerifier.create(batteryRepository.insertAll(batch)
+                        .then(batteryRepository.findRangeSummary(6000, 6999, null, null))
+                        .map(BatteryRangeSummary::getTotalBatteries))
+                .expectNext(2L)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testInsertAllMaintainsPostcodeRollup() {
+        List<Battery> batch = Arrays.asList(
+                new Battery("Battery F", 6000, 17500),
+                new Battery("Battery G", 6000, 20000),
+                new Battery("Battery H", 6100, 2500)
+        );
+
+        StepVerifier.create(batteryRepository.insertAll(batch)
+                        .then(batteryRepository.findRangeSummary(6000, 6999, null, null)))
+                .expectNextMatches(summary ->
+                        summary.getTotalBatteries() == 3 &&
+                                summary.getTotalWattCapacity() == 40000.0 &&
+                                Math.abs(summary.getAverageWattCapacity() - 40000.0 / 3) < 1e-9)
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(databaseClient.sql(
+                                "SELECT battery_count, min_capacity, max_capacity FROM battery_postcode_rollup WHERE postcode = '6000'")
+                        .map((row, metadata) -> row.get("battery_count", Long.class) + ":" +
+                                row.get("min_capacity", Integer.class) + ":" + row.get("max_capacity", Integer.class))
+                        .one())
+                .expectNext("2:17500:20000")
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testInsertAllMaintainsCapacityHistogram() {
+        List<Battery> batch = Arrays.asList(
+                new Battery("Battery F", 6000, 17500),
+                new Battery("Battery G", 6000, 20000),
+                new Battery("Battery H", 6100, 2500)
+        );
+
+        StepVerifier.create(batteryRepository.insertAll(batch)
+                        .thenMany(batteryRepository.findCapacityHistogram(6000, 6999))
+                        .collectList())
+                .expectNext(List.of(
+                        new CapacityHistogramBucket(2436, 2656, 1),
+                        new CapacityHistogramBucket(16384, 17867, 1),
+                        new CapacityHistogramBucket(19484, 21248, 1)))
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.findCapacityHistogram(1000, 6999).map(CapacityHistogramBucket::getBatteries)
+                        .reduce(Long::sum))
+                .expectNext(8L)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testReconcileRollupsPicksUpRowsWrittenWithoutThem() {
+        // Written the way an instance without the rollup would, bypassing insertAll
+        databaseClient.sql("INSERT INTO battery (name, postcode, capacity) VALUES ('Battery F', 6000, 17500), ('Battery G', 6100, 2500)")
+                .then()
+                .block();
+
+        StepVerifier.create(batteryRepository.reconcileRollups(5000, 6999))
+                .expectNext(4L)
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.findRangeSummary(5000, 6999, null, null))
+                .expectNextMatches(summary -> summary.getTotalBatteries() == 3 && summary.getTotalWattCapacity() == 35000.0)
+                .expectComplete()
+                .verify();
+        StepVerifier.create(batteryRepository.findCapacityHistogram(6000, 6999).map(CapacityHistogramBucket::getBatteries)
+                        .reduce(Long::sum))
+                .expectNext(2L)
+                .expectComplete()
+                .verify();
+        StepVerifier.create(batteryRepository.reconcileRollups(5000, 6999))
+                .expectNext(0L)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testUnpartitionedTableHasNoPartitions() {
+        UUID loadId = UUID.randomUUID();
+        StepVerifier.create(batteryRepository.findPartitions())
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.copyIntoStaging(loadId, Flux.just(new Battery("Battery K", 8000, 1000)), 10)
+                        .then(batteryRepository.findPartitionOfStagedLoad(loadId))
+                        .then(batteryRepository.deleteStaging(loadId)))
+                .expectNext(1L)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testCopyIntoStagingAndMerge() {
+        UUID loadId = UUID.randomUUID();
+        Flux<Battery> batch = Flux.just(
+                new Battery("Battery\tH", 7000, 22500),
+                new Battery("Battery I", 7100, 25000),
+                new Battery("Battery J", 7200, 27500)
+        );
+
+        StepVerifier.create(batteryRepository.copyIntoStaging(loadId, batch, 2))
+                .expectNext(3L)
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.mergeStaging(loadId)
+                        .then(batteryRepository.findRangeSummary(7000, 7999, null, null))
+                        .map(BatteryRangeSummary::getTotalBatteries))
+                .expectNext(3L)
+                .expectComplete()
+                .verify();
+
+        StepVerifier.create(batteryRepository.findRangeSummary(7000, 7999, null, null))
+                .expectNextMatches(summary -> summary.getTotalBatteries() == 3 && summary.getTotalWattCapacity() == 75000.0)
+                .expectComplete()
+                .verify();
 
-        StepVerifier.create(result)
-                .expectNextMatches(battery ->
-                        battery.getPostcode().equals("2000") &&
-                                battery.getCapacity() == 7500 &&
-                                battery.getName().equals("Battery B"))
+        StepVerifier.create(batteryRepository.mergeStaging(loadId))
+                .expectNext(0L)
                 .expectComplete()
                 .verify();
     }
-}
\ No newline at end of file
+}
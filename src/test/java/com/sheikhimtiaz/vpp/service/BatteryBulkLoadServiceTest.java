@@ -0,0 +1,127 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
+import com.sheikhimtiaz.vpp.cache.CacheInvalidationStrategy;
+import com.sheikhimtiaz.vpp.cache.CacheKeyIndex;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
+import com.sheikhimtiaz.vpp.model.BatteryDto;
+import com.sheikhimtiaz.vpp.model.BatteryPartition;
+import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import jakarta.validation.Validator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+public class BatteryBulkLoadServiceTest {
+
+    @Mock
+    private BatteryRepository batteryRepository;
+
+    @Mock
+    private ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
+
+    @Mock
+    private Validator validator;
+
+    @Mock
+    private BatteryAggregateIndex aggregateIndex;
+
+    @Spy
+    private VppProperties properties = new VppProperties();
+
+    @Mock
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private CacheKeyIndex cacheKeyIndex;
+
+    private BatteryBulkLoadService batteryBulkLoadService;
+
+    @BeforeEach
+    void setUp() {
+        BatteryQueryCache queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, cacheKeyIndex,
+                properties, new SimpleMeterRegistry());
+        batteryBulkLoadService = new BatteryBulkLoadService(batteryRepository, queryCache, validator, properties, aggregateIndex);
+    }
+
+    @Test
+    void load_shouldStageMergeAndPurgeCacheOnce() {
+        when(validator.validate(any(BatteryDto.class))).thenReturn(Set.of());
+        when(batteryRepository.copyIntoStaging(any(UUID.class), any(), eq(5000))).thenReturn(Mono.just(2L));
+        when(batteryRepository.findPartitionOfStagedLoad(any(UUID.class))).thenReturn(Mono.empty());
+        when(batteryRepository.mergeStaging(any(UUID.class))).thenReturn(Mono.just(2L));
+        when(aggregateIndex.rebuildEverywhere()).thenReturn(Mono.empty());
+        when(cacheKeyIndex.invalidateAll()).thenReturn(Mono.just(
+                CacheInvalidationStrategy.Invalidation.evicting(List.of("battery-stats::from=1000:to=2000"))));
+        when(redisTemplate.delete(any(String[].class))).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(batteryBulkLoadService.load(Flux.just(
+                        new BatteryDto("Battery A", "2000", 5000),
+                        new BatteryDto("Battery B", "3000", 7000))))
+                .expectNextMatches(result -> result.getStaged() == 2 && result.getMerged() == 2 && result.getRejected() == 0)
+                .verifyComplete();
+
+        verify(cacheKeyIndex, times(1)).invalidateAll();
+        verify(redisTemplate, times(1)).delete("battery-stats::from=1000:to=2000");
+        verify(redisTemplate, never()).keys(anyString());
+        verify(batteryRepository, never()).deleteStaging(any(UUID.class));
+        verify(aggregateIndex).rebuildEverywhere();
+    }
+
+    @Test
+    void load_withinOnePartition_shouldMergeIntoAndAnalyzeOnlyThatPartition() {
+        BatteryPartition partition = new BatteryPartition("battery_p2", 2000, 3000);
+        when(validator.validate(any(BatteryDto.class))).thenReturn(Set.of());
+        when(batteryRepository.copyIntoStaging(any(UUID.class), any(), anyInt())).thenReturn(Mono.just(2L));
+        when(batteryRepository.findPartitionOfStagedLoad(any(UUID.class))).thenReturn(Mono.just(partition));
+        when(batteryRepository.mergeStaging(any(UUID.class), eq(partition))).thenReturn(Mono.just(2L));
+        when(batteryRepository.analyze(partition)).thenReturn(Mono.empty());
+        when(aggregateIndex.rebuildEverywhere()).thenReturn(Mono.empty());
+        when(cacheKeyIndex.invalidateAll()).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.NONE));
+
+        StepVerifier.create(batteryBulkLoadService.load(Flux.just(
+                        new BatteryDto("Battery A", "2000", 5000),
+                        new BatteryDto("Battery B", "2999", 7000))))
+                .expectNextMatches(result -> result.getMerged() == 2)
+                .verifyComplete();
+
+        verify(batteryRepository, never()).mergeStaging(any(UUID.class));
+        verify(batteryRepository).analyze(partition);
+    }
+
+    @Test
+    void load_shouldDeleteStagedRowsWhenMergeFails() {
+        when(batteryRepository.copyIntoStaging(any(UUID.class), any(), anyInt())).thenReturn(Mono.just(2L));
+        when(batteryRepository.findPartitionOfStagedLoad(any(UUID.class))).thenReturn(Mono.empty());
+        when(batteryRepository.mergeStaging(any(UUID.class))).thenReturn(Mono.error(new RuntimeException("Database error")));
+        when(batteryRepository.deleteStaging(any(UUID.class))).thenReturn(Mono.just(2L));
+
+        StepVerifier.create(batteryBulkLoadService.load(Flux.empty()))
+                .expectErrorMessage("Database error")
+                .verify();
+
+        verify(batteryRepository).deleteStaging(any(UUID.class));
+        verifyNoInteractions(redisTemplate);
+    }
+}
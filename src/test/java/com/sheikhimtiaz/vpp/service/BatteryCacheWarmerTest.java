@@ -0,0 +1,99 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.cache.HeavyHitters;
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.HeavyHitter;
+import com.sheikhimtiaz.vpp.model.HotQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatteryCacheWarmerTest {
+
+    private static final HotQuery HOT = new HotQuery("1000", "4000", null, null, 50);
+    private static final HotQuery FAILING = new HotQuery("2000", "2999", 1000, 5000, 50);
+
+    @Mock
+    private BatteryService batteryService;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveZSetOperations<String, String> zSetOperations;
+
+    private final VppProperties properties = new VppProperties();
+
+    private HeavyHitters heavyHitters;
+    private BatteryCacheWarmer warmer;
+
+    @BeforeEach
+    void setUp() {
+        properties.getCache().getWarming().setEnabled(true);
+        heavyHitters = new HeavyHitters(properties);
+        warmer = new BatteryCacheWarmer(batteryService, heavyHitters, redisTemplate, properties);
+    }
+
+    @Test
+    void warm_shouldLoadPersistedQueriesAndSeedTheLocalCounts() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.reverseRangeWithScores(BatteryCacheWarmer.HEAVY_HITTERS_KEY, Range.closed(0L, 99L)))
+                .thenReturn(Flux.just(
+                        ZSetOperations.TypedTuple.of(HOT.encode(), 40.0),
+                        ZSetOperations.TypedTuple.of("not a query", 30.0),
+                        ZSetOperations.TypedTuple.of(FAILING.encode(), 20.0)));
+        when(batteryService.warm(HOT)).thenReturn(Mono.empty());
+        when(batteryService.warm(FAILING)).thenReturn(Mono.error(new RuntimeException("Database down")));
+
+        StepVerifier.create(warmer.warm())
+                .expectNext(1L)
+                .verifyComplete();
+
+        assertEquals(List.of(new HeavyHitter(HOT, 40), new HeavyHitter(FAILING, 20)), heavyHitters.top());
+    }
+
+    @Test
+    void warm_whenRedisIsDown_shouldStartCold() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.reverseRangeWithScores(anyString(), any()))
+                .thenReturn(Flux.error(new RuntimeException("Redis down")));
+
+        StepVerifier.create(warmer.warm())
+                .expectNext(0L)
+                .verifyComplete();
+
+        verifyNoInteractions(batteryService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void persist_shouldMergeTheTopQueriesAndThenDecayThem() {
+        heavyHitters.add(HOT, 8);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        StepVerifier.create(warmer.persist())
+                .expectNext(1L)
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of(BatteryCacheWarmer.HEAVY_HITTERS_KEY, BatteryCacheWarmer.DECAY_KEY)),
+                eq(List.of("100", "86400000", "60000", "8", HOT.encode())));
+        assertEquals(List.of(new HeavyHitter(HOT, 4)), heavyHitters.top());
+    }
+}
@@ -1,23 +1,30 @@
 package com.sheikhimtiaz.vpp.service;
 
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
+import com.sheikhimtiaz.vpp.cache.CacheInvalidationStrategy;
+import com.sheikhimtiaz.vpp.cache.CacheKeyIndex;
+import com.sheikhimtiaz.vpp.config.VppProperties;
 import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
 import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.test.context.ActiveProfiles;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
-import java.util.UUID;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
         import static org.mockito.ArgumentMatchers.*;
@@ -33,89 +40,128 @@ public class BatteryConsumerServiceTest {
     @Mock
     private ReactiveRedisTemplate<String, BatteryQueryResponse> redisTemplate;
 
-    @InjectMocks
+    @Mock
+    private BatteryAggregateIndex aggregateIndex;
+
+    @Mock
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private CacheKeyIndex cacheKeyIndex;
+
     private BatteryConsumerService batteryConsumerService;
 
     @Captor
-    private ArgumentCaptor<Battery> batteryCaptor;
+    private ArgumentCaptor<List<Battery>> batteryCaptor;
 
     private BatteryDto testBatteryDto;
-    private Battery savedBattery;
 
     @BeforeEach
     void setUp() {
+        BatteryQueryCache queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, cacheKeyIndex,
+                new VppProperties(), new SimpleMeterRegistry());
+        batteryConsumerService = new BatteryConsumerService(batteryRepository, queryCache, aggregateIndex);
+        lenient().when(cacheKeyIndex.watermark()).thenReturn(Mono.just(0L));
         testBatteryDto = new BatteryDto("Test Battery", "2500", 6000);
-
-        savedBattery = new Battery();
-        savedBattery.setId(UUID.randomUUID().toString());
-        savedBattery.setName("Test Battery");
-        savedBattery.setPostcode("2500");
-        savedBattery.setCapacity(6000);
     }
 
     @Test
-    void consume_shouldSaveBattery() {
-        when(batteryRepository.save(any(Battery.class))).thenReturn(Mono.just(savedBattery));
+    void consume_shouldInsertBatteryThroughInsertAll() {
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.just(1L));
 
-        when(redisTemplate.keys(anyString())).thenReturn(Flux.empty());
+        when(cacheKeyIndex.invalidate(anyList(), anyLong())).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.NONE));
 
         batteryConsumerService.consume(testBatteryDto);
 
-        verify(batteryRepository).save(batteryCaptor.capture());
-        Battery capturedBattery = batteryCaptor.getValue();
+        verify(batteryRepository).insertAll(batteryCaptor.capture());
+        assertEquals(1, batteryCaptor.getValue().size());
+        Battery capturedBattery = batteryCaptor.getValue().get(0);
 
         assertNull(capturedBattery.getId());
         assertEquals(testBatteryDto.getName(), capturedBattery.getName());
-        assertEquals(testBatteryDto.getPostcode(), capturedBattery.getPostcode());
+        assertEquals(2500, capturedBattery.getPostcode());
         assertEquals(testBatteryDto.getCapacity(), capturedBattery.getCapacity());
+        verify(aggregateIndex).addAll(batteryCaptor.getValue());
     }
 
     @Test
-    void consume_shouldHandleExceptions() {
-        when(batteryRepository.save(any(Battery.class))).thenReturn(Mono.error(new RuntimeException("Database error")));
+    void consume_shouldRethrowWhenSaveFailsSoTheOffsetIsNotCommitted() {
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.error(new RuntimeException("Database error")));
 
-        assertDoesNotThrow(() -> batteryConsumerService.consume(testBatteryDto));
+        assertThrows(RuntimeException.class, () -> batteryConsumerService.consume(testBatteryDto));
 
-        verify(batteryRepository).save(any(Battery.class));
+        verify(batteryRepository).insertAll(anyList());
+        verify(cacheKeyIndex, never()).invalidate(anyList(), anyLong());
+        verifyNoInteractions(redisTemplate, aggregateIndex);
     }
 
     @Test
-    void invalidateAffectedCacheEntries_shouldDeleteMatchingKeys() {
-        String matchingKey = "battery-stats::from=2000:to=3000:min=5000:max=7000";
-        String nonMatchingKey = "battery-stats::from=4000:to=5000:min=8000:max=9000";
+    void consume_shouldNotFailWhenCacheInvalidationFails() {
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.just(1L));
+        when(cacheKeyIndex.invalidate(anyList(), anyLong())).thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        assertDoesNotThrow(() -> batteryConsumerService.consume(testBatteryDto));
+    }
 
-        when(redisTemplate.keys("battery-stats::*"))
-                .thenReturn(Flux.just(matchingKey, nonMatchingKey));
+    @Test
+    void invalidateAffectedCacheEntries_shouldDeleteIndexedKeysWithoutScanning() {
+        String matchingKey = "battery-stats::from=2000:to=3000:min=5000:max=7000";
 
-        when(batteryRepository.save(any(Battery.class))).thenReturn(Mono.just(savedBattery));
+        when(cacheKeyIndex.invalidate(anyList(), anyLong()))
+                .thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.evicting(List.of(matchingKey))));
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.just(1L));
+        when(redisTemplate.delete(any(String[].class))).thenReturn(Mono.just(1L));
 
         batteryConsumerService.consume(testBatteryDto);
 
-        verify(redisTemplate).keys("battery-stats::*");
+        verify(redisTemplate, never()).keys(anyString());
         verify(redisTemplate).delete(matchingKey);
-        verify(redisTemplate, never()).delete(nonMatchingKey);
     }
 
     @Test
-    void isCacheKeyAffectedByBattery_shouldIdentifyMatchingKeys() {
-        // Postcode and capacity both in range
-        assertTrue(batteryConsumerService.isCacheKeyAffectedByBattery(
-                "battery-stats::from=2000:to=3000:min=5000:max=7000", "2500", 6000));
-
-        // Postcode in range but capacity out of range
-        assertFalse(batteryConsumerService.isCacheKeyAffectedByBattery(
-                "battery-stats::from=2000:to=3000:min=7000:max=8000", "2500", 6000));
-
-        // Postcode out of range but capacity in range
-        assertFalse(batteryConsumerService.isCacheKeyAffectedByBattery(
-                "battery-stats::from=3000:to=4000:min=5000:max=7000", "2500", 6000));
-
-        // No capacity filter (null values)
-        assertTrue(batteryConsumerService.isCacheKeyAffectedByBattery(
-                "battery-stats::from=2000:to=3000:min=null:max=null", "2500", 6000));
-
-        // Invalid key format returns true just to be safe
-        assertTrue(batteryConsumerService.isCacheKeyAffectedByBattery(
-                "invalid-key", "2500", 6000));
+    void consumeBatch_shouldInsertAllBatteriesWithOneStatementAndInvalidateOnce() {
+        BatteryDto otherBatteryDto = new BatteryDto("Other Battery", "4500", 8500);
+        String matchingKey = "battery-stats::from=2000:to=3000:min=null:max=null";
+        String otherMatchingKey = "battery-stats::from=4000:to=5000:min=8000:max=9000";
+
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.just(2L));
+        when(cacheKeyIndex.invalidate(anyList(), anyLong()))
+                .thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.evicting(List.of(matchingKey, otherMatchingKey))));
+        when(redisTemplate.delete(any(String[].class))).thenReturn(Mono.just(2L));
+
+        batteryConsumerService.consumeBatch(List.of(testBatteryDto, otherBatteryDto));
+
+        verify(batteryRepository).insertAll(argThat(batteries ->
+                batteries.size() == 2 &&
+                        batteries.get(0).getPostcode() == 2500 &&
+                        batteries.get(1).getPostcode() == 4500));
+        verify(batteryRepository, never()).save(any(Battery.class));
+        verify(cacheKeyIndex, times(1)).invalidate(argThat(batteries -> batteries.size() == 2), eq(0L));
+        verify(redisTemplate).delete(matchingKey, otherMatchingKey);
+    }
+
+    @Test
+    void persistBatch_shouldTakeTheWatermarkBeforeInsertingAndInvalidateWithIt() {
+        when(cacheKeyIndex.watermark()).thenReturn(Mono.just(42L));
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.just(1L));
+        when(cacheKeyIndex.invalidate(anyList(), anyLong())).thenReturn(Mono.just(CacheInvalidationStrategy.Invalidation.NONE));
+
+        StepVerifier.create(batteryConsumerService.persistBatch(List.of(testBatteryDto)))
+                .expectNext(1L)
+                .verifyComplete();
+
+        InOrder inOrder = inOrder(cacheKeyIndex, batteryRepository);
+        inOrder.verify(cacheKeyIndex).watermark();
+        inOrder.verify(batteryRepository).insertAll(anyList());
+        inOrder.verify(cacheKeyIndex).invalidate(anyList(), eq(42L));
+    }
+
+    @Test
+    void consumeBatch_shouldRethrowWhenInsertFails() {
+        when(batteryRepository.insertAll(anyList())).thenReturn(Mono.error(new RuntimeException("Database error")));
+
+        assertThrows(RuntimeException.class, () -> batteryConsumerService.consumeBatch(List.of(testBatteryDto)));
+
+        verifyNoInteractions(redisTemplate);
     }
-}
\ No newline at end of file
+}
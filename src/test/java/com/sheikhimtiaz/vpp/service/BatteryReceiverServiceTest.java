@@ -0,0 +1,129 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.model.BatteryDto;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles("test")
+public class BatteryReceiverServiceTest {
+
+    @Mock
+    private KafkaReceiver<String, BatteryDto> kafkaReceiver;
+
+    @Mock
+    private BatteryConsumerService batteryConsumerService;
+
+    private VppProperties properties;
+    private BatteryReceiverService batteryReceiverService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new VppProperties();
+        properties.getKafka().getConsumer().getReceiver().setBatchSize(2);
+        batteryReceiverService = new BatteryReceiverService(kafkaReceiver, batteryConsumerService, properties);
+    }
+
+    @Test
+    void process_shouldAcknowledgeOffsetsOnlyAfterBatchIsPersisted() {
+        ReceiverOffset firstOffset = mock(ReceiverOffset.class);
+        ReceiverOffset secondOffset = mock(ReceiverOffset.class);
+        ReceiverOffset thirdOffset = mock(ReceiverOffset.class);
+
+        when(batteryConsumerService.persistBatch(anyList()))
+                .thenAnswer(invocation -> Mono.just((long) invocation.<List<BatteryDto>>getArgument(0).size()));
+
+        StepVerifier.create(batteryReceiverService.process(Flux.just(
+                        record(0, "Battery A", firstOffset),
+                        record(1, "Battery B", secondOffset),
+                        record(2, "Battery C", thirdOffset))))
+                .expectNextMatches(batch -> batch.size() == 2)
+                .expectNextMatches(batch -> batch.size() == 1)
+                .verifyComplete();
+
+        verify(batteryConsumerService, times(2)).persistBatch(anyList());
+        verify(firstOffset).acknowledge();
+        verify(secondOffset).acknowledge();
+        verify(thirdOffset).acknowledge();
+    }
+
+    @Test
+    void process_shouldNotAcknowledgeOffsetsWhenWriteFails() {
+        ReceiverOffset firstOffset = mock(ReceiverOffset.class);
+        ReceiverOffset secondOffset = mock(ReceiverOffset.class);
+
+        when(batteryConsumerService.persistBatch(anyList()))
+                .thenReturn(Mono.error(new RuntimeException("Database error")));
+
+        StepVerifier.create(batteryReceiverService.process(Flux.just(
+                        record(0, "Battery A", firstOffset),
+                        record(1, "Battery B", secondOffset))))
+                .expectErrorMessage("Database error")
+                .verify();
+
+        verify(firstOffset, never()).acknowledge();
+        verify(secondOffset, never()).acknowledge();
+    }
+
+    @Test
+    void process_withoutPartitionOrdering_shouldAcknowledgeBatchesInArrivalOrder() {
+        properties.getKafka().getConsumer().getReceiver().setPreservePartitionOrder(false);
+        ReceiverOffset firstOffset = mock(ReceiverOffset.class);
+        ReceiverOffset secondOffset = mock(ReceiverOffset.class);
+        ReceiverOffset thirdOffset = mock(ReceiverOffset.class);
+
+        when(batteryConsumerService.persistBatch(anyList()))
+                .thenAnswer(invocation -> Mono.just((long) invocation.<List<BatteryDto>>getArgument(0).size()));
+
+        StepVerifier.create(batteryReceiverService.process(Flux.just(
+                        record(0, "Battery A", firstOffset),
+                        record(1, "Battery B", secondOffset),
+                        record(2, "Battery C", thirdOffset))))
+                .expectNextMatches(batch -> batch.get(0).value().getName().equals("Battery A"))
+                .expectNextMatches(batch -> batch.get(0).value().getName().equals("Battery C"))
+                .verifyComplete();
+
+        InOrder inOrder = inOrder(firstOffset, thirdOffset);
+        inOrder.verify(firstOffset).acknowledge();
+        inOrder.verify(thirdOffset).acknowledge();
+    }
+
+    @Test
+    void constructor_shouldRejectFewerInFlightBatchesThanPartitionsWhenPreservingOrder() {
+        properties.getKafka().getTopic().setPartitions(12);
+        properties.getKafka().getConsumer().getReceiver().setMaxInFlightBatches(4);
+
+        assertThrows(IllegalStateException.class,
+                () -> new BatteryReceiverService(kafkaReceiver, batteryConsumerService, properties));
+
+        properties.getKafka().getConsumer().getReceiver().setPreservePartitionOrder(false);
+        new BatteryReceiverService(kafkaReceiver, batteryConsumerService, properties);
+    }
+
+    private static ReceiverRecord<String, BatteryDto> record(long offset, String name, ReceiverOffset receiverOffset) {
+        ConsumerRecord<String, BatteryDto> consumerRecord =
+                new ConsumerRecord<>("battery-topic", 0, offset, null, new BatteryDto(name, "2000", 5000));
+        lenient().when(receiverOffset.topicPartition()).thenReturn(new TopicPartition("battery-topic", 0));
+        return new ReceiverRecord<>(consumerRecord, receiverOffset);
+    }
+}
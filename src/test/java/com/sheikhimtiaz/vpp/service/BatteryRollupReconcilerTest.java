@@ -0,0 +1,40 @@
+package com.sheikhimtiaz.vpp.service;
+
+import com.sheikhimtiaz.vpp.config.VppProperties;
+import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatteryRollupReconcilerTest {
+
+    @Mock
+    private BatteryRepository batteryRepository;
+
+    @Test
+    void reconcile_shouldRecountEveryPostcodeOneSliceAtATime() {
+        VppProperties properties = new VppProperties();
+        properties.getRollup().setReconcilePostcodes(3000);
+        when(batteryRepository.reconcileRollups(anyInt(), anyInt())).thenReturn(Mono.just(0L));
+        when(batteryRepository.reconcileRollups(3000, 5999)).thenReturn(Mono.just(2L));
+
+        StepVerifier.create(new BatteryRollupReconciler(batteryRepository, properties).reconcile())
+                .expectNext(2L)
+                .verifyComplete();
+
+        InOrder inOrder = inOrder(batteryRepository);
+        inOrder.verify(batteryRepository).reconcileRollups(0, 2999);
+        inOrder.verify(batteryRepository).reconcileRollups(3000, 5999);
+        inOrder.verify(batteryRepository).reconcileRollups(6000, 8999);
+        inOrder.verify(batteryRepository).reconcileRollups(9000, 9999);
+        verifyNoMoreInteractions(batteryRepository);
+    }
+}
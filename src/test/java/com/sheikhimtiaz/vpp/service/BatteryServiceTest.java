@@ -1,31 +1,58 @@
 package com.sheikhimtiaz.vpp.service;
 
+import com.sheikhimtiaz.vpp.cache.BatteryQueryCache;
+import com.sheikhimtiaz.vpp.cache.CacheInvalidationStrategy;
+import com.sheikhimtiaz.vpp.cache.CacheKeyIndex;
+import com.sheikhimtiaz.vpp.cache.HeavyHitters;
+import com.sheikhimtiaz.vpp.cache.InFlightRequests;
+import com.sheikhimtiaz.vpp.cache.RecomputeLease;
+import com.sheikhimtiaz.vpp.config.VppProperties;
 import com.sheikhimtiaz.vpp.entity.Battery;
+import com.sheikhimtiaz.vpp.exception.GlobalWebFluxExceptionHandler.ValidationException;
+import com.sheikhimtiaz.vpp.index.BatteryAggregateIndex;
+import com.sheikhimtiaz.vpp.model.BatteryCursor;
 import com.sheikhimtiaz.vpp.model.BatteryDto;
+import com.sheikhimtiaz.vpp.model.BatteryNamePage;
 import com.sheikhimtiaz.vpp.model.BatteryQueryResponse;
+import com.sheikhimtiaz.vpp.model.BatteryRangeCriteria;
+import com.sheikhimtiaz.vpp.model.BatteryRangeQuery;
+import com.sheikhimtiaz.vpp.model.BatteryRangeStatistics;
+import com.sheikhimtiaz.vpp.model.BatteryRangeSummary;
+import com.sheikhimtiaz.vpp.model.BatteryRegistrationResult;
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import com.sheikhimtiaz.vpp.model.HotQuery;
 import com.sheikhimtiaz.vpp.repository.BatteryRepository;
+import jakarta.validation.ConstraintViolation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.test.context.ActiveProfiles;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -46,13 +73,40 @@ public class BatteryServiceTest {
     @Mock
     private ReactiveValueOperations<String, BatteryQueryResponse> valueOperations;
 
-    @InjectMocks
+    @Mock
+    private Validator validator;
+
+    @Mock
+    private BatteryAggregateIndex aggregateIndex;
+
+    @Mock
+    private RecomputeLease recomputeLease;
+
+    @Spy
+    private VppProperties properties = new VppProperties();
+
+    @Spy
+    private InFlightRequests inFlightRequests = new InFlightRequests();
+
+    @Mock
+    private HeavyHitters heavyHitters;
+
+    @Mock
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> stringValueOperations;
+
+    @Mock
+    private CacheKeyIndex cacheKeyIndex;
+
     private BatteryService batteryService;
 
     private List<BatteryDto> testBatteryDtos;
     private List<Battery> testBatteries;
     private BatteryQueryResponse expectedResponse;
     private String cacheKey;
+    private String aggregatesKey;
     private int pageNumber;
     private int pageSize;
     private Pageable pageable;
@@ -69,18 +123,125 @@ public class BatteryServiceTest {
         );
 
         testBatteries = Arrays.asList(
-                new Battery(UUID.randomUUID().toString(), "Battery A", "2000", 5000),
-                new Battery(UUID.randomUUID().toString(), "Battery B", "3000", 7000)
+                new Battery(UUID.randomUUID().toString(), "Battery A", 2000, 5000),
+                new Battery(UUID.randomUUID().toString(), "Battery B", 3000, 7000)
         );
 
         List<String> names = Arrays.asList("Battery A", "Battery B");
         expectedResponse = new BatteryQueryResponse(names, 12000, 6000, 2, 0, 50);
 
         cacheKey = "battery-stats::from=1000:to=4000:min=null:max=null:page=0:size=50";
+        aggregatesKey = "battery-stats::from=1000:to=4000:min=null:max=null:aggregates";
+
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(cacheKeyIndex.register(anyString(), anyInt(), anyInt())).thenReturn(Mono.empty());
+        lenient().when(cacheKeyIndex.resolve(anyList())).thenAnswer(invocation -> Mono.just(
+                invocation.<List<CacheInvalidationStrategy.RangeKey>>getArgument(0).stream()
+                        .map(CacheInvalidationStrategy.RangeKey::key)
+                        .toList()));
+
+        BatteryQueryCache queryCache = new BatteryQueryCache(redisTemplate, stringRedisTemplate, cacheKeyIndex,
+                properties, new SimpleMeterRegistry());
+        batteryService = new BatteryService(kafkaTemplate, batteryRepository, queryCache, validator, properties,
+                aggregateIndex, inFlightRequests, recomputeLease, heavyHitters);
+    }
 
-        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    @Test
+    void registerBatteries_shouldReportAcknowledgedSends() {
+        when(kafkaTemplate.send(anyString(), anyString(), any(BatteryDto.class)))
+                .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+        StepVerifier.create(batteryService.registerBatteries(testBatteryDtos))
+                .expectNextMatches(result ->
+                        result.getAcknowledged() == 2 &&
+                                result.getFailed() == 0 &&
+                                result.getRejected() == 0 &&
+                                result.getMessage().equals("Successfully registered 2 batteries"))
+                .verifyComplete();
+
+        verify(kafkaTemplate).send("battery-topic", "2000", testBatteryDtos.get(0));
+        verify(kafkaTemplate).send("battery-topic", "3000", testBatteryDtos.get(1));
     }
 
+    @Test
+    void registerBatteries_shouldCountFailedSends() {
+        when(kafkaTemplate.send("battery-topic", "2000", testBatteryDtos.get(0)))
+                .thenReturn(CompletableFuture.completedFuture(sendResult()));
+        when(kafkaTemplate.send("battery-topic", "3000", testBatteryDtos.get(1)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Broker unavailable")));
+
+        StepVerifier.create(batteryService.registerBatteries(testBatteryDtos))
+                .expectNextMatches(result ->
+                        result.getAcknowledged() == 1 &&
+                                result.getFailed() == 1 &&
+                                !result.isFullyAcknowledged())
+                .verifyComplete();
+    }
+
+    @Test
+    void registerBatteryStream_shouldPublishValidBatteriesAndRejectInvalidOnes() {
+        BatteryDto invalid = new BatteryDto("Battery C", "123", 1000);
+        @SuppressWarnings("unchecked")
+        ConstraintViolation<BatteryDto> violation = mock(ConstraintViolation.class);
+
+        when(validator.validate(any(BatteryDto.class))).thenReturn(Set.of());
+        when(validator.validate(invalid)).thenReturn(Set.of(violation));
+        when(kafkaTemplate.send(anyString(), anyString(), any(BatteryDto.class)))
+                .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+        StepVerifier.create(batteryService.registerBatteryStream(
+                        Flux.just(testBatteryDtos.get(0), invalid, testBatteryDtos.get(1))))
+                .expectNextMatches(result ->
+                        result.getAcknowledged() == 2 &&
+                                result.getRejected() == 1 &&
+                                result.getMessage().equals("Successfully registered 2 batteries, rejected 1 invalid batteries"))
+                .verifyComplete();
+
+        verify(kafkaTemplate).send("battery-topic", "2000", testBatteryDtos.get(0));
+        verify(kafkaTemplate).send("battery-topic", "3000", testBatteryDtos.get(1));
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), eq(invalid));
+    }
+
+    @Test
+    void registerBatteryStream_resubscribed_shouldCountEachSubscriptionOnItsOwn() {
+        BatteryDto invalid = new BatteryDto("Battery C", "123", 1000);
+        @SuppressWarnings("unchecked")
+        ConstraintViolation<BatteryDto> violation = mock(ConstraintViolation.class);
+
+        when(validator.validate(any(BatteryDto.class))).thenReturn(Set.of());
+        when(validator.validate(invalid)).thenReturn(Set.of(violation));
+        when(kafkaTemplate.send(anyString(), anyString(), any(BatteryDto.class)))
+                .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+        Mono<BatteryRegistrationResult> registration = batteryService.registerBatteryStream(
+                Flux.just(testBatteryDtos.get(0), invalid));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            StepVerifier.create(registration)
+                    .expectNextMatches(result -> result.getAcknowledged() == 1 && result.getRejected() == 1)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    void registerBatteries_withPostcodePrefixStrategy_shouldKeyByPrefix() {
+        properties.getKafka().getPartitioning().setKeyStrategy(VppProperties.PartitionKeyStrategy.POSTCODE_PREFIX);
+        properties.getKafka().getPartitioning().setPostcodePrefixLength(2);
+        when(kafkaTemplate.send(anyString(), anyString(), any(BatteryDto.class)))
+                .thenReturn(CompletableFuture.completedFuture(sendResult()));
+
+        StepVerifier.create(batteryService.registerBatteries(testBatteryDtos))
+                .expectNextMatches(result -> result.getAcknowledged() == 2)
+                .verifyComplete();
+
+        verify(kafkaTemplate).send("battery-topic", "20", testBatteryDtos.get(0));
+        verify(kafkaTemplate).send("battery-topic", "30", testBatteryDtos.get(1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SendResult<String, BatteryDto> sendResult() {
+        return mock(SendResult.class);
+    }
 
     @Test
     void shouldReturnFromCacheWhenExists() {
@@ -88,46 +249,107 @@ public class BatteryServiceTest {
         String to = "2000";
         Optional<Integer> min = Optional.of(10);
         Optional<Integer> max = Optional.of(100);
+        String aggregatesKey = "battery-stats::from=1000:to=2000:min=10:max=100:aggregates";
         String cacheKey = "battery-stats::from=1000:to=2000:min=10:max=100:page=0:size=50";
-        BatteryQueryResponse cachedResponse = new BatteryQueryResponse(List.of("A", "B"), 150.0, 75.0, 2, 0, 50);
 
-        when(valueOperations.get(cacheKey)).thenReturn(Mono.just(cachedResponse));
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey)))
+                .thenReturn(Mono.just(List.of(aggregates(2, 150.0, 75.0), namePage(List.of("A", "B"), 0, 50))));
 
         Mono<BatteryQueryResponse> result = batteryService.getBatteries(from, to, min, max, Optional.of(pageNumber), Optional.of(pageSize));
 
         StepVerifier.create(result)
-                .expectNextMatches(resp -> resp.getTotalWattCapacity() == 150.0 && resp.getAverageWattCapacity() == 75.0)
+                .expectNext(new BatteryQueryResponse(List.of("A", "B"), 150.0, 75.0, 2, 0, 50))
+                .verifyComplete();
+
+        verify(valueOperations, never()).get(anyString());
+        verifyNoInteractions(batteryRepository);
+        verify(heavyHitters).record(new HotQuery(from, to, 10, 100, 50));
+    }
+
+    @Test
+    void getBatteries_withOneCapacityBound_shouldRecordAHotQueryThatWarmsTheSameKeys() {
+        String aggregatesKey = "battery-stats::from=1000:to=2000:min=10:max=null:aggregates";
+        String cacheKey = "battery-stats::from=1000:to=2000:min=10:max=null:page=0:size=50";
+        HotQuery recorded = new HotQuery("1000", "2000", 10, null, 50);
+
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey)))
+                .thenReturn(Mono.just(List.of(aggregates(2, 150.0, 75.0), namePage(List.of("A", "B"), 0, 50))));
+
+        StepVerifier.create(batteryService.getBatteries("1000", "2000", Optional.of(10), Optional.empty(),
+                        Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNextCount(1)
                 .verifyComplete();
+        StepVerifier.create(batteryService.warm(recorded)).verifyComplete();
 
-        verify(valueOperations).get(cacheKey);
+        verify(heavyHitters).record(recorded);
+        verify(valueOperations, times(2)).multiGet(List.of(aggregatesKey, cacheKey));
         verifyNoInteractions(batteryRepository);
     }
 
+    @Test
+    void warm_shouldLoadTheFirstPageWithoutCountingIt() {
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey))).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 120.0, 60.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("X", "Y"), null)));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+
+        StepVerifier.create(batteryService.warm(new HotQuery("1000", "4000", null, null, 50)))
+                .verifyComplete();
+
+        verify(valueOperations).set(aggregatesKey, aggregates(2, 120.0, 60.0), Duration.ofMinutes(10));
+        verify(valueOperations).set(cacheKey, namePage(List.of("X", "Y"), 0, 50), Duration.ofMinutes(10));
+        verifyNoInteractions(heavyHitters);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldServeStaleHitsAndRefreshThemInTheBackground() {
+        properties.getCache().getRefresh().setEnabled(true);
+        batteryService = new BatteryService(kafkaTemplate, batteryRepository,
+                new BatteryQueryCache(redisTemplate, stringRedisTemplate, cacheKeyIndex, properties, new SimpleMeterRegistry()),
+                validator, properties, aggregateIndex, inFlightRequests, recomputeLease, heavyHitters);
+
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey)))
+                .thenReturn(Mono.just(List.of(aggregates(2, 150.0, 75.0), namePage(List.of("A", "B"), 0, 50))));
+        // The aggregates entry is past its soft TTL and this instance claims its refresh; the page is still fresh
+        when(stringRedisTemplate.execute(any(RedisScript.class),
+                eq(List.of("battery-stats-fresh::" + aggregatesKey, "battery-stats-fresh::" + cacheKey)), anyList()))
+                .thenReturn(Flux.just(List.of(0L, 60_000L)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(3, 200.0, 66.0)));
+        when(valueOperations.set(aggregatesKey, aggregates(3, 200.0, 66.0), Duration.ofMinutes(10)))
+                .thenReturn(Mono.just(true));
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringValueOperations);
+        when(stringValueOperations.set("battery-stats-fresh::" + aggregatesKey, "1", Duration.ofMinutes(2)))
+                .thenReturn(Mono.just(true));
+
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(),
+                        Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNext(new BatteryQueryResponse(List.of("A", "B"), 150.0, 75.0, 2, 0, 50))
+                .verifyComplete();
+
+        verify(valueOperations).set(aggregatesKey, aggregates(3, 200.0, 66.0), Duration.ofMinutes(10));
+        verify(batteryRepository, never()).findNamePage(anyInt(), anyInt(), any(), any(), any(), any());
+    }
+
     @Test
     void shouldQueryDatabaseAndCacheWhenNotInCache() {
         String from = "3000";
         String to = "4000";
         Optional<Integer> min = Optional.empty();
         Optional<Integer> max = Optional.empty();
+        String aggregatesKey = "battery-stats::from=3000:to=4000:min=null:max=null:aggregates";
         String cacheKey = "battery-stats::from=3000:to=4000:min=null:max=null:page=0:size=50";
 
-        Battery battery1 = new Battery("X", "3100", 50);
-        Battery battery2 = new Battery("Y", "3200", 70);
-        List<Battery> batteryList = List.of(battery1, battery2);
-
-        when(valueOperations.get(cacheKey)).thenReturn(Mono.empty());
-
-        when(batteryRepository.findByPostcodeBetween(from, to, pageable))
-                .thenReturn(Flux.fromIterable(batteryList));
-
-        when(batteryRepository.countByPostcodeBetween(from, to))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetween(from, to))
-                .thenReturn(Mono.just(120.0));
-        when(batteryRepository.avgCapacityByPostcodeBetween(from, to))
-                .thenReturn(Mono.just(60.0));
-
-        when(valueOperations.set(eq(cacheKey), any(), eq(Duration.ofMinutes(10))))
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey))).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(3000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 120.0, 60.0)));
+        when(batteryRepository.findNamePage(3000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("X", "Y"), null)));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10))))
                 .thenReturn(Mono.just(true));
 
         Mono<BatteryQueryResponse> result = batteryService.getBatteries(from, to, min, max,
@@ -144,11 +366,8 @@ public class BatteryServiceTest {
                 )
                 .verifyComplete();
 
-        verify(batteryRepository).findByPostcodeBetween(from, to, pageable);
-        verify(batteryRepository).countByPostcodeBetween(from, to);
-        verify(batteryRepository).sumCapacityByPostcodeBetween(from, to);
-        verify(batteryRepository).avgCapacityByPostcodeBetween(from, to);
-        verify(valueOperations).set(eq(cacheKey), any(), eq(Duration.ofMinutes(10)));
+        verify(valueOperations).set(aggregatesKey, aggregates(2, 120.0, 60.0), Duration.ofMinutes(10));
+        verify(valueOperations).set(cacheKey, namePage(List.of("X", "Y"), 0, 50), Duration.ofMinutes(10));
     }
 
     @Test
@@ -157,25 +376,15 @@ public class BatteryServiceTest {
         String to = "4000";
         Optional<Integer> min = Optional.of(40);
         Optional<Integer> max = Optional.of(80);
+        String aggregatesKey = "battery-stats::from=3000:to=4000:min=40:max=80:aggregates";
         String cacheKey = "battery-stats::from=3000:to=4000:min=40:max=80:page=0:size=50";
 
-        Battery battery1 = new Battery("X", "3100", 50);
-        Battery battery2 = new Battery("Y", "3200", 70);
-        List<Battery> batteryList = List.of(battery1, battery2);
-
-        when(valueOperations.get(cacheKey)).thenReturn(Mono.empty());
-
-        when(batteryRepository.findByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get(), pageable))
-                .thenReturn(Flux.fromIterable(batteryList));
-
-        when(batteryRepository.countByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get()))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get()))
-                .thenReturn(Mono.just(120.0));
-        when(batteryRepository.avgCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get()))
-                .thenReturn(Mono.just(60.0));
-
-        when(valueOperations.set(eq(cacheKey), any(), eq(Duration.ofMinutes(10))))
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey))).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(3000, 4000, 40, 80))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 120.0, 60.0)));
+        when(batteryRepository.findNamePage(3000, 4000, 40, 80, null, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("X", "Y"), null)));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10))))
                 .thenReturn(Mono.just(true));
 
         Mono<BatteryQueryResponse> result = batteryService.getBatteries(from, to, min, max,
@@ -192,68 +401,52 @@ public class BatteryServiceTest {
                 )
                 .verifyComplete();
 
-        verify(batteryRepository).findByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get(), pageable);
-        verify(batteryRepository).countByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get());
-        verify(batteryRepository).sumCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get());
-        verify(batteryRepository).avgCapacityByPostcodeBetweenAndCapacityBetween(from, to, min.get(), max.get());
-        verify(valueOperations).set(eq(cacheKey), any(), eq(Duration.ofMinutes(10)));
-    }
-
-    @Test
-    void shouldReturnFromCacheWhenAvailable() {
-        String from = "3000";
-        String to = "4000";
-        Optional<Integer> min = Optional.empty();
-        Optional<Integer> max = Optional.empty();
-        String cacheKey = "battery-stats::from=3000:to=4000:min=null:max=null:page=0:size=50";
-
-        BatteryQueryResponse cachedResponse = new BatteryQueryResponse(
-                List.of("X", "Y"), 120.0, 60.0, 2, 0, 50
-        );
-
-        when(valueOperations.get(cacheKey)).thenReturn(Mono.just(cachedResponse));
-
-        Mono<BatteryQueryResponse> result = batteryService.getBatteries(from, to, min, max,
-                Optional.of(pageNumber), Optional.of(pageSize));
-
-        StepVerifier.create(result)
-                .expectNext(cachedResponse)
-                .verifyComplete();
-
-        verify(batteryRepository, never()).findByPostcodeBetween(anyString(), anyString(), any(Pageable.class));
-        verify(valueOperations).get(cacheKey);
+        verify(valueOperations).set(eq(aggregatesKey), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10)));
+        verify(valueOperations).set(eq(cacheKey), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10)));
     }
 
     @Test
     void getBatteries_cacheHit_shouldReturnFromCache() {
-        when(valueOperations.get(anyString())).thenReturn(Mono.just(expectedResponse));
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey)))
+                .thenReturn(Mono.just(List.of(aggregates(2, 12000, 6000), namePage(List.of("Battery A", "Battery B"), 0, 50))));
 
         StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
                 .expectNext(expectedResponse)
                 .verifyComplete();
 
-        verify(valueOperations).get(anyString());
-        verify(batteryRepository, never()).findByPostcodeBetween(anyString(), anyString(), any(Pageable.class));
+        verifyNoInteractions(batteryRepository);
     }
 
     @Test
-    void getBatteries_cacheMiss_shouldQueryDatabaseAndCache() {
-        when(valueOperations.get(anyString())).thenReturn(Mono.empty());
+    void getBatteries_nextPageOfCachedRange_shouldOnlyReadNamePage() {
+        String secondPageKey = "battery-stats::from=1000:to=4000:min=null:max=null:page=1:size=50";
+        Pageable secondPage = PageRequest.of(1, pageSize, Sort.by("name"));
+        when(valueOperations.multiGet(List.of(aggregatesKey, secondPageKey)))
+                .thenReturn(Mono.just(Arrays.asList(aggregates(120, 720000.0, 6000.0), null)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, secondPage))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("Battery Z"), null)));
+        when(valueOperations.set(eq(secondPageKey), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(Boolean.TRUE));
 
-        when(batteryRepository.findByPostcodeBetween("1000", "4000", pageable))
-                .thenReturn(Flux.fromIterable(testBatteries));
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(1), Optional.of(pageSize)))
+                .expectNext(new BatteryQueryResponse(List.of("Battery Z"), 720000.0, 6000.0, 120, 1, 50))
+                .verifyComplete();
 
-        when(batteryRepository.countByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(12000.0));
-        when(batteryRepository.avgCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(6000.0));
+        verify(batteryRepository, never()).findRangeSummary(anyInt(), anyInt(), any(), any());
+        verify(valueOperations, never()).set(eq(aggregatesKey), any(BatteryQueryResponse.class), any(Duration.class));
+    }
 
+    @Test
+    void getBatteries_withCapacityFilter_shouldQueryWithFilter() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, 4000, 8000))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, 4000, 8000, null, pageable))
+                .thenReturn(Mono.just(namePage()));
         when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
                 .thenReturn(Mono.just(Boolean.TRUE));
 
-        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.of(4000), Optional.of(8000), Optional.of(pageNumber), Optional.of(pageSize)))
                 .expectNextMatches(response ->
                         response.getBatteryNames().size() == 2 &&
                                 response.getTotalWattCapacity() == 12000 &&
@@ -263,147 +456,355 @@ public class BatteryServiceTest {
                                 response.getSize() == pageSize)
                 .verifyComplete();
 
-        verify(valueOperations).get(anyString());
-        verify(batteryRepository).findByPostcodeBetween("1000", "4000", pageable);
-        verify(batteryRepository).countByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).sumCapacityByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).avgCapacityByPostcodeBetween("1000", "4000");
-        verify(valueOperations).set(anyString(), any(BatteryQueryResponse.class), any(Duration.class));
+        verify(batteryRepository).findRangeSummary(1000, 4000, 4000, 8000);
+        verify(batteryRepository).findNamePage(1000, 4000, 4000, 8000, null, pageable);
+        verify(valueOperations, times(2)).set(anyString(), any(BatteryQueryResponse.class), any(Duration.class));
     }
 
     @Test
-    void getBatteries_withCapacityFilter_shouldQueryWithFilter() {
-        when(valueOperations.get(anyString())).thenReturn(Mono.empty());
+    void getBatteries_withOnlyMinCapacity_shouldNotApplyCapacityFilter() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(namePage()));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(Boolean.TRUE));
 
-        when(batteryRepository.findByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000, pageable))
-                .thenReturn(Flux.fromIterable(testBatteries));
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.of(4000), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNextMatches(response -> response.getTotalBatteries() == 2)
+                .verifyComplete();
 
-        when(batteryRepository.countByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000))
-                .thenReturn(Mono.just(12000.0));
-        when(batteryRepository.avgCapacityByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000))
-                .thenReturn(Mono.just(6000.0));
+        verify(batteryRepository).findRangeSummary(1000, 4000, null, null);
+    }
 
+    @Test
+    void getBatteries_cacheError_shouldFallbackToDatabase() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.error(new RuntimeException("Cache error")));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(namePage()));
         when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
                 .thenReturn(Mono.just(Boolean.TRUE));
 
-        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.of(4000), Optional.of(8000), Optional.of(pageNumber), Optional.of(pageSize)))
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNext(expectedResponse)
+                .verifyComplete();
+    }
+
+    @Test
+    void getBatteries_cacheWriteError_shouldStillReturnResult() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(namePage()));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNext(expectedResponse)
+                .verifyComplete();
+    }
+
+    @Test
+    void getBatteries_pageBeyondRange_shouldKeepRangeAggregates() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of(), null)));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(Boolean.TRUE));
+
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
                 .expectNextMatches(response ->
-                        response.getBatteryNames().size() == 2 &&
+                        response.getBatteryNames().isEmpty() &&
                                 response.getTotalWattCapacity() == 12000 &&
                                 response.getAverageWattCapacity() == 6000 &&
                                 response.getTotalBatteries() == 2 &&
                                 response.getPage() == pageNumber &&
                                 response.getSize() == pageSize)
                 .verifyComplete();
+    }
 
-        verify(valueOperations).get(anyString());
-        verify(batteryRepository).findByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000, pageable);
-        verify(batteryRepository).countByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000);
-        verify(batteryRepository).sumCapacityByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000);
-        verify(batteryRepository).avgCapacityByPostcodeBetweenAndCapacityBetween("1000", "4000", 4000, 8000);
-        verify(valueOperations).set(anyString(), any(BatteryQueryResponse.class), any(Duration.class));
+    @Test
+    void getBatteries_withCursor_shouldSeekPastCursorAndReturnNextCursor() {
+        BatteryCursor after = new BatteryCursor("Battery A", UUID.randomUUID().toString());
+        BatteryCursor next = new BatteryCursor("Battery B", UUID.randomUUID().toString());
+        String cursorCacheKey = "battery-stats::from=1000:to=4000:min=null:max=null:after=" + after.encode() + ":size=50";
+
+        when(valueOperations.multiGet(List.of(aggregatesKey, cursorCacheKey)))
+                .thenReturn(Mono.just(Arrays.asList(aggregates(3, 18000.0, 6000.0), null)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, after, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("Battery B"), next)));
+        when(valueOperations.set(eq(cursorCacheKey), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(Boolean.TRUE));
+
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(),
+                        Optional.empty(), Optional.of(pageSize), Optional.of(after.encode())))
+                .expectNextMatches(response ->
+                        response.getBatteryNames().equals(List.of("Battery B")) &&
+                                response.getTotalBatteries() == 3 &&
+                                next.equals(BatteryCursor.decode(response.getNextCursor())))
+                .verifyComplete();
+
+        verify(batteryRepository).findNamePage(1000, 4000, null, null, after, pageable);
+        verify(valueOperations).set(eq(cursorCacheKey), any(BatteryQueryResponse.class), any(Duration.class));
     }
 
     @Test
-    void queryDatabaseAndCache_noBatteries_shouldReturnEmptyStats() {
-        Pageable pageable = PageRequest.of(pageNumber, pageSize, Sort.by("name"));
+    void getBatteries_withInvalidCursor_shouldFailWithValidationError() {
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(),
+                        Optional.empty(), Optional.empty(), Optional.of("not-a-cursor")))
+                .expectError(ValidationException.class)
+                .verify();
 
-        when(batteryRepository.findByPostcodeBetween("5000", "6000", pageable))
-                .thenReturn(Flux.empty());
+        verifyNoInteractions(batteryRepository);
+        verify(redisTemplate, never()).opsForValue();
+    }
 
-        when(batteryRepository.countByPostcodeBetween("5000", "6000"))
-                .thenReturn(Mono.just(0L));
-        when(batteryRepository.sumCapacityByPostcodeBetween("5000", "6000"))
-                .thenReturn(Mono.just(0.0));
-        when(batteryRepository.avgCapacityByPostcodeBetween("5000", "6000"))
-                .thenReturn(Mono.just(0.0));
+    @Test
+    void getBatteries_withNonNumericPostcode_shouldFailWithValidationError() {
+        StepVerifier.create(batteryService.getBatteries("10A0", "4000", Optional.empty(), Optional.empty(),
+                        Optional.empty(), Optional.empty()))
+                .expectError(ValidationException.class)
+                .verify();
+
+        verifyNoInteractions(batteryRepository);
+        verify(redisTemplate, never()).opsForValue();
+    }
+
+    @Test
+    void streamBatteryNames_shouldStreamFromRepositoryWithConfiguredFetchSize() {
+        when(batteryRepository.streamNames(1000, 4000, 4000, 8000, 1000))
+                .thenReturn(Flux.just("Battery A", "Battery B"));
+
+        StepVerifier.create(batteryService.streamBatteryNames("1000", "4000", Optional.of(4000), Optional.of(8000)))
+                .expectNext("Battery A", "Battery B")
+                .verifyComplete();
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void getRangeSummary_withOnlyMaxCapacity_shouldNotApplyCapacityFilter() {
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+
+        StepVerifier.create(batteryService.getRangeSummary("1000", "4000", Optional.empty(), Optional.of(8000)))
+                .expectNextMatches(summary -> summary.getTotalBatteries() == 2 && summary.getAverageWattCapacity() == 6000.0)
+                .verifyComplete();
+    }
 
+    @Test
+    void getBatteries_whenAggregateIndexAnswers_shouldOnlyReadNamePageFromDatabase() {
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(aggregateIndex.summarize(1000, 4000, 4000, 8999))
+                .thenReturn(Optional.of(new BatteryRangeSummary(7, 42000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, 4000, 8999, null, pageable))
+                .thenReturn(Mono.just(new BatteryNamePage(List.of("Battery A", "Battery B"), null)));
         when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
                 .thenReturn(Mono.just(Boolean.TRUE));
 
-        StepVerifier.create(batteryService.queryDatabaseAndCache("5000", "6000", Optional.empty(), Optional.empty(), pageNumber, pageSize, pageable, "test-key"))
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.of(4000), Optional.of(8999), Optional.of(pageNumber), Optional.of(pageSize)))
                 .expectNextMatches(response ->
-                        response.getBatteryNames().isEmpty() &&
-                                response.getTotalWattCapacity() == 0 &&
-                                response.getAverageWattCapacity() == 0 &&
-                                response.getTotalBatteries() == 0 &&
-                                response.getPage() == pageNumber &&
-                                response.getSize() == pageSize)
+                        response.getBatteryNames().equals(List.of("Battery A", "Battery B")) &&
+                                response.getTotalBatteries() == 7 &&
+                                response.getTotalWattCapacity() == 42000.0 &&
+                                response.getAverageWattCapacity() == 6000.0)
                 .verifyComplete();
 
-        verify(batteryRepository).findByPostcodeBetween("5000", "6000", pageable);
-        verify(batteryRepository).countByPostcodeBetween("5000", "6000");
-        verify(batteryRepository).sumCapacityByPostcodeBetween("5000", "6000");
-        verify(batteryRepository).avgCapacityByPostcodeBetween("5000", "6000");
+        verify(batteryRepository, never()).findRangeSummary(anyInt(), anyInt(), any(), any());
     }
 
     @Test
-    void getBatteries_cacheError_shouldFallbackToDatabase() {
-        when(valueOperations.get(anyString())).thenReturn(Mono.error(new RuntimeException("Cache error")));
+    void getBatteryBatch_allCached_shouldResolveFromOneMultiGet() {
+        String otherAggregatesKey = "battery-stats::from=5000:to=6000:min=null:max=null:aggregates";
+        String otherKey = "battery-stats::from=5000:to=6000:min=null:max=null:page=0:size=50";
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey, otherAggregatesKey, otherKey)))
+                .thenReturn(Mono.just(List.of(
+                        aggregates(2, 12000, 6000), namePage(List.of("Battery A", "Battery B"), 0, 50),
+                        aggregates(1, 9000, 9000), namePage(List.of("Battery C"), 0, 50))));
+
+        StepVerifier.create(batteryService.getBatteryBatch(List.of(
+                        new BatteryRangeQuery("1000", "4000", null, null),
+                        new BatteryRangeQuery("5000", "6000", null, null))))
+                .expectNextMatches(response -> response.getResults().equals(List.of(
+                        expectedResponse, new BatteryQueryResponse(List.of("Battery C"), 9000, 9000, 1, 0, 50))))
+                .verifyComplete();
 
-        when(batteryRepository.findByPostcodeBetween("1000", "4000", pageable))
-                .thenReturn(Flux.fromIterable(testBatteries));
+        verify(valueOperations, never()).get(anyString());
+        verifyNoInteractions(batteryRepository);
+    }
 
-        when(batteryRepository.countByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(12000.0));
-        when(batteryRepository.avgCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(6000.0));
+    @Test
+    void getBatteryBatch_withMisses_shouldComputeThemInOneQueryAndCacheThem() {
+        String missAggregatesKey = "battery-stats::from=5000:to=6000:min=4000:max=8000:aggregates";
+        String missKey = "battery-stats::from=5000:to=6000:min=4000:max=8000:page=0:size=50";
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey, missAggregatesKey, missKey, missAggregatesKey, missKey)))
+                .thenReturn(Mono.just(Arrays.asList(
+                        aggregates(2, 12000, 6000), namePage(List.of("Battery A", "Battery B"), 0, 50), null, null, null, null)));
+        when(batteryRepository.findRangeStatistics(List.of(new BatteryRangeCriteria(5000, 6000, 4000, 8000, pageable))))
+                .thenReturn(Mono.just(List.of(rangeStatistics(2, 12000.0, 6000.0))));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10))))
+                .thenReturn(Mono.just(Boolean.TRUE));
 
-        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+        StepVerifier.create(batteryService.getBatteryBatch(List.of(
+                        new BatteryRangeQuery("1000", "4000", null, null),
+                        new BatteryRangeQuery("5000", "6000", 4000, 8000),
+                        new BatteryRangeQuery("5000", "6000", 4000, 8000))))
+                .expectNextMatches(response ->
+                        response.getResults().size() == 3 &&
+                                response.getResults().get(0).equals(expectedResponse) &&
+                                response.getResults().get(1).getTotalBatteries() == 2 &&
+                                response.getResults().get(2).equals(response.getResults().get(1)))
+                .verifyComplete();
+
+        verify(batteryRepository).findRangeStatistics(anyList());
+        verify(valueOperations).set(missAggregatesKey, aggregates(2, 12000.0, 6000.0), Duration.ofMinutes(10));
+        verify(valueOperations).set(missKey, namePage(List.of("Battery A", "Battery B"), 0, 50), Duration.ofMinutes(10));
+    }
+
+    @Test
+    void getBatteryBatch_pagesOfOneRange_shouldWriteItsAggregatesOnce() {
+        String secondPageKey = "battery-stats::from=1000:to=4000:min=null:max=null:page=1:size=50";
+        Pageable secondPage = PageRequest.of(1, pageSize, Sort.by("name"));
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey, aggregatesKey, secondPageKey)))
+                .thenReturn(Mono.just(misses(4)));
+        when(batteryRepository.findRangeStatistics(List.of(
+                new BatteryRangeCriteria(1000, 4000, null, null, pageable),
+                new BatteryRangeCriteria(1000, 4000, null, null, secondPage))))
+                .thenReturn(Mono.just(List.of(rangeStatistics(3, 18000.0, 6000.0),
+                        new BatteryRangeStatistics(List.of("Battery C"), 3, 18000.0, 6000.0))));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), eq(Duration.ofMinutes(10))))
                 .thenReturn(Mono.just(Boolean.TRUE));
 
-        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+        BatteryRangeQuery secondPageQuery = new BatteryRangeQuery("1000", "4000", null, null);
+        secondPageQuery.setPage(1);
+        StepVerifier.create(batteryService.getBatteryBatch(List.of(
+                        new BatteryRangeQuery("1000", "4000", null, null), secondPageQuery)))
                 .expectNextMatches(response ->
-                        response.getBatteryNames().size() == 2 &&
-                                response.getAverageWattCapacity() == 6000 &&
-                                response.getTotalWattCapacity() == 12000 &&
-                                response.getTotalBatteries() == 2 &&
-                                response.getPage() == pageNumber &&
-                                response.getSize() == pageSize)
+                        response.getResults().get(0).getTotalBatteries() == 3 &&
+                                response.getResults().get(1).equals(new BatteryQueryResponse(List.of("Battery C"), 18000.0, 6000.0, 3, 1, 50)))
+                .verifyComplete();
+
+        verify(valueOperations, times(1)).set(eq(aggregatesKey), any(BatteryQueryResponse.class), any(Duration.class));
+        verify(valueOperations, times(3)).set(anyString(), any(BatteryQueryResponse.class), any(Duration.class));
+    }
+
+    @Test
+    void getBatteryBatch_overTheLimit_shouldFailWithValidationError() {
+        properties.getQuery().setMaxBatchQueries(1);
+
+        StepVerifier.create(batteryService.getBatteryBatch(List.of(
+                        new BatteryRangeQuery("1000", "4000", null, null),
+                        new BatteryRangeQuery("5000", "6000", null, null))))
+                .expectError(ValidationException.class)
+                .verify();
+
+        verifyNoInteractions(valueOperations, batteryRepository);
+    }
+
+    @Test
+    void getCapacityDistribution_shouldEstimatePercentilesFromMergedHistogram() {
+        List<CapacityHistogramBucket> histogram = List.of(
+                new CapacityHistogramBucket(4871, 5312, 50),
+                new CapacityHistogramBucket(9742, 10624, 40),
+                new CapacityHistogramBucket(13778, 15025, 10));
+        when(batteryRepository.findCapacityHistogram(1000, 4000)).thenReturn(Flux.fromIterable(histogram));
+
+        StepVerifier.create(batteryService.getCapacityDistribution("1000", "4000"))
+                .expectNextMatches(distribution ->
+                        distribution.getTotalBatteries() == 100 &&
+                                distribution.getP50WattCapacity() == 5312.0 &&
+                                distribution.getP90WattCapacity() == 10624.0 &&
+                                Math.abs(distribution.getP99WattCapacity() - (13778 + 0.9 * (15025 - 13778))) < 1e-9 &&
+                                distribution.getHistogram().equals(histogram))
+                .verifyComplete();
+    }
+
+    @Test
+    void getBatteries_concurrentMissesOnDifferentPages_shouldComputeAggregatesOnce() {
+        Sinks.One<BatteryRangeSummary> summary = Sinks.one();
+        when(valueOperations.multiGet(anyList())).thenReturn(Mono.just(misses(2)));
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null)).thenReturn(summary.asMono());
+        when(batteryRepository.findNamePage(eq(1000), eq(4000), isNull(), isNull(), isNull(), any(Pageable.class)))
+                .thenReturn(Mono.just(namePage()));
+        when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
+                .thenReturn(Mono.just(Boolean.TRUE));
+
+        Mono<BatteryQueryResponse> first = batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(0), Optional.of(pageSize));
+        Mono<BatteryQueryResponse> second = batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(1), Optional.of(pageSize));
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> summary.tryEmitValue(new BatteryRangeSummary(2, 12000.0, 6000.0)))
+                .expectNextMatches(both -> both.getT1().getTotalBatteries() == 2 && both.getT2().getTotalBatteries() == 2
+                        && both.getT1().getPage() == 0 && both.getT2().getPage() == 1)
                 .verifyComplete();
 
-        verify(valueOperations).get(anyString());
-        verify(batteryRepository).findByPostcodeBetween("1000", "4000", pageable);
-        verify(batteryRepository).countByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).sumCapacityByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).avgCapacityByPostcodeBetween("1000", "4000");
+        verify(batteryRepository, times(1)).findRangeSummary(1000, 4000, null, null);
+        verify(batteryRepository, times(2)).findNamePage(eq(1000), eq(4000), isNull(), isNull(), isNull(), any(Pageable.class));
+        verify(valueOperations, times(1)).set(eq(aggregatesKey), any(BatteryQueryResponse.class), any(Duration.class));
     }
 
     @Test
-    void getBatteries_withNullStatistics_shouldHandleGracefully() {
-        when(valueOperations.get(anyString())).thenReturn(Mono.empty());
+    void getBatteries_whenAnotherInstanceHoldsTheLease_shouldWaitForItsEntry() {
+        properties.getCache().getLease().setEnabled(true);
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey))).thenReturn(Mono.just(misses(2)));
+        when(valueOperations.get(aggregatesKey)).thenReturn(Mono.just(aggregates(2, 12000, 6000)));
+        when(valueOperations.get(cacheKey)).thenReturn(Mono.just(namePage(List.of("Battery A", "Battery B"), 0, 50)));
+        when(recomputeLease.tryAcquire(anyString())).thenReturn(Mono.just(false));
+        when(recomputeLease.awaitHolder(any())).thenAnswer(invocation -> invocation.getArgument(0));
 
-        when(batteryRepository.findByPostcodeBetween("1000", "4000", pageable))
-                .thenReturn(Flux.fromIterable(testBatteries));
+        StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
+                .expectNext(expectedResponse)
+                .verifyComplete();
 
-        when(batteryRepository.countByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.just(2L));
-        when(batteryRepository.sumCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.empty());
-        when(batteryRepository.avgCapacityByPostcodeBetween("1000", "4000"))
-                .thenReturn(Mono.empty());
+        verifyNoInteractions(batteryRepository);
+        verify(recomputeLease, never()).release(anyString());
+    }
 
+    @Test
+    void getBatteries_whenLeaseAcquired_shouldQueryAndReleaseIt() {
+        properties.getCache().getLease().setEnabled(true);
+        when(valueOperations.multiGet(List.of(aggregatesKey, cacheKey))).thenReturn(Mono.just(misses(2)));
+        when(recomputeLease.tryAcquire(anyString())).thenReturn(Mono.just(true));
+        when(recomputeLease.release(anyString())).thenReturn(Mono.empty());
+        when(batteryRepository.findRangeSummary(1000, 4000, null, null))
+                .thenReturn(Mono.just(new BatteryRangeSummary(2, 12000.0, 6000.0)));
+        when(batteryRepository.findNamePage(1000, 4000, null, null, null, pageable))
+                .thenReturn(Mono.just(namePage()));
         when(valueOperations.set(anyString(), any(BatteryQueryResponse.class), any(Duration.class)))
                 .thenReturn(Mono.just(Boolean.TRUE));
 
         StepVerifier.create(batteryService.getBatteries("1000", "4000", Optional.empty(), Optional.empty(), Optional.of(pageNumber), Optional.of(pageSize)))
-                .expectNextMatches(response ->
-                        response.getBatteryNames().size() == 2 &&
-                                response.getTotalWattCapacity() == 0.0 &&
-                                response.getAverageWattCapacity() == 0.0 &&
-                                response.getTotalBatteries() == 2 &&
-                                response.getPage() == pageNumber &&
-                                response.getSize() == pageSize)
+                .expectNextMatches(response -> response.getTotalBatteries() == 2)
                 .verifyComplete();
 
-        verify(valueOperations).get(anyString());
-        verify(batteryRepository).findByPostcodeBetween("1000", "4000", pageable);
-        verify(batteryRepository).countByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).sumCapacityByPostcodeBetween("1000", "4000");
-        verify(batteryRepository).avgCapacityByPostcodeBetween("1000", "4000");
+        verify(recomputeLease).release(aggregatesKey);
+        verify(recomputeLease).release(cacheKey);
+    }
+
+    private BatteryRangeStatistics rangeStatistics(long totalCount, double totalCapacity, double averageCapacity) {
+        return new BatteryRangeStatistics(
+                testBatteries.stream().map(Battery::getName).toList(), totalCount, totalCapacity, averageCapacity);
+    }
+
+    private BatteryNamePage namePage() {
+        return new BatteryNamePage(testBatteries.stream().map(Battery::getName).toList(), null);
+    }
+
+    private static BatteryQueryResponse aggregates(long totalCount, double totalCapacity, double averageCapacity) {
+        return new BatteryQueryResponse(null, totalCapacity, averageCapacity, totalCount, 0, 0);
+    }
+
+    private static BatteryQueryResponse namePage(List<String> names, int page, int size) {
+        return new BatteryQueryResponse(names, 0, 0, 0, page, size);
+    }
+
+    private static List<BatteryQueryResponse> misses(int count) {
+        return Arrays.asList(new BatteryQueryResponse[count]);
     }
-}
\ No newline at end of file
+}
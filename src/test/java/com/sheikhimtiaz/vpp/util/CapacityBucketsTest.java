@@ -0,0 +1,37 @@
+package com.sheikhimtiaz.vpp.util;
+
+import com.sheikhimtiaz.vpp.model.CapacityHistogramBucket;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CapacityBucketsTest {
+
+    @Test
+    void bounds_shouldCoverEachDoublingWithEightAdjacentBuckets() {
+        assertEquals(0, CapacityBuckets.lowerBound(0));
+        assertEquals(1, CapacityBuckets.upperBound(0));
+        assertEquals(1, CapacityBuckets.lowerBound(1));
+        assertEquals(16384, CapacityBuckets.lowerBound(113));
+        assertEquals(17867, CapacityBuckets.upperBound(113));
+        for (int bucket = 1; bucket < 248; bucket++) {
+            assertEquals(CapacityBuckets.upperBound(bucket), CapacityBuckets.lowerBound(bucket + 1));
+        }
+        assertEquals(32768, CapacityBuckets.lowerBound(1 + 15 * CapacityBuckets.BUCKETS_PER_DOUBLING));
+    }
+
+    @Test
+    void quantile_shouldInterpolateWithinTheBucketHoldingTheRank() {
+        List<CapacityHistogramBucket> histogram = List.of(
+                new CapacityHistogramBucket(100, 200, 1),
+                new CapacityHistogramBucket(1000, 2000, 3));
+
+        assertEquals(100.0, CapacityBuckets.quantile(histogram, 0.0));
+        assertEquals(200.0, CapacityBuckets.quantile(histogram, 0.25));
+        assertEquals(1500.0, CapacityBuckets.quantile(histogram, 0.625));
+        assertEquals(2000.0, CapacityBuckets.quantile(histogram, 1.0));
+        assertEquals(0.0, CapacityBuckets.quantile(List.of(), 0.5));
+    }
+}
@@ -0,0 +1,33 @@
+package com.sheikhimtiaz.vpp.util;
+
+import com.sheikhimtiaz.vpp.exception.GlobalWebFluxExceptionHandler.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostcodesTest {
+
+    @Test
+    void parse_shouldReadFourDigitsIncludingLeadingZeros() {
+        assertEquals(800, Postcodes.parse("0800"));
+        assertEquals(0, Postcodes.parse("0000"));
+        assertEquals(9999, Postcodes.parse("9999"));
+    }
+
+    @Test
+    void parse_shouldRejectAnythingButFourDigits() {
+        assertThrows(ValidationException.class, () -> Postcodes.parse(null));
+        assertThrows(ValidationException.class, () -> Postcodes.parse("800"));
+        assertThrows(ValidationException.class, () -> Postcodes.parse("10000"));
+        assertThrows(ValidationException.class, () -> Postcodes.parse("-800"));
+        assertThrows(ValidationException.class, () -> Postcodes.parse("08a0"));
+    }
+
+    @Test
+    void format_shouldRestoreTheFourDigitForm() {
+        assertEquals("0800", Postcodes.format(800));
+        assertEquals("0000", Postcodes.format(0));
+        assertEquals("9999", Postcodes.format(Postcodes.parse("9999")));
+        assertThrows(IllegalArgumentException.class, () -> Postcodes.format(10000));
+    }
+}
@@ -0,0 +1,4 @@
+-- 003-create-battery-name-id-index.sql
+-- Matches the (name, id) keyset used by cursor pagination, so a page seeks to the cursor
+-- and reads rows already in order instead of sorting and skipping everything before it.
+CREATE INDEX IF NOT EXISTS idx_battery_name_id ON battery (name, id);
@@ -0,0 +1,18 @@
+-- 004-create-battery-postcode-rollup-table.sql
+-- One row per postcode with the running aggregates of its batteries. Writes that go through
+-- insertAll or the bulk-load merge upsert their deltas here in the same statement, so range
+-- statistics without a capacity filter sum at most one row per postcode instead of every battery.
+CREATE TABLE IF NOT EXISTS battery_postcode_rollup (
+    postcode VARCHAR(20) PRIMARY KEY,
+    battery_count BIGINT NOT NULL,
+    total_capacity BIGINT NOT NULL,
+    min_capacity INT NOT NULL,
+    max_capacity INT NOT NULL
+);
+
+-- Backfill from the rows that already exist
+INSERT INTO battery_postcode_rollup (postcode, battery_count, total_capacity, min_capacity, max_capacity)
+SELECT postcode, COUNT(*), SUM(capacity), MIN(capacity), MAX(capacity)
+FROM battery
+GROUP BY postcode
+ON CONFLICT (postcode) DO NOTHING;
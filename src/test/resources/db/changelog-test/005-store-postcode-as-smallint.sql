@@ -0,0 +1,35 @@
+-- 005-store-postcode-as-smallint.sql
+-- Postcodes are four digits, so they fit a SMALLINT: 2 bytes instead of a 5-byte varchar, and integer
+-- comparisons instead of collation-aware string ones in every range predicate and index.
+-- battery is rewritten rather than altered in place so the fixed-width columns come first, widest
+-- alignment first, ahead of the variable-length name. The row then carries no alignment padding.
+-- The changeset runs in one transaction; the lock blocks writers still on the previous version from the
+-- snapshot of the copy until the commit, so no row they insert meanwhile is left behind in the dropped table.
+-- Reads go on until DROP TABLE.
+LOCK TABLE battery IN EXCLUSIVE MODE;
+
+CREATE TABLE battery_compact (
+    id UUID DEFAULT gen_random_uuid(),
+    capacity INT NOT NULL,
+    postcode SMALLINT NOT NULL CHECK (postcode BETWEEN 0 AND 9999),
+    name VARCHAR(255) NOT NULL
+);
+
+INSERT INTO battery_compact (id, capacity, postcode, name)
+SELECT id, capacity, postcode::smallint, name
+FROM battery;
+
+DROP TABLE battery;
+ALTER TABLE battery_compact RENAME TO battery;
+
+-- Indexes are built once over the copied rows instead of maintained row by row during the copy. The
+-- single-column postcode and capacity indexes go with the old table; the covering indexes replacing them
+-- are built by 006 over the final column type, without blocking writes.
+ALTER TABLE battery ADD CONSTRAINT battery_pkey PRIMARY KEY (id);
+CREATE INDEX idx_battery_name_id ON battery (name, id);
+ALTER TABLE battery ADD CONSTRAINT uq_battery_name_postcode UNIQUE (name, postcode);
+CREATE INDEX idx_battery_name ON battery (name);
+
+-- Staged and rolled-up postcodes use the same type, so merges and rollup upserts need no casts
+ALTER TABLE battery_staging ALTER COLUMN postcode TYPE SMALLINT USING postcode::smallint;
+ALTER TABLE battery_postcode_rollup ALTER COLUMN postcode TYPE SMALLINT USING postcode::smallint;
@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset vpp:006-create-covering-indexes runInTransaction:false
+-- 006-create-covering-indexes.sql
+-- Built concurrently, so ingestion keeps writing while the indexes are built; that cannot run in a transaction.
+-- A concurrent build that fails leaves an invalid index behind, which IF NOT EXISTS would then skip, so the
+-- changeset drops any leftover first.
+
+-- Postcode range plus capacity filter: both predicates are index conditions and the page columns
+-- ride along, so filtered pages and capacity aggregates are answered by an index-only scan.
+DROP INDEX CONCURRENTLY IF EXISTS idx_battery_postcode_capacity;
+CREATE INDEX CONCURRENTLY idx_battery_postcode_capacity ON battery (postcode, capacity) INCLUDE (name, id);
+
+-- Single-postcode pages come out of this index already in (name, id) order, without a sort.
+DROP INDEX CONCURRENTLY IF EXISTS idx_battery_postcode_name_id;
+CREATE INDEX CONCURRENTLY idx_battery_postcode_name_id ON battery (postcode, name, id);
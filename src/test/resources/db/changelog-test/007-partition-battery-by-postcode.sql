@@ -0,0 +1,48 @@
+--liquibase formatted sql
+
+--changeset vpp:007-partition-battery-by-postcode context:partitioned
+--comment: Opt-in, runs only when spring.liquibase.contexts includes partitioned
+-- 007-partition-battery-by-postcode.sql
+-- Splits battery into one range partition per leading postcode digit. Range predicates on postcode are
+-- pruned to the partitions they overlap, at plan time for literals and at executor startup for bind
+-- parameters, and vacuum, analyze and index maintenance run per partition instead of over one heap.
+-- Held until the changeset commits: writers wait instead of inserting rows the copy below would not see and
+-- DROP TABLE would then discard. Reads go on until DROP TABLE.
+LOCK TABLE battery IN EXCLUSIVE MODE;
+
+CREATE TABLE battery_partitioned (
+    id UUID NOT NULL DEFAULT gen_random_uuid(),
+    capacity INT NOT NULL,
+    postcode SMALLINT NOT NULL CHECK (postcode BETWEEN 0 AND 9999),
+    name VARCHAR(255) NOT NULL
+) PARTITION BY RANGE (postcode);
+
+CREATE TABLE battery_p0 PARTITION OF battery_partitioned FOR VALUES FROM (0) TO (1000);
+CREATE TABLE battery_p1 PARTITION OF battery_partitioned FOR VALUES FROM (1000) TO (2000);
+CREATE TABLE battery_p2 PARTITION OF battery_partitioned FOR VALUES FROM (2000) TO (3000);
+CREATE TABLE battery_p3 PARTITION OF battery_partitioned FOR VALUES FROM (3000) TO (4000);
+CREATE TABLE battery_p4 PARTITION OF battery_partitioned FOR VALUES FROM (4000) TO (5000);
+CREATE TABLE battery_p5 PARTITION OF battery_partitioned FOR VALUES FROM (5000) TO (6000);
+CREATE TABLE battery_p6 PARTITION OF battery_partitioned FOR VALUES FROM (6000) TO (7000);
+CREATE TABLE battery_p7 PARTITION OF battery_partitioned FOR VALUES FROM (7000) TO (8000);
+CREATE TABLE battery_p8 PARTITION OF battery_partitioned FOR VALUES FROM (8000) TO (9000);
+CREATE TABLE battery_p9 PARTITION OF battery_partitioned FOR VALUES FROM (9000) TO (10000);
+
+INSERT INTO battery_partitioned (id, capacity, postcode, name)
+SELECT id, capacity, postcode, name
+FROM battery;
+
+DROP TABLE battery;
+ALTER TABLE battery_partitioned RENAME TO battery;
+
+-- A unique constraint on a partitioned table must contain the partition key, so the key is (postcode, id).
+-- Ids are still random UUIDs and the entity keeps id as its identifier.
+ALTER TABLE battery ADD CONSTRAINT battery_pkey PRIMARY KEY (postcode, id);
+CREATE INDEX idx_battery_name_id ON battery (name, id);
+CREATE INDEX idx_battery_postcode_capacity ON battery (postcode, capacity) INCLUDE (name, id);
+CREATE INDEX idx_battery_postcode_name_id ON battery (postcode, name, id);
+ALTER TABLE battery ADD CONSTRAINT uq_battery_name_postcode UNIQUE (name, postcode);
+CREATE INDEX idx_battery_name ON battery (name);
+
+-- Autovacuum analyzes the partitions but never the partitioned parent, so seed its statistics once here
+ANALYZE battery;
@@ -0,0 +1,20 @@
+-- 008-create-battery-capacity-histogram.sql
+-- A fixed log-bucket histogram of capacity per postcode: bucket 0 holds capacities <= 0, and bucket
+-- b >= 1 holds [2^((b-1)/8), 2^(b/8)), eight buckets per doubling, so any estimate read from it is within
+-- about 9% of the true value. Histograms of neighbouring postcodes merge by adding counts, so range
+-- percentiles never sort battery rows. Maintained alongside battery_postcode_rollup by the same writes.
+CREATE TABLE IF NOT EXISTS battery_capacity_histogram (
+    postcode SMALLINT NOT NULL,
+    bucket SMALLINT NOT NULL,
+    battery_count BIGINT NOT NULL,
+    PRIMARY KEY (postcode, bucket)
+);
+
+-- Backfill from the rows that already exist; the bucket expression matches the one used on insert
+INSERT INTO battery_capacity_histogram (postcode, bucket, battery_count)
+SELECT postcode,
+       CASE WHEN capacity <= 0 THEN 0 ELSE 1 + floor(log(2, capacity::numeric) * 8)::int END AS bucket,
+       COUNT(*)
+FROM battery
+GROUP BY postcode, bucket
+ON CONFLICT (postcode, bucket) DO NOTHING;